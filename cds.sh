@@ -0,0 +1,51 @@
+#!/bin/bash
+# Builds a class-data sharing archive for the packaged jar (run "mvn package" first).
+# The app is started once against the configured database to record the classes loaded during startup,
+# pass the same arguments you use in production, e.g.
+#   ./cds.sh --spring.profiles.active=fast-start --spring.datasource.password=...
+# start.sh uses the archive automatically once target/cds/app.jsa exists.
+set -e
+
+JARPATH=$(ls target/*.jar | grep -v "\.original$" | head -n 1)
+CDS_DIR=target/cds
+PORT=${PORT:-10883}
+
+rm -rf $CDS_DIR
+mkdir -p $CDS_DIR/unpacked
+
+# Classes can only be archived from plain jars on the class path, not from the jars nested in the Spring Boot jar,
+# so the dependencies are unpacked next to a thin jar that lists them in its manifest.
+(cd $CDS_DIR/unpacked && jar xf ../../../$JARPATH)
+mv $CDS_DIR/unpacked/BOOT-INF/lib $CDS_DIR/lib
+# manifest lines are wrapped at 72 bytes, continuation lines start with a space
+MAIN_CLASS=$(tr -d "\r" < $CDS_DIR/unpacked/META-INF/MANIFEST.MF \
+             | awk '/^Start-Class: / { value = substr($0, 14); found = 1; next }
+                    found && /^ / { value = value substr($0, 2); next }
+                    { found = 0 }
+                    END { print value }')
+
+{
+    echo "Main-Class: $MAIN_CLASS"
+    echo "Class-Path: "
+    for LIB in $(ls $CDS_DIR/lib); do
+        echo "  lib/$LIB "
+    done
+} > $CDS_DIR/MANIFEST.MF
+jar cfm $CDS_DIR/app.jar $CDS_DIR/MANIFEST.MF -C $CDS_DIR/unpacked/BOOT-INF/classes .
+rm -rf $CDS_DIR/unpacked $CDS_DIR/MANIFEST.MF
+
+# training run: stopped as soon as the server answers its first request
+java -Xshare:off -XX:DumpLoadedClassList=$CDS_DIR/classes.lst -jar $CDS_DIR/app.jar --server.port=$PORT "$@" &
+APP_PID=$!
+until curl -s -o /dev/null http://localhost:$PORT/actuator/health; do
+    if ! kill -0 $APP_PID 2>/dev/null; then
+        echo "The application exited during the training run." >&2
+        exit 1
+    fi
+    sleep 0.5
+done
+kill $APP_PID
+wait $APP_PID || true
+
+java -Xshare:dump -XX:SharedClassListFile=$CDS_DIR/classes.lst -XX:SharedArchiveFile=$CDS_DIR/app.jsa -jar $CDS_DIR/app.jar > $CDS_DIR/dump.log
+echo "Archived $(wc -l < $CDS_DIR/classes.lst) classes to $CDS_DIR/app.jsa"
@@ -0,0 +1,109 @@
+package com.charliechiang.wastesortinghelperserver.benchmark;
+
+import com.charliechiang.wastesortinghelperserver.model.CreditEvent;
+import com.charliechiang.wastesortinghelperserver.model.CreditEventType;
+import com.charliechiang.wastesortinghelperserver.model.User;
+import com.charliechiang.wastesortinghelperserver.repository.CreditEventRepository;
+import com.charliechiang.wastesortinghelperserver.repository.CreditSnapshotRepository;
+import com.charliechiang.wastesortinghelperserver.repository.UserRepository;
+import com.charliechiang.wastesortinghelperserver.service.CreditLedger;
+import com.charliechiang.wastesortinghelperserver.service.DomainEventBus;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Full credit recomputation of one user from the ledger, as done by the credit/actions/rebuild endpoint with full=true.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CreditBenchmark {
+
+    @Param({"20", "200", "2000"})
+    private int eventCount;
+
+    private CreditLedger creditLedger;
+    private User user;
+
+    @Setup
+    public void setUp() {
+
+        user = new User(1L, "2019211915");
+
+        ArrayList<CreditEvent> events = new ArrayList<>();
+        Random random = new Random(42);
+        for (int i = 0; i < eventCount; i++) {
+            boolean isCorrect = random.nextInt(10) != 0;
+            CreditEvent event = new CreditEvent(user.getId(),
+                                                isCorrect ? CreditEventType.DEPOSIT : CreditEventType.PENALTY,
+                                                isCorrect ? 1 : -1,
+                                                (long) i);
+            ReflectionTestUtils.setField(event, "id", (long) i + 1);
+            events.add(event);
+        }
+
+        CreditEventRepository creditEventRepository = RepositoryStub.of(CreditEventRepository.class, Map.of(
+                "findAllByUserIdAndIdGreaterThanOrderByIdAsc", args -> events));
+        CreditSnapshotRepository creditSnapshotRepository = RepositoryStub.of(CreditSnapshotRepository.class,
+                                                                              Map.of("save", args -> args[0]));
+        UserRepository userRepository = RepositoryStub.of(UserRepository.class, Map.of(
+                "lockCreditById", args -> 0,
+                "updateCreditById", args -> 1));
+
+        creditLedger = new CreditLedger(creditEventRepository,
+                                        creditSnapshotRepository,
+                                        userRepository,
+                                        null,
+                                        new DomainEventBus(8192, 256, 5000, 30000, new SimpleMeterRegistry()),
+                                        new NoTransactionManager(),
+                                        16384,
+                                        new SimpleMeterRegistry());
+    }
+
+    @Benchmark
+    public int rebuild() {
+
+        return creditLedger.rebuild(user, true);
+    }
+
+    // the repositories are stubs, there is nothing to begin or commit
+    private static class NoTransactionManager implements PlatformTransactionManager {
+
+        @Override
+        public TransactionStatus getTransaction(TransactionDefinition definition) {
+
+            return new SimpleTransactionStatus();
+        }
+
+        @Override
+        public void commit(TransactionStatus status) {
+
+        }
+
+        @Override
+        public void rollback(TransactionStatus status) {
+
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.charliechiang.wastesortinghelperserver.benchmark;
+
+import com.charliechiang.wastesortinghelperserver.model.ServerSetting;
+import com.charliechiang.wastesortinghelperserver.repository.ServerSettingsRepository;
+import com.charliechiang.wastesortinghelperserver.security.JwtProperties;
+import com.charliechiang.wastesortinghelperserver.security.JwtTokenAuthenticationFilter;
+import com.charliechiang.wastesortinghelperserver.security.JwtTokenProvider;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import javax.servlet.FilterChain;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+// Token validation and claim parsing done by the filter on every authenticated request.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class JwtFilterBenchmark {
+
+    private final FilterChain filterChain = (request, response) -> {
+    };
+
+    private JwtTokenAuthenticationFilter jwtTokenAuthenticationFilter;
+    private MockHttpServletRequest request;
+    private MockHttpServletResponse response;
+
+    @Setup
+    public void setUp() throws Exception {
+
+        ServerSettingsRepository serverSettingsRepository = RepositoryStub.of(ServerSettingsRepository.class, Map.of(
+                "findById", args -> Optional.of(new ServerSetting((String) args[0], "604800", "integer"))));
+
+        JwtTokenProvider jwtTokenProvider = new JwtTokenProvider(new JwtProperties(), serverSettingsRepository);
+        jwtTokenProvider.init();
+        jwtTokenAuthenticationFilter = new JwtTokenAuthenticationFilter(jwtTokenProvider, new SimpleMeterRegistry());
+
+        String token = jwtTokenProvider.createToken(new UsernamePasswordAuthenticationToken(
+                "2019211915", "", AuthorityUtils.createAuthorityList("ROLE_USER")));
+
+        request = new MockHttpServletRequest("GET", "/api/v1/users/me");
+        request.addHeader(HttpHeaders.AUTHORIZATION, JwtTokenAuthenticationFilter.HEADER_PREFIX + token);
+        response = new MockHttpServletResponse();
+    }
+
+    @Benchmark
+    public Authentication doFilter() throws Exception {
+
+        jwtTokenAuthenticationFilter.doFilter(request, response, filterChain);
+
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        SecurityContextHolder.clearContext();
+
+        return authentication;
+    }
+}
@@ -0,0 +1,99 @@
+package com.charliechiang.wastesortinghelperserver.benchmark;
+
+import com.charliechiang.wastesortinghelperserver.controller.UserController;
+import com.charliechiang.wastesortinghelperserver.model.School;
+import com.charliechiang.wastesortinghelperserver.model.ServerSetting;
+import com.charliechiang.wastesortinghelperserver.model.User;
+import com.charliechiang.wastesortinghelperserver.repository.SchoolRepository;
+import com.charliechiang.wastesortinghelperserver.repository.ServerSettingsRepository;
+import com.charliechiang.wastesortinghelperserver.repository.UserRepository;
+import com.charliechiang.wastesortinghelperserver.service.UserUpdatePublisher;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// College and school ranking refresh. The user query is answered by sorting in memory like the database would.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RankingBenchmark {
+
+    @Param({"1000", "10000"})
+    private int userCount;
+
+    @Param({"20"})
+    private int schoolCount;
+
+    private UserController userController;
+
+    @Setup
+    public void setUp() {
+
+        ArrayList<School> schools = new ArrayList<>();
+        for (long i = 0; i < schoolCount; i++) {
+            schools.add(new School(i, "School " + i, "School " + i, 0));
+        }
+
+        ArrayList<User> users = new ArrayList<>();
+        Random random = new Random(42);
+        for (long i = 0; i < userCount; i++) {
+            User user = new User(i, String.valueOf(2019000000 + i));
+            user.setCredit(random.nextInt(500));
+            user.setSchool(schools.get(random.nextInt(schoolCount)));
+            users.add(user);
+        }
+
+        UserRepository userRepository = RepositoryStub.of(UserRepository.class, Map.of(
+                "findAllByOrderByCreditDesc", args -> {
+                    ArrayList<User> ranking = new ArrayList<>(users);
+                    ranking.sort(Comparator.comparing(User::getCredit).reversed());
+                    return ranking;
+                },
+                "save", args -> args[0]));
+        SchoolRepository schoolRepository = RepositoryStub.of(SchoolRepository.class, Map.of(
+                "findAll", args -> schools,
+                "saveAll", args -> args[0]));
+        // a zero delay makes every call a full refresh
+        ServerSettingsRepository serverSettingsRepository = RepositoryStub.of(ServerSettingsRepository.class, Map.of(
+                "findById", args -> Optional.of(new ServerSetting((String) args[0], "0", "integer"))));
+
+        userController = new UserController(userRepository,
+                                            null,
+                                            schoolRepository,
+                                            serverSettingsRepository,
+                                            null,
+                                            null,
+                                            null,
+                                            new UserUpdatePublisher(),
+                                            null,
+                                            null,
+                                            null,
+                                            null,
+                                            new SimpleMeterRegistry());
+    }
+
+    @Benchmark
+    public void updateRanking() throws Exception {
+
+        userController.updateRanking();
+    }
+}
@@ -0,0 +1,37 @@
+package com.charliechiang.wastesortinghelperserver.benchmark;
+
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.function.Function;
+
+// Lightweight repository stand-ins, mocking frameworks would add more overhead than the code being measured.
+final class RepositoryStub {
+
+    private RepositoryStub() {
+
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> T of(Class<T> repositoryType,
+                    Map<String, Function<Object[], Object>> answers) {
+
+        return (T) Proxy.newProxyInstance(repositoryType.getClassLoader(),
+                                          new Class<?>[]{repositoryType},
+                                          (proxy, method, args) -> {
+                                              if (answers.containsKey(method.getName())) {
+                                                  return answers.get(method.getName()).apply(args);
+                                              }
+                                              if (method.getName().equals("hashCode")) {
+                                                  return System.identityHashCode(proxy);
+                                              }
+                                              if (method.getName().equals("equals")) {
+                                                  return proxy == args[0];
+                                              }
+                                              if (method.getName().equals("toString")) {
+                                                  return repositoryType.getSimpleName() + " stub";
+                                              }
+
+                                              throw new UnsupportedOperationException(method.getName());
+                                          });
+    }
+}
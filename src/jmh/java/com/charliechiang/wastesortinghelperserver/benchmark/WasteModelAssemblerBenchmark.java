@@ -0,0 +1,79 @@
+package com.charliechiang.wastesortinghelperserver.benchmark;
+
+import com.charliechiang.wastesortinghelperserver.model.Dustbin;
+import com.charliechiang.wastesortinghelperserver.model.User;
+import com.charliechiang.wastesortinghelperserver.model.Waste;
+import com.charliechiang.wastesortinghelperserver.model.WasteCategory;
+import com.charliechiang.wastesortinghelperserver.model.WasteModelAssembler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.hateoas.CollectionModel;
+import org.springframework.hateoas.EntityModel;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+// Self link building for wastes, links are resolved against a current request like in a controller.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class WasteModelAssemblerBenchmark {
+
+    private final WasteModelAssembler wasteModelAssembler = new WasteModelAssembler();
+
+    private Waste waste;
+    // the default page size of /api/v1/users/me/wastes
+    private final ArrayList<Waste> recentWastes = new ArrayList<>();
+
+    @Setup
+    public void setUp() {
+
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(
+                new MockHttpServletRequest("GET", "/api/v1/users/me/wastes")));
+
+        User user = new User(1L, "2019211915");
+        Dustbin dustbin = new Dustbin("Wuxi", 31.58844, 120.35756);
+        dustbin.setId(1L);
+
+        for (long i = 0; i < 20; i++) {
+            Waste waste = new Waste(user, WasteCategory.RECYCLABLE_WASTE, 0.23, dustbin, LocalDateTime.now());
+            waste.setId(i);
+            recentWastes.add(waste);
+        }
+        waste = recentWastes.get(0);
+    }
+
+    @TearDown
+    public void tearDown() {
+
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    @Benchmark
+    public EntityModel<Waste> toModel() {
+
+        return wasteModelAssembler.toModel(waste);
+    }
+
+    @Benchmark
+    public CollectionModel<EntityModel<Waste>> toCollectionModel() {
+
+        return wasteModelAssembler.toCollectionModel(recentWastes);
+    }
+}
@@ -0,0 +1,88 @@
+package com.charliechiang.wastesortinghelperserver.benchmark;
+
+import com.charliechiang.wastesortinghelperserver.controller.WasteController;
+import com.charliechiang.wastesortinghelperserver.controller.WebSocketController;
+import com.charliechiang.wastesortinghelperserver.service.DustbinStatusPublisher;
+import com.charliechiang.wastesortinghelperserver.service.WebSocketMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.websocket.RemoteEndpoint;
+import javax.websocket.Session;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+// Parsing and dispatch of dustbin messages. Persistence is mocked out, only the endpoint's own work is measured.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class WebSocketMessageBenchmark {
+
+    private static final String LID_OPEN_RESPONSE = "{"
+                                                    + "\"type\":0,"
+                                                    + "\"requestId\":1613911143932,"
+                                                    + "\"username\":\"2019211915\","
+                                                    + "\"dustbinId\":1,"
+                                                    + "\"description\":\"(Auto-generated) Lid-open\""
+                                                    + "}";
+
+    private WebSocketController webSocketController;
+    private Session session;
+
+    // deposits are only persisted in order, so every invocation sends the next sequence number
+    private long sequence;
+
+    @Setup
+    public void setUp() {
+
+        webSocketController = new WebSocketController();
+        webSocketController.setWasteController(mock(WasteController.class));
+        webSocketController.setDustbinStatusPublisher(mock(DustbinStatusPublisher.class));
+        webSocketController.setWebSocketMetrics(new WebSocketMetrics(new SimpleMeterRegistry()));
+
+        session = mock(Session.class);
+        when(session.getBasicRemote()).thenReturn(mock(RemoteEndpoint.Basic.class));
+
+        webSocketController.onOpen(session, 1L);
+    }
+
+    @TearDown
+    public void tearDown() {
+
+        webSocketController.onClose();
+    }
+
+    @Benchmark
+    public void lidOpenResponse() {
+
+        webSocketController.onMessage(LID_OPEN_RESPONSE, session);
+    }
+
+    @Benchmark
+    public void deposit() {
+
+        webSocketController.onMessage("{"
+                                      + "\"type\":3,"
+                                      + "\"sequence\":" + (++sequence) + ","
+                                      + "\"username\":\"2019211915\","
+                                      + "\"category\":\"RECYCLABLE_WASTE\","
+                                      + "\"weight\":0.23,"
+                                      + "\"time\":\"2011-11-11 11:11:11\""
+                                      + "}", session);
+    }
+}
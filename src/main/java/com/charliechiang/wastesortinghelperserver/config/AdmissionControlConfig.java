@@ -0,0 +1,27 @@
+package com.charliechiang.wastesortinghelperserver.config;
+
+import com.charliechiang.wastesortinghelperserver.security.AdmissionControlFilter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.security.SecurityProperties;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@ConditionalOnProperty(prefix = "admission", name = "enabled", matchIfMissing = true)
+public class AdmissionControlConfig {
+
+    // ahead of the security chain, a shed request does not even have its token parsed
+    @Bean
+    FilterRegistrationBean<AdmissionControlFilter> admissionControlFilter(AdmissionControlProperties properties,
+                                                                          MeterRegistry meterRegistry) {
+
+        FilterRegistrationBean<AdmissionControlFilter> registration =
+                new FilterRegistrationBean<>(new AdmissionControlFilter(properties, meterRegistry));
+        registration.addUrlPatterns("/api/*");
+        registration.setOrder(SecurityProperties.DEFAULT_FILTER_ORDER - 1);
+
+        return registration;
+    }
+}
@@ -0,0 +1,70 @@
+package com.charliechiang.wastesortinghelperserver.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@ConfigurationProperties(prefix = "admission")
+public class AdmissionControlProperties {
+
+    private boolean enabled = true;
+    // API requests handled at once, a small multiple of the database connection pool
+    private int maxConcurrent = 20;
+    // permits only dustbin deposits and lid-open requests may take
+    private int deviceReserved = 4;
+    // further permits user requests keep from admin bulk reads
+    private int userReserved = 6;
+    private int bulkMaxConcurrent = 2;
+    // dustbin requests wait this long for a permit, the others are shed at once
+    private long deviceWaitMs = 500;
+
+    public AdmissionControlProperties() {
+
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    public void setMaxConcurrent(int maxConcurrent) {
+        this.maxConcurrent = maxConcurrent;
+    }
+
+    public int getDeviceReserved() {
+        return deviceReserved;
+    }
+
+    public void setDeviceReserved(int deviceReserved) {
+        this.deviceReserved = deviceReserved;
+    }
+
+    public int getUserReserved() {
+        return userReserved;
+    }
+
+    public void setUserReserved(int userReserved) {
+        this.userReserved = userReserved;
+    }
+
+    public int getBulkMaxConcurrent() {
+        return bulkMaxConcurrent;
+    }
+
+    public void setBulkMaxConcurrent(int bulkMaxConcurrent) {
+        this.bulkMaxConcurrent = bulkMaxConcurrent;
+    }
+
+    public long getDeviceWaitMs() {
+        return deviceWaitMs;
+    }
+
+    public void setDeviceWaitMs(long deviceWaitMs) {
+        this.deviceWaitMs = deviceWaitMs;
+    }
+}
@@ -0,0 +1,113 @@
+package com.charliechiang.wastesortinghelperserver.config;
+
+import com.charliechiang.wastesortinghelperserver.service.CategorizationCorrected;
+import com.charliechiang.wastesortinghelperserver.service.CreditChanged;
+import com.charliechiang.wastesortinghelperserver.service.CreditLedger;
+import com.charliechiang.wastesortinghelperserver.service.DomainEventBus;
+import com.charliechiang.wastesortinghelperserver.service.DomainEventBus.OverflowPolicy;
+import com.charliechiang.wastesortinghelperserver.service.DustbinFillForecaster;
+import com.charliechiang.wastesortinghelperserver.service.DustbinStatusChanged;
+import com.charliechiang.wastesortinghelperserver.service.DustbinStatusPublisher;
+import com.charliechiang.wastesortinghelperserver.service.UserUpdatePublisher;
+import com.charliechiang.wastesortinghelperserver.service.WasteAnalyticsStore;
+import com.charliechiang.wastesortinghelperserver.service.WasteDeposited;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.context.annotation.Configuration;
+
+// Which consumer sees which domain events. The ledger, the analytics store, the credit pushes and the forecast must
+// see every event and hold publishers back when they fall a whole ring behind, the forecast because the weight it
+// keeps since a dustbin was emptied is a running sum. The dashboards only coalesce what they see, so they lose
+// events instead. The forecaster is a single consumer, so a deposit and a report of the dustbin being emptied reach
+// it in the order they happened.
+@Configuration
+public class DomainEventConfig implements SmartInitializingSingleton {
+
+    private final DomainEventBus domainEventBus;
+    private final CreditLedger creditLedger;
+    private final WasteAnalyticsStore wasteAnalyticsStore;
+    private final DustbinFillForecaster dustbinFillForecaster;
+    private final DustbinStatusPublisher dustbinStatusPublisher;
+    private final UserUpdatePublisher userUpdatePublisher;
+
+    public DomainEventConfig(DomainEventBus domainEventBus,
+                             CreditLedger creditLedger,
+                             WasteAnalyticsStore wasteAnalyticsStore,
+                             DustbinFillForecaster dustbinFillForecaster,
+                             DustbinStatusPublisher dustbinStatusPublisher,
+                             UserUpdatePublisher userUpdatePublisher) {
+
+        this.domainEventBus = domainEventBus;
+        this.creditLedger = creditLedger;
+        this.wasteAnalyticsStore = wasteAnalyticsStore;
+        this.dustbinFillForecaster = dustbinFillForecaster;
+        this.dustbinStatusPublisher = dustbinStatusPublisher;
+        this.userUpdatePublisher = userUpdatePublisher;
+    }
+
+    // a SmartInitializingSingleton, so the fast-start profile does not leave the subscriptions uncreated
+    @Override
+    public void afterSingletonsInstantiated() {
+
+        // the ledger keeps what the bus gives up on while the database is unreachable, instead of holding publishers
+        // back until it is reachable again
+        domainEventBus.subscribe("credit-ledger",
+                                 OverflowPolicy.BLOCK,
+                                 creditLedger::record,
+                                 creditLedger::abandon,
+                                 WasteDeposited.class,
+                                 CategorizationCorrected.class);
+
+        domainEventBus.subscribe("analytics",
+                                 OverflowPolicy.BLOCK,
+                                 wasteAnalyticsStore::record,
+                                 WasteDeposited.class,
+                                 CategorizationCorrected.class);
+
+        domainEventBus.subscribe("credit-push",
+                                 OverflowPolicy.BLOCK,
+                                 events -> events.stream()
+                                                 .map(CreditChanged.class::cast)
+                                                 .forEach(i -> userUpdatePublisher.publishCredit(i.getUsername(),
+                                                                                                 i.getCredit(),
+                                                                                                 i.getDelta())),
+                                 CreditChanged.class);
+
+        domainEventBus.subscribe("forecast",
+                                 OverflowPolicy.BLOCK,
+                                 events -> {
+                                     for (Object event : events) {
+                                         if (event instanceof WasteDeposited) {
+                                             WasteDeposited deposit = (WasteDeposited) event;
+                                             dustbinFillForecaster.recordDeposit(deposit.getDustbinId(),
+                                                                                 deposit.getCategory(),
+                                                                                 deposit.getWeight(),
+                                                                                 deposit.getTime());
+                                         } else {
+                                             DustbinStatusChanged change = (DustbinStatusChanged) event;
+                                             dustbinFillForecaster.updateStatus(change.getDustbinId(),
+                                                                                change.getStatus());
+                                         }
+                                     }
+                                 },
+                                 WasteDeposited.class,
+                                 DustbinStatusChanged.class);
+
+        domainEventBus.subscribe("dashboards",
+                                 OverflowPolicy.DROP,
+                                 events -> {
+                                     for (Object event : events) {
+                                         if (event instanceof WasteDeposited) {
+                                             WasteDeposited deposit = (WasteDeposited) event;
+                                             dustbinStatusPublisher.publishDeposit(deposit.getDustbinId(),
+                                                                                   deposit.getTime());
+                                         } else {
+                                             DustbinStatusChanged change = (DustbinStatusChanged) event;
+                                             dustbinStatusPublisher.publishStatus(change.getDustbinId(),
+                                                                                  change.getStatus());
+                                         }
+                                     }
+                                 },
+                                 WasteDeposited.class,
+                                 DustbinStatusChanged.class);
+    }
+}
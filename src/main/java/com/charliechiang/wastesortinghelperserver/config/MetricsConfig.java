@@ -0,0 +1,97 @@
+package com.charliechiang.wastesortinghelperserver.config;
+
+import com.charliechiang.wastesortinghelperserver.controller.WebSocketController;
+import com.charliechiang.wastesortinghelperserver.service.CoalescingSender;
+import com.charliechiang.wastesortinghelperserver.service.CreditLedger;
+import com.charliechiang.wastesortinghelperserver.service.DepositLog;
+import com.charliechiang.wastesortinghelperserver.service.DustbinStatusPublisher;
+import com.charliechiang.wastesortinghelperserver.service.DustbinStatusTable;
+import com.charliechiang.wastesortinghelperserver.service.RecentWasteCache;
+import com.charliechiang.wastesortinghelperserver.service.UserUpdatePublisher;
+import com.charliechiang.wastesortinghelperserver.service.WasteAnalyticsStore;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class MetricsConfig {
+
+    @Bean
+    MeterBinder engineMetrics(DustbinStatusTable dustbinStatusTable,
+                              DustbinStatusPublisher dustbinStatusPublisher,
+                              UserUpdatePublisher userUpdatePublisher,
+                              RecentWasteCache recentWasteCache,
+                              WasteAnalyticsStore wasteAnalyticsStore,
+                              DepositLog depositLog,
+                              CreditLedger creditLedger) {
+
+        return meterRegistry -> {
+            Gauge.builder("dustbins.online", WebSocketController::getOnlineDustbinCount)
+                 .description("Dustbins connected over WebSocket")
+                 .register(meterRegistry);
+
+            Gauge.builder("dustbin.status.pending", dustbinStatusTable, DustbinStatusTable::getPendingCount)
+                 .description("Fullness changes not yet written to the database")
+                 .register(meterRegistry);
+
+            Gauge.builder("websocket.subscribers", dustbinStatusPublisher, i -> i.getSubscribers().size())
+                 .tag("endpoint", "dashboards")
+                 .register(meterRegistry);
+            Gauge.builder("websocket.subscribers", userUpdatePublisher, UserUpdatePublisher::getSubscriberCount)
+                 .tag("endpoint", "users")
+                 .register(meterRegistry);
+
+            // messages waiting in the coalescing senders, at most one per key and subscriber
+            Gauge.builder("websocket.send.pending", dustbinStatusPublisher,
+                          i -> i.getSubscribers().stream().mapToInt(CoalescingSender::getPendingCount).sum())
+                 .tag("endpoint", "dashboards")
+                 .register(meterRegistry);
+            Gauge.builder("websocket.send.pending", userUpdatePublisher, UserUpdatePublisher::getPendingCount)
+                 .tag("endpoint", "users")
+                 .register(meterRegistry);
+
+            Gauge.builder("user.recent.wastes.users", recentWasteCache, RecentWasteCache::getUserCount)
+                 .description("Users whose latest wastes are cached")
+                 .register(meterRegistry);
+            Gauge.builder("user.recent.wastes.cached", recentWasteCache, RecentWasteCache::getWasteCount)
+                 .description("Wastes held by the recent waste cache")
+                 .register(meterRegistry);
+            Gauge.builder("user.recent.wastes.max", recentWasteCache, RecentWasteCache::getMaxWastes)
+                 .description("Wastes the recent waste cache may hold before evicting users")
+                 .register(meterRegistry);
+
+            Gauge.builder("waste.analytics.rows", wasteAnalyticsStore, WasteAnalyticsStore::getSize)
+                 .description("Wastes in the in-memory analytics store, including those of deleted users")
+                 .register(meterRegistry);
+
+            Gauge.builder("deposit.log.pending", depositLog, DepositLog::getPendingCount)
+                 .description("Deposits in the deposit log that have not been saved yet")
+                 .register(meterRegistry);
+            Gauge.builder("deposit.log.deferred", depositLog, DepositLog::getDeferredCount)
+                 .description("Deposits waiting for the database to be saved by the replay")
+                 .register(meterRegistry);
+            Gauge.builder("deposit.log.segments", depositLog, DepositLog::getSegmentCount)
+                 .register(meterRegistry);
+            FunctionCounter.builder("deposit.log.dropped", depositLog, DepositLog::getDroppedCount)
+                           .description("Deposits dropped from the deposit log because they can never be saved")
+                           .register(meterRegistry);
+
+            Gauge.builder("credit.ledger.missed", creditLedger, CreditLedger::getMissedCount)
+                 .description("Deposits and reports the event bus gave up on, recorded once the database is back")
+                 .register(meterRegistry);
+        };
+    }
+
+    // out of service until the analytics store has loaded every waste, its aggregates are incomplete before that
+    @Bean
+    HealthIndicator wasteAnalyticsHealthIndicator(WasteAnalyticsStore wasteAnalyticsStore) {
+
+        return () -> wasteAnalyticsStore.isLoaded()
+                     ? Health.up().withDetail("rows", wasteAnalyticsStore.getSize()).build()
+                     : Health.outOfService().withDetail("rows", wasteAnalyticsStore.getSize()).build();
+    }
+}
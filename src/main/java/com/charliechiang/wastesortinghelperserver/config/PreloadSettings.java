@@ -8,25 +8,39 @@ import com.charliechiang.wastesortinghelperserver.repository.ServerSettingsRepos
 import com.charliechiang.wastesortinghelperserver.repository.UserRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.boot.CommandLineRunner;
-import org.springframework.context.annotation.Bean;
-import org.springframework.context.annotation.Configuration;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.stereotype.Component;
 import org.springframework.security.crypto.password.PasswordEncoder;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Optional;
 
-@Configuration
-public class PreloadSettings {
+@Component
+public class PreloadSettings implements SmartInitializingSingleton {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(PreloadSettings.class);
 
-    @Bean
-    CommandLineRunner loadData(ServerSettingsRepository serverSettingsRepository,
-                               UserRepository userRepository,
-                               SchoolRepository schoolRepository,
-                               PasswordEncoder passwordEncoder) {
+    private final ServerSettingsRepository serverSettingsRepository;
+    private final UserRepository userRepository;
+    private final SchoolRepository schoolRepository;
+    private final PasswordEncoder passwordEncoder;
+
+    public PreloadSettings(ServerSettingsRepository serverSettingsRepository,
+                           UserRepository userRepository,
+                           SchoolRepository schoolRepository,
+                           PasswordEncoder passwordEncoder) {
+
+        this.serverSettingsRepository = serverSettingsRepository;
+        this.userRepository = userRepository;
+        this.schoolRepository = schoolRepository;
+        this.passwordEncoder = passwordEncoder;
+    }
+
+    // runs before scheduled tasks are started and the server accepts connections, both read the settings, and is
+    // created eagerly by the fast-start profile as a SmartInitializingSingleton
+    @Override
+    public void afterSingletonsInstantiated() {
 
         int savedSettingsCount = 0;
 
@@ -35,6 +49,11 @@ public class PreloadSettings {
         defaultSettings.add(new ServerSetting("rankingUpdateDelay", "3600", "integer")); //second
         defaultSettings.add(new ServerSetting("wasteWeightThreshold", "10", "decimal"));// kg
         defaultSettings.add(new ServerSetting("tokenExpirationDelay", "604800", "integer"));// second
+        defaultSettings.add(new ServerSetting("dustbinCapacity", "20", "decimal"));// kg, per category
+        defaultSettings.add(new ServerSetting("deviceRequestRate", "2", "decimal"));// per second, per dustbin
+        defaultSettings.add(new ServerSetting("deviceRequestBurst", "20", "integer"));
+        defaultSettings.add(new ServerSetting("userRequestRate", "0.5", "decimal"));// per second, per user
+        defaultSettings.add(new ServerSetting("userRequestBurst", "5", "integer"));
 
 
         for (ServerSetting i : defaultSettings) {
@@ -53,7 +72,7 @@ public class PreloadSettings {
             newSchool.setEname("Other");
             newSchool.setName("其他学院");
             newSchool.setId(0L);
-            schoolRepository.save(newSchool);
+            school = Optional.of(schoolRepository.save(newSchool));
         }
 
 
@@ -69,9 +88,6 @@ public class PreloadSettings {
         }
 
 
-        int finalSavedSettingsCount = savedSettingsCount;
-        return args -> {
-            LOGGER.info("Added " + finalSavedSettingsCount + " default settings.");
-        };
+        LOGGER.info("Added " + savedSettingsCount + " default settings.");
     }
 }
@@ -0,0 +1,14 @@
+package com.charliechiang.wastesortinghelperserver.config;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+// Maximum number of SQL statements a request to the annotated endpoint may issue, checked by QueryBudgetInterceptor.
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface QueryBudget {
+
+    int value();
+}
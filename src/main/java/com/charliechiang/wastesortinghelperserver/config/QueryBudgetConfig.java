@@ -0,0 +1,32 @@
+package com.charliechiang.wastesortinghelperserver.config;
+
+import org.hibernate.cfg.AvailableSettings;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+@Configuration
+public class QueryBudgetConfig implements WebMvcConfigurer {
+
+    private final QueryBudgetInterceptor queryBudgetInterceptor;
+
+    public QueryBudgetConfig(QueryBudgetInterceptor queryBudgetInterceptor) {
+
+        this.queryBudgetInterceptor = queryBudgetInterceptor;
+    }
+
+    // static so that creating the EntityManagerFactory does not pull in the interceptor and its dependencies
+    @Bean
+    static HibernatePropertiesCustomizer queryCountCustomizer() {
+
+        return hibernateProperties -> hibernateProperties.put(AvailableSettings.STATEMENT_INSPECTOR, new QueryCountInspector());
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+
+        registry.addInterceptor(queryBudgetInterceptor);
+    }
+}
@@ -0,0 +1,90 @@
+package com.charliechiang.wastesortinghelperserver.config;
+
+import com.charliechiang.wastesortinghelperserver.exception.QueryBudgetExceededException;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.ModelAndView;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+// Checks the statements issued while handling a request against the endpoint's @QueryBudget. Over-budget
+// requests are logged, or fail when query-budget.enforce is set (as in the integration tests).
+@Component
+public class QueryBudgetInterceptor implements HandlerInterceptor {
+
+    private static final Log logger = LogFactory.getLog(QueryBudgetInterceptor.class);
+
+    private final MeterRegistry meterRegistry;
+    private final boolean isEnforced;
+
+    public QueryBudgetInterceptor(MeterRegistry meterRegistry,
+                                  @Value("${query-budget.enforce:false}") boolean isEnforced) {
+
+        this.meterRegistry = meterRegistry;
+        this.isEnforced = isEnforced;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request,
+                             HttpServletResponse response,
+                             Object handler) {
+
+        if (handler instanceof HandlerMethod) {
+            QueryCountInspector.start();
+        }
+
+        return true;
+    }
+
+    // response bodies are already serialized here, so lazy loading during serialization is counted as well
+    @Override
+    public void postHandle(HttpServletRequest request,
+                           HttpServletResponse response,
+                           Object handler,
+                           ModelAndView modelAndView) {
+
+        if (!(handler instanceof HandlerMethod)) {
+            return;
+        }
+
+        int count = QueryCountInspector.getCount();
+        String uri = String.valueOf(request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE));
+
+        DistributionSummary.builder("http.server.requests.queries")
+                           .tag("method", request.getMethod())
+                           .tag("uri", uri)
+                           .register(meterRegistry)
+                           .record(count);
+
+        QueryBudget queryBudget = ((HandlerMethod) handler).getMethodAnnotation(QueryBudget.class);
+        if (queryBudget == null || count <= queryBudget.value()) {
+            return;
+        }
+
+        String message = request.getMethod() + " " + uri + " issued " + count
+                         + " SQL statements, its budget is " + queryBudget.value() + ".";
+        if (isEnforced) {
+            throw new QueryBudgetExceededException(message);
+        }
+        logger.warn(message);
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request,
+                                HttpServletResponse response,
+                                Object handler,
+                                Exception ex) {
+
+        if (handler instanceof HandlerMethod) {
+            QueryCountInspector.stop();
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.charliechiang.wastesortinghelperserver.config;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+// Counts the SQL statements Hibernate prepares on the current thread between start() and stop().
+public class QueryCountInspector implements StatementInspector {
+
+    private static final ThreadLocal<int[]> queryCount = new ThreadLocal<>();
+
+    public static void start() {
+
+        queryCount.set(new int[1]);
+    }
+
+    public static int getCount() {
+
+        int[] count = queryCount.get();
+
+        return count == null ? 0 : count[0];
+    }
+
+    public static int stop() {
+
+        int count = getCount();
+        queryCount.remove();
+
+        return count;
+    }
+
+    @Override
+    public String inspect(String sql) {
+
+        int[] count = queryCount.get();
+        if (count != null) {
+            count[0]++;
+        }
+
+        return sql;
+    }
+}
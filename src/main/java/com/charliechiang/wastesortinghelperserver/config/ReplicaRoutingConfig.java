@@ -0,0 +1,71 @@
+package com.charliechiang.wastesortinghelperserver.config;
+
+import com.charliechiang.wastesortinghelperserver.service.ReadYourWritesWindow;
+import com.zaxxer.hikari.HikariDataSource;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.resource.jdbc.spi.PhysicalConnectionHandlingMode;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.util.Map;
+
+// Enabled by app.datasource.replica.url. The replica takes the same url/username/password keys as
+// spring.datasource, its pool is configured under app.datasource.replica.hikari.
+@Configuration
+@ConditionalOnProperty(prefix = "app.datasource.replica", name = "url")
+public class ReplicaRoutingConfig {
+
+    // The pools are not beans of their own: every DataSource bean would be picked up by the schema initializer
+    // and the metrics binders, which look up the primary DataSource while it is being created.
+    @Bean
+    @Primary
+    public DataSource dataSource(DataSourceProperties dataSourceProperties,
+                                 Environment environment,
+                                 ReadYourWritesWindow readYourWritesWindow) {
+
+        Binder binder = Binder.get(environment);
+
+        HikariDataSource primaryDataSource = createPool(dataSourceProperties, "primary");
+        binder.bind("spring.datasource.hikari", Bindable.ofInstance(primaryDataSource));
+
+        HikariDataSource replicaDataSource =
+                createPool(binder.bind("app.datasource.replica", DataSourceProperties.class).get(), "replica");
+        replicaDataSource.setReadOnly(true);
+        binder.bind("app.datasource.replica.hikari", Bindable.ofInstance(replicaDataSource));
+
+        ReplicaRoutingDataSource routingDataSource = new ReplicaRoutingDataSource(readYourWritesWindow);
+        routingDataSource.setTargetDataSources(Map.of(ReplicaRoutingDataSource.Route.PRIMARY, primaryDataSource,
+                                                      ReplicaRoutingDataSource.Route.REPLICA, replicaDataSource));
+        routingDataSource.setDefaultTargetDataSource(primaryDataSource);
+        routingDataSource.afterPropertiesSet();
+
+        return new LazyConnectionDataSourceProxy(routingDataSource);
+    }
+
+    private static HikariDataSource createPool(DataSourceProperties properties, String poolName) {
+
+        HikariDataSource dataSource = properties.initializeDataSourceBuilder()
+                                                .type(HikariDataSource.class)
+                                                .build();
+        dataSource.setPoolName(poolName);
+        return dataSource;
+    }
+
+    // By default a Hibernate session keeps its first connection until it is closed, which with open-in-view is
+    // the end of the request. Released after each transaction, every transaction is routed on its own.
+    @Bean
+    static HibernatePropertiesCustomizer connectionPerTransactionCustomizer() {
+
+        return hibernateProperties -> hibernateProperties.put(AvailableSettings.CONNECTION_HANDLING,
+                                                              PhysicalConnectionHandlingMode.DELAYED_ACQUISITION_AND_RELEASE_AFTER_TRANSACTION);
+    }
+}
@@ -0,0 +1,47 @@
+package com.charliechiang.wastesortinghelperserver.config;
+
+import com.charliechiang.wastesortinghelperserver.service.ReadYourWritesWindow;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+// Read-only transactions go to the replica, everything else to the primary. Must be wrapped in a
+// LazyConnectionDataSourceProxy: the transaction is only marked read-only after its connection is requested.
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource {
+
+    public enum Route {
+        PRIMARY,
+        REPLICA
+    }
+
+    private final ReadYourWritesWindow readYourWritesWindow;
+
+    public ReplicaRoutingDataSource(ReadYourWritesWindow readYourWritesWindow) {
+
+        this.readYourWritesWindow = readYourWritesWindow;
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+
+        String username = getCurrentUsername();
+
+        if (TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            return username != null && readYourWritesWindow.isActive(username) ? Route.PRIMARY : Route.REPLICA;
+        }
+
+        if (username != null && TransactionSynchronizationManager.isActualTransactionActive()) {
+            readYourWritesWindow.recordWrite(username);
+        }
+
+        return Route.PRIMARY;
+    }
+
+    private static String getCurrentUsername() {
+
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+
+        return authentication != null && authentication.isAuthenticated() ? authentication.getName() : null;
+    }
+}
@@ -0,0 +1,58 @@
+package com.charliechiang.wastesortinghelperserver.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.aop.framework.AopProxyUtils;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// Times every method of the application's Spring Data repositories, including inherited ones like findById.
+@Aspect
+@Component
+public class RepositoryMetricsAspect {
+
+    private static final String REPOSITORY_PACKAGE = "com.charliechiang.wastesortinghelperserver.repository";
+
+    private final MeterRegistry meterRegistry;
+    private final ConcurrentHashMap<Class<?>, String> repositoryNameMap = new ConcurrentHashMap<>();
+
+    public RepositoryMetricsAspect(MeterRegistry meterRegistry) {
+
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Around("this(org.springframework.data.repository.Repository)")
+    public Object time(ProceedingJoinPoint joinPoint) throws Throwable {
+
+        long startTime = System.nanoTime();
+        String exception = "none";
+
+        try {
+            return joinPoint.proceed();
+        } catch (Throwable throwable) {
+            exception = throwable.getClass().getSimpleName();
+            throw throwable;
+        } finally {
+            meterRegistry.timer("repository.invocations",
+                                "repository", getRepositoryName(joinPoint.getThis()),
+                                "method", joinPoint.getSignature().getName(),
+                                "exception", exception)
+                         .record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private String getRepositoryName(Object repository) {
+
+        return repositoryNameMap.computeIfAbsent(repository.getClass(), key ->
+                Arrays.stream(AopProxyUtils.proxiedUserInterfaces(repository))
+                      .filter(i -> i.getPackageName().equals(REPOSITORY_PACKAGE))
+                      .map(Class::getSimpleName)
+                      .findFirst()
+                      .orElse("unknown"));
+    }
+}
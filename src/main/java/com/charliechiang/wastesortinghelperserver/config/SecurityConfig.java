@@ -3,6 +3,10 @@ package com.charliechiang.wastesortinghelperserver.config;
 import com.charliechiang.wastesortinghelperserver.repository.UserRepository;
 import com.charliechiang.wastesortinghelperserver.security.JwtTokenAuthenticationFilter;
 import com.charliechiang.wastesortinghelperserver.security.JwtTokenProvider;
+import com.charliechiang.wastesortinghelperserver.security.RateLimitFilter;
+import com.charliechiang.wastesortinghelperserver.service.RateLimiter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.HttpMethod;
@@ -27,9 +31,12 @@ public class SecurityConfig {
 
     @Bean
     SecurityFilterChain springWebFilterChain(HttpSecurity http,
-                                             JwtTokenProvider tokenProvider) throws Exception {
+                                             JwtTokenProvider tokenProvider,
+                                             RateLimiter rateLimiter,
+                                             MeterRegistry meterRegistry,
+                                             @Value("${rate-limit.enabled:true}") boolean isRateLimited) throws Exception {
 
-        return http
+        http
                 .httpBasic(AbstractHttpConfigurer::disable)
                 .csrf(AbstractHttpConfigurer::disable)
                 .sessionManagement(c -> c.sessionCreationPolicy(SessionCreationPolicy.STATELESS))
@@ -40,6 +47,12 @@ public class SecurityConfig {
                                            // Permit All - sign in
                                            .antMatchers("/api/v1/auth/login").permitAll()
 
+                                           // ---------- Actuator ----------
+                                           // Permit All - health checks
+                                           .antMatchers(HttpMethod.GET, "/actuator/health").permitAll()
+                                           // Admin only - Prometheus scraping and other actuator endpoints
+                                           .antMatchers("/actuator/**").hasRole("ADMIN")
+
                                            // ---------- DustbinController ----------
                                            // Admin only - add dustbins
                                            .antMatchers(HttpMethod.POST, "/api/v1/dustbins").hasRole("ADMIN")
@@ -65,6 +78,8 @@ public class SecurityConfig {
                                            .antMatchers(HttpMethod.GET, "/api/v1/users").hasRole("ADMIN")
                                            // Permit All - sign up
                                            .antMatchers(HttpMethod.POST, "/api/v1/users").permitAll()
+                                           // Admin only - register users in bulk
+                                           .antMatchers(HttpMethod.POST, "/api/v1/users/import").hasRole("ADMIN")
                                            // Authenticate - about me
                                            .antMatchers(HttpMethod.GET, "/api/v1/users/me/**").authenticated()
                                            // Authenticate - update me
@@ -79,12 +94,16 @@ public class SecurityConfig {
                                            .antMatchers(HttpMethod.GET, "/api/v1/users/*/credit").authenticated()
                                            // Authenticate - offset another user's credit (temporary workaround)
                                            .antMatchers(HttpMethod.PUT, "/api/v1/users/*/credit/offset").authenticated()
+                                           // Admin only - recompute a user's credit from the ledger
+                                           .antMatchers(HttpMethod.POST, "/api/v1/users/*/credit/actions/**").hasRole("ADMIN")
                                            // Admin only - get a user
                                            .antMatchers(HttpMethod.GET, "/api/v1/users/**").hasRole("ADMIN")
                                            // Admin only - update a user
                                            .antMatchers(HttpMethod.PUT, "/api/v1/users/**").hasRole("ADMIN")
 
                                            // ---------- WasteController ----------
+                                           // Admin only - aggregates over all wastes
+                                           .antMatchers(HttpMethod.GET, "/api/v1/wastes/aggregates").hasRole("ADMIN")
                                            // Permit All - allow dustbins to post wastes and incorrect categorizations
                                            .antMatchers(HttpMethod.POST, "/api/v1/wastes/**").permitAll()
 
@@ -94,8 +113,14 @@ public class SecurityConfig {
 
                                            .anyRequest().authenticated()
                                   )
-                .addFilterBefore(new JwtTokenAuthenticationFilter(tokenProvider), UsernamePasswordAuthenticationFilter.class)
-                .build();
+                .addFilterBefore(new JwtTokenAuthenticationFilter(tokenProvider, meterRegistry), UsernamePasswordAuthenticationFilter.class);
+
+        // turned off by the load test, whose simulated dustbins all share one address
+        if (isRateLimited) {
+            http.addFilterAfter(new RateLimitFilter(rateLimiter, tokenProvider, meterRegistry), JwtTokenAuthenticationFilter.class);
+        }
+
+        return http.build();
     }
 
     @Bean
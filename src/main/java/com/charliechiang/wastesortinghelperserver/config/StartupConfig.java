@@ -0,0 +1,37 @@
+package com.charliechiang.wastesortinghelperserver.config;
+
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.boot.LazyInitializationExcludeFilter;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.util.ReflectionUtils;
+
+import javax.websocket.server.ServerEndpoint;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+@Configuration
+public class StartupConfig {
+
+    // With spring.main.lazy-initialization (the fast-start profile) these beans would otherwise never be created:
+    // WebSocket endpoints receive their collaborators from bean setters, scheduled tasks are only registered when
+    // their bean is created, and ServerEndpointExporter registers the endpoints once singletons are instantiated.
+    @Bean
+    static LazyInitializationExcludeFilter eagerStartupBeans() {
+
+        return (beanName, beanDefinition, beanType) ->
+                beanType.isAnnotationPresent(ServerEndpoint.class)
+                || SmartInitializingSingleton.class.isAssignableFrom(beanType)
+                || hasScheduledMethod(beanType);
+    }
+
+    private static boolean hasScheduledMethod(Class<?> beanType) {
+
+        AtomicBoolean isScheduled = new AtomicBoolean(false);
+        ReflectionUtils.doWithMethods(beanType,
+                                      method -> isScheduled.set(true),
+                                      method -> AnnotatedElementUtils.hasAnnotation(method, Scheduled.class));
+        return isScheduled.get();
+    }
+}
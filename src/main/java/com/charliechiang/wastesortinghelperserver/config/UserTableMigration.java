@@ -0,0 +1,103 @@
+package com.charliechiang.wastesortinghelperserver.config;
+
+import com.charliechiang.wastesortinghelperserver.model.User;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Moves credit, rankings and the tree game of existing users out of the user table, into the user_stats and
+// user_tree tables ddl-auto has just created, then drops the old columns: the tree columns are NOT NULL without a
+// default, inserting a user would fail while they remain. Every step can be repeated and each column is checked on
+// its own, a migration interrupted by a restart finishes on the next start. Columns are only dropped once both
+// copies are done, so a copy never runs against a table missing some of its columns.
+@Component
+public class UserTableMigration {
+
+    private static final Log logger = LogFactory.getLog(UserTableMigration.class);
+
+    private static final List<String> STATS_COLUMNS =
+            List.of("credit", "school_ranking", "college_ranking", "time_last_updated_credit");
+    private static final List<String> TREE_COLUMNS =
+            List.of("remaining_water", "remaining_fertilizer", "remaining_medicine", "water", "fertilizer", "medicine", "level");
+
+    private final DataSource dataSource;
+    private final JdbcTemplate jdbcTemplate;
+
+    // the EntityManagerFactory is only there to run after ddl-auto
+    public UserTableMigration(DataSource dataSource,
+                              EntityManagerFactory entityManagerFactory) {
+
+        this.dataSource = dataSource;
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    @PostConstruct
+    public void migrate() throws SQLException {
+
+        Set<String> userColumns = getColumns("user");
+        List<String> oldColumns = new ArrayList<>(TREE_COLUMNS);
+        oldColumns.addAll(STATS_COLUMNS);
+        oldColumns.retainAll(userColumns);
+
+        if (oldColumns.isEmpty()) {
+            return;
+        }
+
+        int userCount = 0;
+        if (userColumns.containsAll(STATS_COLUMNS)) {
+            userCount = copy(User.STATS_TABLE, STATS_COLUMNS);
+        }
+        if (userColumns.containsAll(TREE_COLUMNS)) {
+            copy(User.TREE_TABLE, TREE_COLUMNS);
+        }
+
+        // the NOT NULL tree columns first, they are the ones in the way of new users
+        for (String column : oldColumns) {
+            jdbcTemplate.execute("alter table user drop column " + column);
+        }
+
+        logger.info("Moved the credit, rankings and tree of " + userCount + " users out of the user table.");
+    }
+
+    private int copy(String table, List<String> columns) {
+
+        String columnList = String.join(", ", columns);
+
+        return jdbcTemplate.update("insert into " + table + " (user_id, " + columnList + ")"
+                                   + " select u.id, u." + String.join(", u.", columns) + " from user u"
+                                   + " where not exists (select 1 from " + table + " t where t.user_id = u.id)");
+    }
+
+    // identifiers are upper case in H2 and as created in MySQL, the names returned are lower case
+    private Set<String> getColumns(String table) throws SQLException {
+
+        Set<String> columnNames = new HashSet<>();
+
+        try (Connection connection = dataSource.getConnection()) {
+            DatabaseMetaData metaData = connection.getMetaData();
+
+            for (String name : List.of(table, table.toUpperCase())) {
+                try (ResultSet columns = metaData.getColumns(connection.getCatalog(), null, name, null)) {
+                    while (columns.next()) {
+                        columnNames.add(columns.getString("COLUMN_NAME").toLowerCase());
+                    }
+                }
+            }
+        }
+
+        return columnNames;
+    }
+}
@@ -1,5 +1,6 @@
 package com.charliechiang.wastesortinghelperserver.controller;
 
+import com.charliechiang.wastesortinghelperserver.config.QueryBudget;
 import com.charliechiang.wastesortinghelperserver.repository.UserRepository;
 import com.charliechiang.wastesortinghelperserver.security.JwtTokenProvider;
 import org.springframework.http.ResponseEntity;
@@ -37,6 +38,7 @@ public class AuthenticationController {
     }
 
     @PostMapping("/login")
+    @QueryBudget(3)
     public ResponseEntity<?> login(@RequestBody AuthenticationRequest data) {
 
         try {
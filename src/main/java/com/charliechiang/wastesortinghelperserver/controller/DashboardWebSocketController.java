@@ -0,0 +1,86 @@
+package com.charliechiang.wastesortinghelperserver.controller;
+
+import com.charliechiang.wastesortinghelperserver.security.JwtTokenProvider;
+import com.charliechiang.wastesortinghelperserver.service.CoalescingSender;
+import com.charliechiang.wastesortinghelperserver.service.DustbinStatusPublisher;
+import com.charliechiang.wastesortinghelperserver.service.WebSocketMetrics;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.core.Authentication;
+import org.springframework.stereotype.Component;
+
+import javax.websocket.CloseReason;
+import javax.websocket.OnClose;
+import javax.websocket.OnError;
+import javax.websocket.OnOpen;
+import javax.websocket.Session;
+import javax.websocket.server.ServerEndpoint;
+import java.io.IOException;
+
+// Pushes dustbin state changes to admin dashboards. Browsers cannot set headers on a WebSocket handshake,
+// so the JWT is passed as the "token" query parameter.
+@ServerEndpoint("/api/v1/ws/dashboards")
+@Component
+public class DashboardWebSocketController {
+
+    private static final Log logger = LogFactory.getLog(DashboardWebSocketController.class);
+
+    // endpoint instances are created by the container, so Spring beans are shared statically
+    private static JwtTokenProvider jwtTokenProvider;
+    private static DustbinStatusPublisher dustbinStatusPublisher;
+    private static WebSocketMetrics webSocketMetrics;
+
+    private CoalescingSender<Long> subscriber;
+
+    @OnOpen
+    public void onOpen(Session session) throws IOException {
+
+        Authentication authentication = jwtTokenProvider.getAuthenticationFromSession(session);
+
+        if (authentication == null
+            || authentication.getAuthorities().stream().noneMatch(i -> i.getAuthority().equals("ROLE_ADMIN"))) {
+
+            session.close(new CloseReason(CloseReason.CloseCodes.VIOLATED_POLICY, "Admin token required."));
+            return;
+        }
+
+        subscriber = dustbinStatusPublisher.subscribe((text, onSent) -> webSocketMetrics.sendTextAsync("dashboards",
+                                                                                                        session,
+                                                                                                        text,
+                                                                                                        onSent));
+        webSocketMetrics.connected("dashboards");
+
+        logger.info("Dashboard of " + authentication.getName() + " subscribed to dustbin status changes.");
+    }
+
+    @OnClose
+    public void onClose() {
+
+        if (subscriber != null) {
+            dustbinStatusPublisher.unsubscribe(subscriber);
+            webSocketMetrics.disconnected("dashboards");
+        }
+    }
+
+    @OnError
+    public void onError(Session session, Throwable throwable) {
+
+        logger.error("Dashboard connection error: " + throwable.getMessage());
+    }
+
+    @Autowired
+    public void setJwtTokenProvider(JwtTokenProvider jwtTokenProvider) {
+        DashboardWebSocketController.jwtTokenProvider = jwtTokenProvider;
+    }
+
+    @Autowired
+    public void setDustbinStatusPublisher(DustbinStatusPublisher dustbinStatusPublisher) {
+        DashboardWebSocketController.dustbinStatusPublisher = dustbinStatusPublisher;
+    }
+
+    @Autowired
+    public void setWebSocketMetrics(WebSocketMetrics webSocketMetrics) {
+        DashboardWebSocketController.webSocketMetrics = webSocketMetrics;
+    }
+}
@@ -1,13 +1,23 @@
 package com.charliechiang.wastesortinghelperserver.controller;
 
+import com.charliechiang.wastesortinghelperserver.config.QueryBudget;
 import com.charliechiang.wastesortinghelperserver.exception.ResourceNotFoundException;
 import com.charliechiang.wastesortinghelperserver.model.Dustbin;
 import com.charliechiang.wastesortinghelperserver.model.DustbinModelAssembler;
 import com.charliechiang.wastesortinghelperserver.model.Waste;
+import com.charliechiang.wastesortinghelperserver.model.WasteCategory;
 import com.charliechiang.wastesortinghelperserver.model.WasteModelAssembler;
 import com.charliechiang.wastesortinghelperserver.repository.DustbinRepository;
+import com.charliechiang.wastesortinghelperserver.repository.ServerSettingsRepository;
 import com.charliechiang.wastesortinghelperserver.repository.UserRepository;
 import com.charliechiang.wastesortinghelperserver.repository.WasteRepository;
+import com.charliechiang.wastesortinghelperserver.service.DustbinStatus;
+import com.charliechiang.wastesortinghelperserver.service.DustbinFillForecaster;
+import com.charliechiang.wastesortinghelperserver.service.DustbinForecast;
+import com.charliechiang.wastesortinghelperserver.service.DustbinSpatialIndex;
+import com.charliechiang.wastesortinghelperserver.service.DustbinStatusTable;
+import com.charliechiang.wastesortinghelperserver.service.ReferenceDataCache;
+import com.charliechiang.wastesortinghelperserver.service.NearbyDustbin;
 import org.springframework.hateoas.CollectionModel;
 import org.springframework.hateoas.EntityModel;
 import org.springframework.hateoas.IanaLinkRelations;
@@ -20,6 +30,7 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import java.util.List;
@@ -35,29 +46,47 @@ public class DustbinController {
     private final DustbinRepository dustbinRepository;
     private final WasteRepository wasteRepository;
     private final UserRepository userRepository;
+    private final ServerSettingsRepository serverSettingsRepository;
 
     private final WasteModelAssembler wasteModelAssembler;
     private final DustbinModelAssembler dustbinModelAssembler;
 
+    private final DustbinStatusTable dustbinStatusTable;
+    private final DustbinSpatialIndex dustbinSpatialIndex;
+    private final DustbinFillForecaster dustbinFillForecaster;
+    private final ReferenceDataCache referenceDataCache;
+
     public DustbinController(DustbinRepository dustbinRepository,
                              WasteRepository wasteRepository,
                              UserRepository userRepository,
+                             ServerSettingsRepository serverSettingsRepository,
                              WasteModelAssembler wasteModelAssembler,
-                             DustbinModelAssembler dustbinModelAssembler) {
+                             DustbinModelAssembler dustbinModelAssembler,
+                             DustbinStatusTable dustbinStatusTable,
+                             DustbinSpatialIndex dustbinSpatialIndex,
+                             DustbinFillForecaster dustbinFillForecaster,
+                             ReferenceDataCache referenceDataCache) {
 
         this.dustbinRepository = dustbinRepository;
         this.wasteRepository = wasteRepository;
         this.userRepository = userRepository;
+        this.serverSettingsRepository = serverSettingsRepository;
         this.wasteModelAssembler = wasteModelAssembler;
         this.dustbinModelAssembler = dustbinModelAssembler;
+        this.dustbinStatusTable = dustbinStatusTable;
+        this.dustbinSpatialIndex = dustbinSpatialIndex;
+        this.dustbinFillForecaster = dustbinFillForecaster;
+        this.referenceDataCache = referenceDataCache;
     }
 
     @GetMapping("")
+    @QueryBudget(1)
     public CollectionModel<EntityModel<Dustbin>> getDustbinAll() {
 
         List<EntityModel<Dustbin>> dustbins =
                 dustbinRepository.findAll()
                                  .stream()
+                                 .map(dustbinStatusTable::applyStatus)
                                  .map(dustbinModelAssembler::toModel)
                                  .collect(Collectors.toList());
 
@@ -66,22 +95,63 @@ public class DustbinController {
                                           .withSelfRel());
     }
 
+    @GetMapping("/nearest")
+    @QueryBudget(0)
+    public CollectionModel<EntityModel<NearbyDustbin>> getDustbinNearest(@RequestParam(value = "latitude") Double latitude,
+                                                                         @RequestParam(value = "longitude") Double longitude,
+                                                                         @RequestParam(value = "category", required = false) WasteCategory category,
+                                                                         @RequestParam(value = "n", defaultValue = "5") Integer n) {
+
+        List<EntityModel<NearbyDustbin>> dustbins =
+                dustbinSpatialIndex.findNearest(latitude, longitude, category, Math.min(n, 50))
+                                   .stream()
+                                   .map(dustbin -> EntityModel.of(dustbin,
+                                                                  linkTo(methodOn(DustbinController.class).getDustbinSingle(dustbin.getId()))
+                                                                          .withSelfRel()))
+                                   .collect(Collectors.toList());
+
+        return CollectionModel.of(dustbins);
+    }
+
+    @GetMapping("/forecasts")
+    @QueryBudget(2)
+    public CollectionModel<EntityModel<DustbinForecast>> getDustbinForecastAll() throws Exception {
+
+        Double capacity = ServerSettingsController.getServerSetting("dustbinCapacity", serverSettingsRepository);
+
+        List<EntityModel<DustbinForecast>> forecasts =
+                dustbinRepository.findAll()
+                                 .stream()
+                                 .map(dustbin -> EntityModel.of(dustbinFillForecaster.forecast(dustbin.getId(), capacity),
+                                                                linkTo(methodOn(DustbinController.class).getDustbinSingle(dustbin.getId()))
+                                                                        .withRel("dustbin")))
+                                 .collect(Collectors.toList());
+
+        return CollectionModel.of(forecasts,
+                                  linkTo(methodOn(DustbinController.class).getDustbinForecastAll()).withSelfRel());
+    }
+
     @GetMapping("/{id}")
+    @QueryBudget(1)
     public EntityModel<Dustbin> getDustbinSingle(@PathVariable Long id) {
 
         Dustbin referencedDustbin =
-                dustbinRepository.findById(id)
-                                 .orElseThrow(() -> new ResourceNotFoundException("Dustbin with ID=" + id + " could " +
-                                                                                  "not be found."));
+                dustbinStatusTable.getDustbin(id)
+                                  .orElseThrow(() -> new ResourceNotFoundException("Dustbin with ID=" + id + " could " +
+                                                                                   "not be found."));
 
         return dustbinModelAssembler.toModel(referencedDustbin);
     }
 
     @PostMapping("")
+    @QueryBudget(2)
     public ResponseEntity<?> addDustbin(@RequestBody Dustbin newDustbin) {
 
-        EntityModel<Dustbin> entityModel =
-                dustbinModelAssembler.toModel(dustbinRepository.save(newDustbin));
+        Dustbin savedDustbin = dustbinRepository.save(newDustbin);
+        referenceDataCache.evict(Dustbin.class);
+        dustbinStatusTable.put(savedDustbin);
+
+        EntityModel<Dustbin> entityModel = dustbinModelAssembler.toModel(savedDustbin);
 
         return ResponseEntity.created(entityModel.getRequiredLink(IanaLinkRelations.SELF)
                                                  .toUri())
@@ -113,36 +183,36 @@ public class DustbinController {
     //    }
 
     @DeleteMapping("/{id}")
+    @QueryBudget(2)
     public ResponseEntity<?> deleteDustbin(@PathVariable Long id) {
 
         dustbinRepository.deleteById(id);
+        referenceDataCache.evict(Dustbin.class);
+        dustbinStatusTable.remove(id);
 
         return ResponseEntity.noContent().build();
     }
 
     @PostMapping("/{id}/full")
+    @QueryBudget(0)
     public ResponseEntity<?> updateDustbinFull(@PathVariable Long id,
                                                @RequestBody DustbinFullForm dustbinFullForm) {
 
-        Dustbin referencedDustbin = dustbinRepository.findById(id)
-                                                     .orElseThrow(() -> new ResourceNotFoundException("Dustbin with ID="
-                                                                                                      + id
-                                                                                                      + " could not " +
-                                                                                                      "be found."));
-
-        referencedDustbin.setFoodWasteFull(dustbinFullForm.getFoodWasteFull());
-        referencedDustbin.setHazardousWasteFull(dustbinFullForm.getHazardousWasteFull());
-        referencedDustbin.setRecyclableWasteFull(dustbinFullForm.getRecyclableWasteFull());
-        referencedDustbin.setResidualWasteFull(dustbinFullForm.getResidualWasteFull());
+        // absorbed in memory, DustbinStatusTable writes the latest status back periodically
+        Dustbin referencedDustbin =
+                dustbinStatusTable.updateStatus(id, new DustbinStatus(dustbinFullForm.getHazardousWasteFull(),
+                                                                      dustbinFullForm.getRecyclableWasteFull(),
+                                                                      dustbinFullForm.getFoodWasteFull(),
+                                                                      dustbinFullForm.getResidualWasteFull()));
 
-        EntityModel<Dustbin> entityModel =
-                dustbinModelAssembler.toModel(dustbinRepository.save(referencedDustbin));
+        EntityModel<Dustbin> entityModel = dustbinModelAssembler.toModel(referencedDustbin);
 
         return ResponseEntity.created(entityModel.getRequiredLink(IanaLinkRelations.SELF).toUri())
                              .body(entityModel);
     }
 
     @GetMapping("/{id}/wastes")
+    @QueryBudget(4)
     public CollectionModel<EntityModel<Waste>> getWasteAllByDustbin(@PathVariable Long id) {
 
         List<EntityModel<Waste>> wastes =
@@ -183,6 +253,7 @@ public class DustbinController {
     //    }
 
     @PostMapping("/{id}/requests")
+    @QueryBudget(1)
     public ResponseEntity<?> sendOpenLidRequestByToken(@PathVariable Long id,
                                                        @AuthenticationPrincipal UserDetails userDetails) {
 
@@ -208,6 +279,7 @@ public class DustbinController {
     }
 
     @GetMapping("/{dustbinId}/requests/{requestId}")
+    @QueryBudget(0)
     public EntityModel<ServerRequest> getRequestSingle(@PathVariable Long dustbinId,
                                                        @PathVariable Long requestId) {
 
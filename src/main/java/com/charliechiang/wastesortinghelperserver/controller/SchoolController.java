@@ -1,9 +1,11 @@
 package com.charliechiang.wastesortinghelperserver.controller;
 
+import com.charliechiang.wastesortinghelperserver.config.QueryBudget;
 import com.charliechiang.wastesortinghelperserver.exception.ResourceNotFoundException;
 import com.charliechiang.wastesortinghelperserver.model.School;
 import com.charliechiang.wastesortinghelperserver.model.SchoolModelAssembler;
 import com.charliechiang.wastesortinghelperserver.repository.SchoolRepository;
+import com.charliechiang.wastesortinghelperserver.service.ReferenceDataCache;
 import org.springframework.hateoas.CollectionModel;
 import org.springframework.hateoas.EntityModel;
 import org.springframework.hateoas.IanaLinkRelations;
@@ -28,15 +30,19 @@ public class SchoolController {
 
     private final SchoolRepository schoolRepository;
     private final SchoolModelAssembler schoolModelAssembler;
+    private final ReferenceDataCache referenceDataCache;
 
     public SchoolController(SchoolRepository schoolRepository,
-                            SchoolModelAssembler schoolModelAssembler) {
+                            SchoolModelAssembler schoolModelAssembler,
+                            ReferenceDataCache referenceDataCache) {
 
         this.schoolRepository = schoolRepository;
         this.schoolModelAssembler = schoolModelAssembler;
+        this.referenceDataCache = referenceDataCache;
     }
 
     @GetMapping("")
+    @QueryBudget(1)
     public CollectionModel<EntityModel<School>> getSchoolAll() {
 
         List<EntityModel<School>> schools =
@@ -49,6 +55,7 @@ public class SchoolController {
     }
 
     @GetMapping("/{id}")
+    @QueryBudget(1)
     public EntityModel<School> getSchoolSingle(@PathVariable Long id) {
 
         School referencedSchool =
@@ -59,19 +66,23 @@ public class SchoolController {
     }
 
     @PostMapping("")
+    @QueryBudget(2)
     public ResponseEntity<?> addSchool(@RequestBody(required = false) School newSchool) {
 
         EntityModel<School> entityModel =
                 schoolModelAssembler.toModel(schoolRepository.save(newSchool));
+        referenceDataCache.evict(School.class);
 
         return ResponseEntity.created(entityModel.getRequiredLink(IanaLinkRelations.SELF).toUri())
                              .body(entityModel);
     }
 
     @DeleteMapping("/{id}")
+    @QueryBudget(2)
     public ResponseEntity<?> deleteDustbin(@PathVariable Long id) {
 
         schoolRepository.deleteById(id);
+        referenceDataCache.evict(School.class);
 
         return ResponseEntity.noContent().build();
     }
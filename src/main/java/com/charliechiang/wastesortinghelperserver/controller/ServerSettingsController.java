@@ -1,9 +1,11 @@
 package com.charliechiang.wastesortinghelperserver.controller;
 
+import com.charliechiang.wastesortinghelperserver.config.QueryBudget;
 import com.charliechiang.wastesortinghelperserver.exception.ResourceNotFoundException;
 import com.charliechiang.wastesortinghelperserver.model.ServerSetting;
 import com.charliechiang.wastesortinghelperserver.model.ServerSettingModelAssembler;
 import com.charliechiang.wastesortinghelperserver.repository.ServerSettingsRepository;
+import com.charliechiang.wastesortinghelperserver.service.ReferenceDataCache;
 import org.springframework.hateoas.CollectionModel;
 import org.springframework.hateoas.EntityModel;
 import org.springframework.hateoas.IanaLinkRelations;
@@ -29,12 +31,15 @@ public class ServerSettingsController {
 
     private final ServerSettingsRepository serverSettingsRepository;
     private final ServerSettingModelAssembler serverSettingModelAssembler;
+    private final ReferenceDataCache referenceDataCache;
 
     public ServerSettingsController(ServerSettingsRepository serverSettingsRepository,
-                                    ServerSettingModelAssembler serverSettingModelAssembler) {
+                                    ServerSettingModelAssembler serverSettingModelAssembler,
+                                    ReferenceDataCache referenceDataCache) {
 
         this.serverSettingsRepository = serverSettingsRepository;
         this.serverSettingModelAssembler = serverSettingModelAssembler;
+        this.referenceDataCache = referenceDataCache;
     }
 
     public static <Any> Any getServerSetting(String settingId,
@@ -57,6 +62,7 @@ public class ServerSettingsController {
     }
 
     @GetMapping("")
+    @QueryBudget(1)
     public CollectionModel<EntityModel<ServerSetting>> getServerSettingAll() {
 
         List<EntityModel<ServerSetting>> serverSettings =
@@ -70,6 +76,7 @@ public class ServerSettingsController {
     }
 
     @GetMapping("/{settingId}")
+    @QueryBudget(1)
     public EntityModel<ServerSetting> getServerSettingSingle(@PathVariable String settingId) {
         ServerSetting referencedServerSetting =
                 serverSettingsRepository.findById(settingId)
@@ -81,18 +88,22 @@ public class ServerSettingsController {
     }
 
     @PostMapping("")
+    @QueryBudget(2)
     public ResponseEntity<?> addServerSetting(@RequestBody ServerSetting newServerSetting) {
 
         EntityModel<ServerSetting> entityModel =
                 serverSettingModelAssembler.toModel(serverSettingsRepository.save(newServerSetting));
+        referenceDataCache.evict(ServerSetting.class);
 
         return ResponseEntity.created(entityModel.getRequiredLink(IanaLinkRelations.SELF).toUri()).body(entityModel);
     }
 
     @DeleteMapping("/{settingId}")
+    @QueryBudget(2)
     public ResponseEntity<?> deleteServerSetting(@PathVariable String settingId) {
 
         serverSettingsRepository.deleteById(settingId);
+        referenceDataCache.evict(ServerSetting.class);
 
         return ResponseEntity.noContent().build();
     }
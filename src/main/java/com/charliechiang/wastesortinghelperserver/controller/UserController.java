@@ -1,22 +1,34 @@
 package com.charliechiang.wastesortinghelperserver.controller;
 
+import com.charliechiang.wastesortinghelperserver.config.QueryBudget;
 import com.charliechiang.wastesortinghelperserver.exception.ResourceConflictException;
 import com.charliechiang.wastesortinghelperserver.exception.ResourceNotFoundException;
+import com.charliechiang.wastesortinghelperserver.model.CreditEvent;
 import com.charliechiang.wastesortinghelperserver.model.School;
 import com.charliechiang.wastesortinghelperserver.model.User;
 import com.charliechiang.wastesortinghelperserver.model.UserModelAssembler;
 import com.charliechiang.wastesortinghelperserver.model.Waste;
-import com.charliechiang.wastesortinghelperserver.model.WasteCategory;
 import com.charliechiang.wastesortinghelperserver.model.WasteModelAssembler;
 import com.charliechiang.wastesortinghelperserver.repository.SchoolRepository;
 import com.charliechiang.wastesortinghelperserver.repository.ServerSettingsRepository;
 import com.charliechiang.wastesortinghelperserver.repository.UserRepository;
 import com.charliechiang.wastesortinghelperserver.repository.WasteRepository;
+import com.charliechiang.wastesortinghelperserver.service.CreditLedger;
+import com.charliechiang.wastesortinghelperserver.service.RecentWasteCache;
+import com.charliechiang.wastesortinghelperserver.service.UserImportReport;
+import com.charliechiang.wastesortinghelperserver.service.UserImporter;
+import com.charliechiang.wastesortinghelperserver.service.UserPurgeProgress;
+import com.charliechiang.wastesortinghelperserver.service.UserPurger;
+import com.charliechiang.wastesortinghelperserver.service.UserUpdatePublisher;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.springframework.hateoas.CollectionModel;
 import org.springframework.hateoas.EntityModel;
 import org.springframework.hateoas.IanaLinkRelations;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.security.authentication.BadCredentialsException;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.security.core.userdetails.UserDetails;
@@ -31,15 +43,20 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
-import javax.transaction.Transactional;
 import javax.validation.constraints.NotNull;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.linkTo;
@@ -59,6 +76,14 @@ public class UserController {
 
     private final PasswordEncoder passwordEncoder;
 
+    private final UserUpdatePublisher userUpdatePublisher;
+    private final CreditLedger creditLedger;
+    private final UserPurger userPurger;
+    private final UserImporter userImporter;
+    private final RecentWasteCache recentWasteCache;
+
+    private final Timer rankingUpdateTimer;
+
     private LocalDateTime lastUpdatedRankingTime = LocalDateTime.of(1970, 1, 1, 1, 1);
 
     private int collegeStudentCountCache;
@@ -69,7 +94,13 @@ public class UserController {
                           ServerSettingsRepository serverSettingsRepository,
                           WasteModelAssembler wasteModelAssembler,
                           UserModelAssembler userModelAssembler,
-                          PasswordEncoder passwordEncoder) {
+                          PasswordEncoder passwordEncoder,
+                          UserUpdatePublisher userUpdatePublisher,
+                          CreditLedger creditLedger,
+                          UserPurger userPurger,
+                          UserImporter userImporter,
+                          RecentWasteCache recentWasteCache,
+                          MeterRegistry meterRegistry) {
 
         this.userRepository = userRepository;
         this.wasteRepository = wasteRepository;
@@ -78,9 +109,16 @@ public class UserController {
         this.wasteModelAssembler = wasteModelAssembler;
         this.userModelAssembler = userModelAssembler;
         this.passwordEncoder = passwordEncoder;
+        this.userUpdatePublisher = userUpdatePublisher;
+        this.creditLedger = creditLedger;
+        this.userPurger = userPurger;
+        this.userImporter = userImporter;
+        this.recentWasteCache = recentWasteCache;
+        this.rankingUpdateTimer = meterRegistry.timer("user.ranking.update");
     }
 
     @GetMapping("/me")
+    @QueryBudget(2)
     public EntityModel<User> getCurrentUser(@AuthenticationPrincipal UserDetails userDetails) {
 
         User currentUser =
@@ -93,39 +131,39 @@ public class UserController {
     }
 
     @GetMapping("/me/wastes")
+    @QueryBudget(3)
     public CollectionModel<EntityModel<Waste>> getCurrentUserWasteList(@AuthenticationPrincipal UserDetails userDetails,
                                                                        @RequestParam(value = "n", defaultValue = "0") Long n) {
 
-        User currentUser =
-                userRepository.findByUsername(userDetails.getUsername()).orElseThrow(() -> new ResourceNotFoundException(
-                        "User with username="
-                        + userDetails.getUsername()
-                        + " could not be found."));
+        return getWasteList(userDetails.getUsername(), n);
+    }
+
+    // n is 0 for all wastes, the latest RecentWasteCache.SIZE are usually cached
+    private CollectionModel<EntityModel<Waste>> getWasteList(String username, Long n) {
 
-        List<EntityModel<Waste>> wastes;
-
-        if (20 == n) {
-            wastes = wasteRepository.findTop20ByUserOrderByTimeDesc(currentUser)
-                                    .stream()
-                                    .map(wasteModelAssembler::toModel)
-                                    .collect(Collectors.toList());
-        } else if (0 == n) {
-            wastes = wasteRepository.findByUserOrderByTimeDesc(currentUser)
-                                    .stream()
-                                    .map(wasteModelAssembler::toModel)
-                                    .collect(Collectors.toList());
+        Supplier<User> referencedUser =
+                () -> userRepository.findByUsername(username)
+                                    .orElseThrow(() -> new ResourceNotFoundException("User with username="
+                                                                                     + username
+                                                                                     + " could not be found."));
+        List<Waste> wastes;
+
+        if (n > 0 && n <= RecentWasteCache.SIZE) {
+            wastes = recentWasteCache.getLatest(username,
+                                                n.intValue(),
+                                                () -> wasteRepository.findTop20ByUserOrderByTimeDesc(referencedUser.get()));
         } else {
-            wastes = Arrays.stream((Waste[]) Arrays.copyOfRange(wasteRepository.findByUserOrderByTimeDesc(currentUser).toArray(),
-                                                                0,
-                                                                n.intValue()))
-                           .map(wasteModelAssembler::toModel)
-                           .collect(Collectors.toList());
+            wastes = wasteRepository.findByUserOrderByTimeDesc(referencedUser.get());
         }
 
-        return CollectionModel.of(wastes);
+        return CollectionModel.of(wastes.stream()
+                                        .limit(n > 0 ? n : Long.MAX_VALUE)
+                                        .map(wasteModelAssembler::toModel)
+                                        .collect(Collectors.toList()));
     }
 
     @GetMapping("")
+    @QueryBudget(3)
     public CollectionModel<EntityModel<User>> getUserAll() {
 
         List<EntityModel<User>> users =
@@ -138,9 +176,12 @@ public class UserController {
                                   linkTo(methodOn(UserController.class).getUserAll()).withSelfRel());
     }
 
-    private ResponseEntity<?> saveUser(UserCreationForm userCreationForm, List<String> roles) {
+    // id is the ID of the user being replaced, or null for a new user
+    private ResponseEntity<?> saveUser(UserCreationForm userCreationForm, List<String> roles, Long id) {
         User newUser = new User();
 
+        newUser.setId(id);
+
         newUser.setUsername(userCreationForm.getUsername());
         newUser.setPassword(this.passwordEncoder.encode(userCreationForm.getPassword()));
         newUser.setRealName(userCreationForm.getRealName());
@@ -151,9 +192,6 @@ public class UserController {
         newUser.setOpenId(userCreationForm.getOpenId());
         newUser.setRoles(roles);
 
-        Optional<User> referencedUser = userRepository.findByUsername(userCreationForm.getUsername());
-        referencedUser.ifPresent(user -> newUser.setId(user.getId()));
-
         EntityModel<User> entityModel = userModelAssembler.toModel(userRepository.save(newUser));
 
         return ResponseEntity.created(entityModel.getRequiredLink(IanaLinkRelations.SELF)
@@ -162,6 +200,7 @@ public class UserController {
     }
 
     @PostMapping("")
+    @QueryBudget(6)
     public ResponseEntity<?> addUser(@RequestBody UserCreationForm userCreationForm) {
 
         Optional<User> referencedUser = userRepository.findByUsername(userCreationForm.getUsername());
@@ -170,10 +209,11 @@ public class UserController {
                                                 ".");
         }
 
-        return saveUser(userCreationForm, Collections.singletonList("ROLE_USER"));
+        return saveUser(userCreationForm, Collections.singletonList("ROLE_USER"), null);
     }
 
     @PutMapping("/me")
+    @QueryBudget(4)
     public ResponseEntity<?> updateCurrentUser(@AuthenticationPrincipal UserDetails userDetails,
                                                @RequestBody UserCreationForm userCreationForm) {
 
@@ -184,17 +224,23 @@ public class UserController {
         User referencedUser =
                 userRepository.findByUsername(userDetails.getUsername()).orElseThrow(() -> new ResourceNotFoundException(""));
 
-        return saveUser(userCreationForm, referencedUser.getRoles());
+        return saveUser(userCreationForm, referencedUser.getRoles(), referencedUser.getId());
     }
 
     @PutMapping("/{username}")
+    @QueryBudget(5)
     public ResponseEntity<?> updateUser(@RequestBody UserCreationForm userCreationForm) {
 
-        return saveUser(userCreationForm, Collections.singletonList("ROLE_USER"));
+        Long id = userRepository.findByUsername(userCreationForm.getUsername())
+                                .map(User::getId)
+                                .orElse(null);
+
+        return saveUser(userCreationForm, Collections.singletonList("ROLE_USER"), id);
     }
 
 
     @GetMapping("/{username}")
+    @QueryBudget(2)
     public EntityModel<User> getUserSingle(@PathVariable(value = "username") String username) {
 
         User referencedUser =
@@ -227,56 +273,44 @@ public class UserController {
     //                             .body(entityModel);
     //    }
 
-    @Transactional
+    // the wastes of the user are purged in the background, the response links to the progress of the purge
     @DeleteMapping("/{username}")
-    public ResponseEntity<?> deleteUser(@PathVariable String username) {
+    @QueryBudget(3)
+    public ResponseEntity<UserPurgeProgress> deleteUser(@PathVariable String username) {
 
         User referencedUser =
                 userRepository.findByUsername(username).orElseThrow(() -> new ResourceNotFoundException("User with username="
                                                                                                         + username
                                                                                                         + " could not be found."));
 
-        wasteRepository.deleteAllByUser(referencedUser);
-        userRepository.deleteById(referencedUser.getId());
+        UserPurgeProgress progress = userPurger.delete(referencedUser);
+
+        return ResponseEntity.accepted()
+                             .location(linkTo(methodOn(UserController.class).getUserPurge(username)).toUri())
+                             .body(progress);
+    }
+
+    @GetMapping("/{username}/purge")
+    @QueryBudget(0)
+    public UserPurgeProgress getUserPurge(@PathVariable String username) {
 
-        return ResponseEntity.noContent().build();
+        return userPurger.getProgress(username)
+                         .orElseThrow(() -> new ResourceNotFoundException("User with username="
+                                                                          + username
+                                                                          + " is not being deleted."));
     }
 
 
     @GetMapping("/{username}/wastes")
+    @QueryBudget(3)
     public CollectionModel<EntityModel<Waste>> getWasteAllByUser(@PathVariable(value = "username") String username,
                                                                  @RequestParam(value = "n", defaultValue = "0") Long n) {
 
-
-        User referencedUser = userRepository.findByUsername(username)
-                                            .orElseThrow(() -> new ResourceNotFoundException("User with username="
-                                                                                             + username
-                                                                                             + " could not be found."));
-
-        List<EntityModel<Waste>> wastes;
-
-        if (20 == n) {
-            wastes = wasteRepository.findTop20ByUserOrderByTimeDesc(referencedUser)
-                                    .stream()
-                                    .map(wasteModelAssembler::toModel)
-                                    .collect(Collectors.toList());
-        } else if (0 == n) {
-            wastes = wasteRepository.findByUserOrderByTimeDesc(referencedUser)
-                                    .stream()
-                                    .map(wasteModelAssembler::toModel)
-                                    .collect(Collectors.toList());
-        } else {
-            wastes = Arrays.stream((Waste[]) Arrays.copyOfRange(wasteRepository.findByUserOrderByTimeDesc(referencedUser).toArray(),
-                                                                0,
-                                                                n.intValue()))
-                           .map(wasteModelAssembler::toModel)
-                           .collect(Collectors.toList());
-        }
-
-        return CollectionModel.of(wastes);
+        return getWasteList(username, n);
     }
 
     @GetMapping("/{username}/credit")
+    @QueryBudget(2)
     public int getCreditByUser(@PathVariable(value = "username") String username) throws Exception {
 
         User referencedUser = userRepository.findByUsername(username)
@@ -284,14 +318,11 @@ public class UserController {
                                                                                              + username
                                                                                              + " could not be found."));
 
-        updateCredit(referencedUser, false);
-        userRepository.save(referencedUser);
-
-
         return referencedUser.getCredit();
     }
 
     @PutMapping("/{username}/credit")
+    @QueryBudget(6)
     public ResponseEntity<?> updateCreditByUser(@PathVariable(value = "username") String username,
                                                 @RequestBody UserCreditUpdateForm userCreditUpdateForm) throws Exception {
 
@@ -300,14 +331,13 @@ public class UserController {
                                                                                              + username
                                                                                              + " could not be found."));
 
-        referencedUser.setCredit(userCreditUpdateForm.getCredit());
-        userRepository.save(referencedUser);
-        updateCredit(referencedUser, false);
+        int credit = creditLedger.set(referencedUser, userCreditUpdateForm.getCredit());
 
-        return ResponseEntity.status(HttpStatus.CREATED).body(new UserCreditUpdateForm(referencedUser.getCredit()));
+        return ResponseEntity.status(HttpStatus.CREATED).body(new UserCreditUpdateForm(credit));
     }
 
     @PutMapping("/{username}/credit/offset")
+    @QueryBudget(6)
     public ResponseEntity<?> offsetCreditByUser(@PathVariable(value = "username") String username,
                                                 @RequestParam Integer offset) throws Exception {
 
@@ -316,90 +346,73 @@ public class UserController {
                                                                                              + username
                                                                                              + " could not be found."));
 
-        referencedUser.setCredit(referencedUser.getCredit() + offset);
-        userRepository.save(referencedUser);
-        updateCredit(referencedUser, false);
+        int credit = creditLedger.offset(referencedUser, offset);
 
-        return ResponseEntity.status(HttpStatus.CREATED).body(new UserCreditUpdateForm(referencedUser.getCredit()));
+        return ResponseEntity.status(HttpStatus.CREATED).body(new UserCreditUpdateForm(credit));
     }
 
-    @GetMapping("/me/credit")
-    public int getCreditByToken(@AuthenticationPrincipal UserDetails userDetails) throws Exception {
+    @GetMapping("/{username}/credit/events")
+    @QueryBudget(3)
+    public CollectionModel<CreditEvent> getCreditEventsByUser(@PathVariable(value = "username") String username,
+                                                              @RequestParam(value = "n", defaultValue = "20") Integer n) {
 
-        User referencedUser = userRepository.findByUsername(userDetails.getUsername())
+        User referencedUser = userRepository.findByUsername(username)
                                             .orElseThrow(() -> new ResourceNotFoundException("User with username="
-                                                                                             + userDetails.getUsername()
+                                                                                             + username
                                                                                              + " could not be found."));
 
-        updateCredit(referencedUser, false);
-        userRepository.save(referencedUser);
-
-
-        return referencedUser.getCredit();
+        return CollectionModel.of(creditLedger.getEvents(referencedUser, n));
     }
 
-    public void updateCredit(User referencedUser, Boolean forceFullUpdate) throws Exception {
-        // TODO: 总重超过减分
+    @PostMapping("/{username}/credit/actions/rebuild")
+    @QueryBudget(8)
+    public ResponseEntity<?> rebuildCreditByUser(@PathVariable(value = "username") String username,
+                                                 @RequestParam(value = "full", defaultValue = "false") Boolean isFull) {
 
-        if (referencedUser.getNeedFullCreditUpdate()) {
-            forceFullUpdate = true;
-            referencedUser.setNeedFullCreditUpdate(false);
-        }
-
-        int newCredit = 0;
-
-        ArrayList<Waste> userWastes = null;
-
-        if (forceFullUpdate) {
-            userWastes = wasteRepository.findAllByUser(referencedUser);
-        } else {
-            if (referencedUser.getTimeLastUpdatedCredit().plusSeconds(ServerSettingsController.getServerSetting(
-                    "creditUpdateDelay", serverSettingsRepository)).isAfter(LocalDateTime.now())) {
-                return;
-            }
+        User referencedUser = userRepository.findByUsername(username)
+                                            .orElseThrow(() -> new ResourceNotFoundException("User with username="
+                                                                                             + username
+                                                                                             + " could not be found."));
 
-            userWastes = wasteRepository.findAllByUserAndTimeIsAfter(referencedUser, referencedUser.getTimeLastUpdatedCredit());
+        return ResponseEntity.ok(new UserCreditUpdateForm(creditLedger.rebuild(referencedUser, isFull)));
+    }
 
-            newCredit = referencedUser.getCredit();
-        }
+    @GetMapping("/me/credit")
+    @QueryBudget(2)
+    public int getCreditByToken(@AuthenticationPrincipal UserDetails userDetails) throws Exception {
 
-        // 是否正确分类的加分减分
-        for (Waste i : userWastes) {
-            if (i.getCorrectlyCategorized()) {
-                if (i.getCategory() == WasteCategory.FOOD_WASTE
-                    || i.getCategory() == WasteCategory.RECYCLABLE_WASTE) {
-                    newCredit++;
-                }
-            } else {
-                newCredit--;
-            }
-        }
+        User referencedUser = userRepository.findByUsername(userDetails.getUsername())
+                                            .orElseThrow(() -> new ResourceNotFoundException("User with username="
+                                                                                             + userDetails.getUsername()
+                                                                                             + " could not be found."));
 
-        // 总重超过的减分
-        //        LocalDateTime startTimeOfTheInterval = LocalDateTime
-        //        ArrayList<Waste> userWastesBetweenInterval = wasteRepository.findAllByUserAndTimeIsAfter(this, );
+        return referencedUser.getCredit();
+    }
 
+    @GetMapping("/me/credit/events")
+    @QueryBudget(3)
+    public CollectionModel<CreditEvent> getCreditEventsByToken(@AuthenticationPrincipal UserDetails userDetails,
+                                                               @RequestParam(value = "n", defaultValue = "20") Integer n) {
 
-        if (newCredit < 0) {
-            newCredit = 0;
-        }
+        User referencedUser = userRepository.findByUsername(userDetails.getUsername())
+                                            .orElseThrow(() -> new ResourceNotFoundException("User with username="
+                                                                                             + userDetails.getUsername()
+                                                                                             + " could not be found."));
 
-        referencedUser.setCredit(newCredit);
-        referencedUser.setTimeLastUpdatedCredit(LocalDateTime.now());
+        return CollectionModel.of(creditLedger.getEvents(referencedUser, n));
     }
 
     @GetMapping("/{username}/ranking")
+    @QueryBudget(2)
     public PersonalRankingData getPersonalRanking(@PathVariable(value = "username") String username) throws Exception {
-        // TODO: make async
-        updateRanking();
-
+        // rankings are refreshed by refreshRanking()
         User referencedUser = userRepository.findByUsername(username)
                                             .orElseThrow(() -> new ResourceNotFoundException("User with username="
                                                                                              + username
                                                                                              + " could not be found."));
 
-        School referencedSchool = schoolRepository.findById(referencedUser.getSchool().getId())
-                                                  .orElseThrow(() -> new ResourceNotFoundException("User has an invalid school."));
+        School referencedSchool = Optional.ofNullable(referencedUser.getSchool())
+                                          .orElseThrow(() -> new ResourceNotFoundException("User has an invalid school."));
 
         PersonalRankingData personalRankingData = new PersonalRankingData(referencedUser.getSchoolRanking(),
                                                                           referencedSchool.getStudentCount(),
@@ -410,17 +423,16 @@ public class UserController {
     }
 
     @GetMapping("/me/ranking")
+    @QueryBudget(2)
     public PersonalRankingData getPersonalRankingByToken(@AuthenticationPrincipal UserDetails userDetails) throws Exception {
-        // TODO: make async
-        updateRanking();
-
+        // rankings are refreshed by refreshRanking()
         User referencedUser = userRepository.findByUsername(userDetails.getUsername())
                                             .orElseThrow(() -> new ResourceNotFoundException("User with username="
                                                                                              + userDetails.getUsername()
                                                                                              + " could not be found."));
 
-        School referencedSchool = schoolRepository.findById(referencedUser.getSchool().getId())
-                                                  .orElseThrow(() -> new ResourceNotFoundException("User has an invalid school."));
+        School referencedSchool = Optional.ofNullable(referencedUser.getSchool())
+                                          .orElseThrow(() -> new ResourceNotFoundException("User has an invalid school."));
 
         PersonalRankingData personalRankingData = new PersonalRankingData(referencedUser.getSchoolRanking(),
                                                                           referencedSchool.getStudentCount(),
@@ -430,7 +442,24 @@ public class UserController {
         return personalRankingData;
     }
 
-    public void updateRanking() throws Exception {
+    // rankings are pushed to subscribed users, so they are refreshed even if nobody polls them
+    @Scheduled(fixedDelayString = "${ranking.refresh-delay-ms:60000}")
+    public void refreshRanking() throws Exception {
+
+        updateRanking();
+    }
+
+    public synchronized void updateRanking() throws Exception {
+
+        Timer.Sample sample = Timer.start();
+        try {
+            calculateRanking();
+        } finally {
+            sample.stop(rankingUpdateTimer);
+        }
+    }
+
+    private void calculateRanking() throws Exception {
 
         // Do not do full update everytime
         if (lastUpdatedRankingTime.plusSeconds(ServerSettingsController.getServerSetting("rankingUpdateDelay", serverSettingsRepository))
@@ -440,37 +469,63 @@ public class UserController {
 
 
         ArrayList<User> collegeRanking = userRepository.findAllByOrderByCreditDesc();
-        HashMap<School, ArrayList<User>> schoolRankings = new HashMap<>();
+        // keyed by ID, users and schools are not loaded into the same persistence context outside requests
+        HashMap<Long, ArrayList<User>> schoolRankings = new HashMap<>();
         List<School> schools = schoolRepository.findAll();
+        Set<User> changedUsers = new HashSet<>();
 
         for (School i : schools) {
-            schoolRankings.put(i, new ArrayList<>());
+            schoolRankings.put(i.getId(), new ArrayList<>());
         }
 
         // update college ranking and split users to schools
         for (int i = 0; i < collegeRanking.size(); i++) {
+            if (!Integer.valueOf(i + 1).equals(collegeRanking.get(i).getCollegeRanking())) {
+                changedUsers.add(collegeRanking.get(i));
+            }
             collegeRanking.get(i).setCollegeRanking(i + 1);
             if (collegeRanking.get(i).getSchool() != null) {
-                schoolRankings.get(collegeRanking.get(i).getSchool()).add(collegeRanking.get(i));
+                schoolRankings.get(collegeRanking.get(i).getSchool().getId()).add(collegeRanking.get(i));
             }
 
         }
         collegeStudentCountCache = collegeRanking.size();
 
         // update school ranking
+        List<School> changedSchools = new ArrayList<>();
         for (School i : schools) {
-            ArrayList<User> thisSchoolRanking = schoolRankings.get(i);
-            i.setStudentCount(thisSchoolRanking.size());
+            ArrayList<User> thisSchoolRanking = schoolRankings.get(i.getId());
+            if (!Integer.valueOf(thisSchoolRanking.size()).equals(i.getStudentCount())) {
+                i.setStudentCount(thisSchoolRanking.size());
+                changedSchools.add(i);
+            }
             for (int j = 0; j < thisSchoolRanking.size(); j++) {
+                if (!Integer.valueOf(j + 1).equals(thisSchoolRanking.get(j).getSchoolRanking())) {
+                    changedUsers.add(thisSchoolRanking.get(j));
+                }
                 thisSchoolRanking.get(j).setSchoolRanking(j + 1);
                 userRepository.save(thisSchoolRanking.get(j));
             }
         }
+        // student counts are read back by the ranking endpoints; writing a school invalidates the cached school list,
+        // so unchanged ones are left alone
+        if (!changedSchools.isEmpty()) {
+            schoolRepository.saveAll(changedSchools);
+        }
+
+        for (User i : changedUsers) {
+            userUpdatePublisher.publishRanking(i.getUsername(),
+                                               i.getSchoolRanking(),
+                                               i.getSchool() == null ? null : schoolRankings.get(i.getSchool().getId()).size(),
+                                               i.getCollegeRanking(),
+                                               collegeStudentCountCache);
+        }
 
         lastUpdatedRankingTime = LocalDateTime.now();
     }
 
     @PostMapping("/admins")
+    @QueryBudget(7)
     public ResponseEntity<?> addAdmin(@RequestBody UserCreationForm userCreationForm) {
 
         Optional<User> referencedUser = userRepository.findByUsername(userCreationForm.getUsername());
@@ -478,14 +533,31 @@ public class UserController {
             throw new ResourceConflictException("User with username=" + userCreationForm.getUsername() + " already exists" + ".");
         }
 
-        return saveUser(userCreationForm, Arrays.asList("ROLE_USER", "ROLE_ADMIN"));
+        return saveUser(userCreationForm, Arrays.asList("ROLE_USER", "ROLE_ADMIN"), null);
+    }
+
+    // statements grow with the number of batches (and of ids on databases with sequences), the budget is not
+    // enforced but http_server_requests_queries still records them
+    @PostMapping(value = "/import", consumes = "text/csv")
+    @QueryBudget(Integer.MAX_VALUE)
+    public UserImportReport importUsersFromCsv(@RequestBody String body) throws IOException {
+
+        return userImporter.importCsv(new BufferedReader(new StringReader(body)));
+    }
+
+    @PostMapping(value = "/import", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    @QueryBudget(Integer.MAX_VALUE)
+    public UserImportReport importUsersFromNdjson(@RequestBody String body) throws IOException {
+
+        return userImporter.importNdjson(new BufferedReader(new StringReader(body)));
     }
 
     @GetMapping("/admins")
+    @QueryBudget(1)
     public CollectionModel<EntityModel<User>> getAdminAll() {
 
         List<EntityModel<User>> admins =
-                userRepository.findAllByRolesIsContaining("ROLE_ADMIN")
+                userRepository.findAllByRolesIsContainingAndDeletedIsFalse("ROLE_ADMIN")
                               .stream()
                               .map(userModelAssembler::toModel)
                               .collect(Collectors.toList());
@@ -495,6 +567,7 @@ public class UserController {
     }
 
     @GetMapping("/me/tree")
+    @QueryBudget(2)
     public TreeInfo getMyTreeInfo(@AuthenticationPrincipal UserDetails userDetails) {
 
         User referencedUser = userRepository.findByUsername(userDetails.getUsername())
@@ -512,6 +585,7 @@ public class UserController {
     }
 
     @PutMapping("/me/tree")
+    @QueryBudget(3)
     public ResponseEntity<?> updateMyTreeInfo(@AuthenticationPrincipal UserDetails userDetails,
                                               @RequestBody TreeInfo treeInfo) {
 
@@ -0,0 +1,85 @@
+package com.charliechiang.wastesortinghelperserver.controller;
+
+import com.charliechiang.wastesortinghelperserver.security.JwtTokenProvider;
+import com.charliechiang.wastesortinghelperserver.service.CoalescingSender;
+import com.charliechiang.wastesortinghelperserver.service.UserUpdatePublisher;
+import com.charliechiang.wastesortinghelperserver.service.WebSocketMetrics;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.core.Authentication;
+import org.springframework.stereotype.Component;
+
+import javax.websocket.CloseReason;
+import javax.websocket.OnClose;
+import javax.websocket.OnError;
+import javax.websocket.OnOpen;
+import javax.websocket.Session;
+import javax.websocket.server.ServerEndpoint;
+import java.io.IOException;
+
+// Pushes credit and ranking changes of the signed-in user, replacing polling of /me/credit and /me/ranking.
+// The JWT is passed as the "token" query parameter.
+@ServerEndpoint("/api/v1/ws/users/me")
+@Component
+public class UserWebSocketController {
+
+    private static final Log logger = LogFactory.getLog(UserWebSocketController.class);
+
+    // endpoint instances are created by the container, so Spring beans are shared statically
+    private static JwtTokenProvider jwtTokenProvider;
+    private static UserUpdatePublisher userUpdatePublisher;
+    private static WebSocketMetrics webSocketMetrics;
+
+    private String username;
+    private CoalescingSender<String> subscriber;
+
+    @OnOpen
+    public void onOpen(Session session) throws IOException {
+
+        Authentication authentication = jwtTokenProvider.getAuthenticationFromSession(session);
+
+        if (authentication == null) {
+            session.close(new CloseReason(CloseReason.CloseCodes.VIOLATED_POLICY, "Token required."));
+            return;
+        }
+
+        username = authentication.getName();
+        subscriber = userUpdatePublisher.subscribe(username,
+                                                   (text, onSent) -> webSocketMetrics.sendTextAsync("users",
+                                                                                                    session,
+                                                                                                    text,
+                                                                                                    onSent));
+        webSocketMetrics.connected("users");
+    }
+
+    @OnClose
+    public void onClose() {
+
+        if (subscriber != null) {
+            userUpdatePublisher.unsubscribe(username, subscriber);
+            webSocketMetrics.disconnected("users");
+        }
+    }
+
+    @OnError
+    public void onError(Session session, Throwable throwable) {
+
+        logger.error("User connection error: username=" + username + ", message=" + throwable.getMessage());
+    }
+
+    @Autowired
+    public void setJwtTokenProvider(JwtTokenProvider jwtTokenProvider) {
+        UserWebSocketController.jwtTokenProvider = jwtTokenProvider;
+    }
+
+    @Autowired
+    public void setUserUpdatePublisher(UserUpdatePublisher userUpdatePublisher) {
+        UserWebSocketController.userUpdatePublisher = userUpdatePublisher;
+    }
+
+    @Autowired
+    public void setWebSocketMetrics(WebSocketMetrics webSocketMetrics) {
+        UserWebSocketController.webSocketMetrics = webSocketMetrics;
+    }
+}
@@ -1,5 +1,6 @@
 package com.charliechiang.wastesortinghelperserver.controller;
 
+import com.charliechiang.wastesortinghelperserver.config.QueryBudget;
 import com.charliechiang.wastesortinghelperserver.exception.ResourceNotFoundException;
 import com.charliechiang.wastesortinghelperserver.model.Dustbin;
 import com.charliechiang.wastesortinghelperserver.model.User;
@@ -9,11 +10,31 @@ import com.charliechiang.wastesortinghelperserver.model.WasteModelAssembler;
 import com.charliechiang.wastesortinghelperserver.repository.DustbinRepository;
 import com.charliechiang.wastesortinghelperserver.repository.UserRepository;
 import com.charliechiang.wastesortinghelperserver.repository.WasteRepository;
+import com.charliechiang.wastesortinghelperserver.service.CategorizationCorrected;
+import com.charliechiang.wastesortinghelperserver.service.CreditLedger;
+import com.charliechiang.wastesortinghelperserver.service.DepositLog;
+import com.charliechiang.wastesortinghelperserver.service.DomainEventBus;
+import com.charliechiang.wastesortinghelperserver.service.DustbinStatusTable;
+import com.charliechiang.wastesortinghelperserver.service.PendingDeposit;
+import com.charliechiang.wastesortinghelperserver.service.ReadYourWritesWindow;
+import com.charliechiang.wastesortinghelperserver.service.RecentDeposit;
+import com.charliechiang.wastesortinghelperserver.service.RecentDepositBuffer;
+import com.charliechiang.wastesortinghelperserver.service.RecentWasteCache;
+import com.charliechiang.wastesortinghelperserver.service.WasteAggregateDimension;
+import com.charliechiang.wastesortinghelperserver.service.WasteAnalyticsStore;
+import com.charliechiang.wastesortinghelperserver.service.WasteDeposited;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.hateoas.CollectionModel;
 import org.springframework.hateoas.EntityModel;
 import org.springframework.hateoas.IanaLinkRelations;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
@@ -22,10 +43,15 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.io.IOException;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
-import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.linkTo;
@@ -35,64 +61,258 @@ import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.methodOn;
 @RequestMapping("/api/v1/wastes")
 public class WasteController {
 
+    private static final Log logger = LogFactory.getLog(WasteController.class);
+
     private final DustbinRepository dustbinRepository;
     private final UserRepository userRepository;
     private final WasteRepository wasteRepository;
 
     private final WasteModelAssembler wasteModelAssembler;
 
-    private final UserController userController;
+    private final DustbinStatusTable dustbinStatusTable;
+    private final ReadYourWritesWindow readYourWritesWindow;
+    private final RecentDepositBuffer recentDepositBuffer;
+    private final RecentWasteCache recentWasteCache;
+    private final WasteAnalyticsStore wasteAnalyticsStore;
+    private final DepositLog depositLog;
+    private final DomainEventBus domainEventBus;
+
+    private final long maxReplayNanos;
 
     public WasteController(DustbinRepository dustbinRepository,
                            UserRepository userRepository,
                            WasteRepository wasteRepository,
                            WasteModelAssembler wasteModelAssembler,
-                           UserController userController) {
+                           DustbinStatusTable dustbinStatusTable,
+                           ReadYourWritesWindow readYourWritesWindow,
+                           RecentDepositBuffer recentDepositBuffer,
+                           RecentWasteCache recentWasteCache,
+                           WasteAnalyticsStore wasteAnalyticsStore,
+                           DepositLog depositLog,
+                           DomainEventBus domainEventBus,
+                           @Value("${deposit.log.max-replay-ms:500}") long maxReplayMillis) {
 
         this.dustbinRepository = dustbinRepository;
         this.userRepository = userRepository;
         this.wasteRepository = wasteRepository;
         this.wasteModelAssembler = wasteModelAssembler;
-        this.userController = userController;
+        this.dustbinStatusTable = dustbinStatusTable;
+        this.readYourWritesWindow = readYourWritesWindow;
+        this.recentDepositBuffer = recentDepositBuffer;
+        this.recentWasteCache = recentWasteCache;
+        this.wasteAnalyticsStore = wasteAnalyticsStore;
+        this.depositLog = depositLog;
+        this.domainEventBus = domainEventBus;
+        this.maxReplayNanos = TimeUnit.MILLISECONDS.toNanos(maxReplayMillis);
     }
 
     @PostMapping("")
+    @QueryBudget(4)
     public ResponseEntity<?> addWaste(@RequestBody WasteForm wasteForm) throws Exception {
 
-        User referencedUser = userRepository.findByUsername(wasteForm.getUsername())
-                                            .orElseThrow(() -> new ResourceNotFoundException("User with username="
-                                                                                             + wasteForm.getUsername()
-                                                                                             + " could not be found."));
-        Dustbin referencedDustbin = dustbinRepository.findById(wasteForm.getDustbinId())
-                                                     .orElseThrow(() -> new ResourceNotFoundException("Dustbin with ID="
-                                                                                                      + wasteForm.getDustbinId()
-                                                                                                      + " could not be found."));
+        long position;
+        try {
+            position = logDeposit(wasteForm, null);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+
+        Waste savedWaste = saveDeposit(position);
+
+        if (savedWaste == null) {
+            // the deposit is in the log and saved by replayDeposits, a dustbin must not send it again
+            return ResponseEntity.accepted().build();
+        }
+
+        EntityModel<Waste> entityModel = wasteModelAssembler.toModel(savedWaste);
+
+        return ResponseEntity.created(entityModel.getRequiredLink(IanaLinkRelations.SELF)
+                                                 .toUri())
+                             .body(entityModel);
+    }
+
+    // Shared by addWaste and deposits sent over the dustbin WebSocket, the deposit may be acknowledged once it is
+    // logged. Throws IllegalArgumentException for a deposit that can never be saved. The sequence is null for the
+    // REST API.
+    public long logDeposit(WasteForm wasteForm, Long sequence) throws IOException {
+
+        if (wasteForm.getUsername() == null || wasteForm.getDustbinId() == null
+            || wasteForm.getWeight() == null || wasteForm.getCategory() == null) {
+            throw new IllegalArgumentException("username, dustbinId, weight and category are required");
+        }
 
         LocalDateTime submissionLocalDateTime;
 
-        if (wasteForm.getTime().equals("")) {
+        // resolved now, the deposit may only be saved after the database is back
+        if (wasteForm.getTime() == null || wasteForm.getTime().equals("")) {
             submissionLocalDateTime = LocalDateTime.now();
         } else {
             DateTimeFormatter dateTimeFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
             submissionLocalDateTime = LocalDateTime.parse(wasteForm.getTime(), dateTimeFormatter);
         }
 
-        EntityModel<Waste> entityModel =
-                wasteModelAssembler.toModel(wasteRepository.save(new Waste(referencedUser,
-                                                                           wasteForm.getCategory(),
-                                                                           wasteForm.getWeight(),
-                                                                           referencedDustbin,
-                                                                           submissionLocalDateTime)));
+        return depositLog.append(new PendingDeposit(UUID.randomUUID().toString(),
+                                                    wasteForm.getUsername(),
+                                                    wasteForm.getDustbinId(),
+                                                    sequence,
+                                                    wasteForm.getWeight(),
+                                                    wasteForm.getCategory(),
+                                                    submissionLocalDateTime));
+    }
 
-        // TODO: make async
-        userController.updateCredit(referencedUser, false);
+    // Saves a deposit logged by logDeposit, returns null if it has been deferred to replayDeposits instead.
+    // Throws ResourceNotFoundException for a deposit that can never be saved, it is removed from the log.
+    public Waste saveDeposit(long position) {
 
-        return ResponseEntity.created(entityModel.getRequiredLink(IanaLinkRelations.SELF)
-                                                 .toUri())
-                             .body(entityModel);
+        // deposits logged earlier are waiting for the database, this one waits as well rather than time out again
+        if (depositLog.hasDeferred()) {
+            depositLog.defer(position);
+            return null;
+        }
+
+        Waste savedWaste;
+        try {
+            savedWaste = insertWaste(depositLog.read(position));
+        } catch (ResourceNotFoundException | DataIntegrityViolationException e) {
+            depositLog.remove(position);
+            throw e;
+        } catch (RuntimeException e) {
+            // only what the database may recover from waits for it, anything else would hold back every deposit
+            if (!DomainEventBus.isTransient(e)) {
+                logger.error("Dropped a deposit, it could not be saved.", e);
+                depositLog.discard(position);
+                throw e;
+            }
+
+            logger.warn("Deferred a deposit, it could not be saved: " + e.getMessage());
+            depositLog.defer(position);
+            return null;
+        }
+
+        depositLog.remove(position);
+        recordDeposit(savedWaste);
+
+        return savedWaste;
+    }
+
+    // The highest sequence number of the dustbin that has been logged, whether it has been saved or is still waiting
+    // in the log; null if the dustbin has never sent one.
+    public Long findAcknowledgedSequence(Long dustbinId) {
+
+        Long loggedSequence = depositLog.getMaxSequence(dustbinId);
+        Long savedSequence = wasteRepository.findMaxDustbinSequence(dustbinId).orElse(null);
+
+        if (loggedSequence == null || savedSequence == null) {
+            return loggedSequence == null ? savedSequence : loggedSequence;
+        }
+
+        return Math.max(loggedSequence, savedSequence);
+    }
+
+    // Saves the deferred deposits oldest first, until the database fails again or the run is out of time.
+    @Scheduled(fixedDelayString = "${deposit.log.replay-delay-ms:1000}")
+    public void replayDeposits() {
+
+        depositLog.force();
+
+        long deadline = System.nanoTime() + maxReplayNanos;
+        int savedCount = 0;
+        Long position;
+
+        while (deadline - System.nanoTime() > 0 && (position = depositLog.pollDeferred()) != null) {
+            PendingDeposit deposit;
+            try {
+                deposit = depositLog.read(position);
+            } catch (IllegalArgumentException e) {
+                logger.warn("Dropped a deferred deposit, it cannot be read: " + e.getMessage());
+                depositLog.discard(position);
+                continue;
+            }
+
+            Waste savedWaste;
+            try {
+                savedWaste = insertWaste(deposit);
+            } catch (DataIntegrityViolationException e) {
+                // saved before the server stopped, the log had not been told yet
+                logger.info("Skipped a deferred deposit, it has been saved already.");
+                depositLog.remove(position);
+                continue;
+            } catch (ResourceNotFoundException e) {
+                logger.warn("Dropped a deferred deposit, it can never be saved: " + e.getMessage());
+                depositLog.discard(position);
+                continue;
+            } catch (RuntimeException e) {
+                if (!DomainEventBus.isTransient(e)) {
+                    logger.error("Dropped a deferred deposit, it could not be saved.", e);
+                    depositLog.discard(position);
+                    continue;
+                }
+
+                depositLog.defer(position);
+                logger.warn("Could not save the deferred deposits, retrying in the next run: " + e.getMessage());
+                break;
+            }
+
+            depositLog.remove(position);
+            recordDeposit(savedWaste);
+            savedCount++;
+        }
+
+        if (savedCount > 0) {
+            logger.info("Saved " + savedCount + " deferred deposits, " + depositLog.getDeferredCount() + " remaining.");
+        }
+    }
+
+    // only saves the waste, the deposit log is told right after it returns
+    private Waste insertWaste(PendingDeposit deposit) {
+
+        User referencedUser = userRepository.findByUsername(deposit.getUsername())
+                                            .orElseThrow(() -> new ResourceNotFoundException("User with username="
+                                                                                             + deposit.getUsername()
+                                                                                             + " could not be found."));
+        Dustbin referencedDustbin = dustbinRepository.findById(deposit.getDustbinId())
+                                                     .orElseThrow(() -> new ResourceNotFoundException("Dustbin with ID="
+                                                                                                      + deposit.getDustbinId()
+                                                                                                      + " could not be found."));
+
+        Waste waste = new Waste(referencedUser,
+                                deposit.getCategory(),
+                                deposit.getWeight(),
+                                referencedDustbin,
+                                deposit.getTime());
+        waste.setDepositKey(deposit.getDepositKey());
+        waste.setDustbinSequence(deposit.getSequence());
+
+        return wasteRepository.save(waste);
+    }
+
+    // The waste is saved and out of the log, a failure here must not send it back there to be saved again. The
+    // credit of a deposit whose event was not published is made up for by the ledger on the next startup.
+    private void recordDeposit(Waste savedWaste) {
+
+        String username = savedWaste.getUser().getUsername();
+
+        try {
+            // the waste is usually sent by the dustbin, the user checks it from the mini-program right after
+            readYourWritesWindow.recordWrite(username);
+
+            // what the next reads of the user and of reports depend on, the credit, the analytics store, the
+            // forecast and the dashboards follow from the event
+            recentDepositBuffer.record(savedWaste);
+            recentWasteCache.record(username, savedWaste);
+        } catch (RuntimeException e) {
+            logger.error("Could not record waste " + savedWaste.getId() + " in the recent deposits.", e);
+        }
+
+        try {
+            domainEventBus.publish(new WasteDeposited(savedWaste));
+        } catch (RuntimeException e) {
+            logger.error("Could not publish waste " + savedWaste.getId() + ".", e);
+        }
     }
 
     @GetMapping("/{id}")
+    @QueryBudget(1)
     public EntityModel<Waste> getWasteSingle(@PathVariable Long id) {
 
         return wasteModelAssembler.toModel(wasteRepository.findById(id)
@@ -103,6 +323,7 @@ public class WasteController {
     }
 
     @GetMapping("")
+    @QueryBudget(3)
     public CollectionModel<EntityModel<Waste>> getWasteAll() {
 
         List<EntityModel<Waste>> wastes =
@@ -117,14 +338,53 @@ public class WasteController {
     }
 
 
+    // computed from WasteAnalyticsStore, e.g. groupBy=school,week,category or groupBy=dustbin for accuracy rates
+    @GetMapping("/aggregates")
+    @QueryBudget(0)
+    public ResponseEntity<?> getWasteAggregates(@RequestParam(value = "groupBy", defaultValue = "") List<String> groupBy,
+                                                @RequestParam(value = "from", required = false)
+                                                @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                                @RequestParam(value = "to", required = false)
+                                                @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+                                                @RequestParam(value = "schoolId", required = false) Long schoolId,
+                                                @RequestParam(value = "dustbinId", required = false) Long dustbinId,
+                                                @RequestParam(value = "category", required = false) WasteCategory category) {
+
+        if (!wasteAnalyticsStore.isLoaded()) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                                 .header(HttpHeaders.RETRY_AFTER, "5")
+                                 .body("The analytics store is still being loaded.");
+        }
+
+        Set<WasteAggregateDimension> dimensions = EnumSet.noneOf(WasteAggregateDimension.class);
+
+        try {
+            for (String dimension : groupBy) {
+                if (!dimension.isBlank()) {
+                    dimensions.add(WasteAggregateDimension.valueOf(dimension.trim().toUpperCase()));
+                }
+            }
+
+            return ResponseEntity.ok(CollectionModel.of(wasteAnalyticsStore.aggregate(dimensions,
+                                                                                      from,
+                                                                                      to,
+                                                                                      schoolId,
+                                                                                      dustbinId,
+                                                                                      category)));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
     @PostMapping("/actions/report-incorrect-categorization")
+    @QueryBudget(3)
     public ResponseEntity<?> reportIncorrectCategorization(@RequestParam(value = "dustbinId") Long dustbinId,
                                                            @RequestParam(value = "time") String submissionTime) {
 
-        Dustbin referencedDustbin = dustbinRepository.findById(dustbinId)
-                                                     .orElseThrow(() -> new ResourceNotFoundException("Dustbin with ID="
-                                                                                                      + dustbinId
-                                                                                                      + " could not be found."));
+        Dustbin referencedDustbin = dustbinStatusTable.getDustbin(dustbinId)
+                                                      .orElseThrow(() -> new ResourceNotFoundException("Dustbin with ID="
+                                                                                                       + dustbinId
+                                                                                                       + " could not be found."));
 
         LocalDateTime submissionLocalDateTime;
         if (submissionTime.equals("")) {
@@ -134,22 +394,32 @@ public class WasteController {
             submissionLocalDateTime = LocalDateTime.parse(submissionTime, dateTimeFormatter);
         }
 
-        ArrayList<Waste> wasteInReferencedDustbin = wasteRepository.findTop5ByDustbinOrderByIdDesc(referencedDustbin);
-        Waste suggestedWaste;
-        for (Waste i : wasteInReferencedDustbin) {
-            if (submissionLocalDateTime.isAfter(i.getTime())) {
-                suggestedWaste = i;
-                suggestedWaste.setCorrectlyCategorized(false);
-
-                suggestedWaste.getUser().setNeedFullCreditUpdate(true);
-                userRepository.save(suggestedWaste.getUser());
+        RecentDeposit suggestedDeposit;
+        while ((suggestedDeposit = recentDepositBuffer.findLatestBefore(dustbinId,
+                                                                        submissionLocalDateTime,
+                                                                        () -> wasteRepository.findTop5ByDustbinIdOrderByIdDesc(dustbinId))) != null) {
+            Waste suggestedWaste = suggestedDeposit.toWaste(referencedDustbin);
+            int previousWasteCredit = CreditLedger.getWasteCredit(suggestedWaste);
+            suggestedWaste.setCorrectlyCategorized(false);
+
+            if (wasteRepository.markIncorrectlyCategorizedById(suggestedWaste.getId()) > 0) {
+                recentWasteCache.recordIncorrectCategorization(suggestedWaste.getUser().getUsername(), suggestedWaste.getId());
+                domainEventBus.publish(new CategorizationCorrected(suggestedWaste.getId(),
+                                                                   suggestedWaste.getUser().getId(),
+                                                                   suggestedWaste.getUser().getUsername(),
+                                                                   suggestedWaste.getCategory(),
+                                                                   previousWasteCredit));
+            } else if (!wasteRepository.existsById(suggestedWaste.getId())) {
+                // deleted with its user since it was deposited, the report is about the deposit before it
+                recentDepositBuffer.remove(dustbinId, suggestedWaste.getId());
+                continue;
+            }
 
-                EntityModel<Waste> entityModel = wasteModelAssembler.toModel(wasteRepository.save(suggestedWaste));
+            EntityModel<Waste> entityModel = wasteModelAssembler.toModel(suggestedWaste);
 
-                return ResponseEntity.created(entityModel.getRequiredLink(IanaLinkRelations.SELF)
-                                                         .toUri())
-                                     .body(entityModel);
-            }
+            return ResponseEntity.created(entityModel.getRequiredLink(IanaLinkRelations.SELF)
+                                                     .toUri())
+                                 .body(entityModel);
         }
 
         return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
@@ -1,10 +1,19 @@
 package com.charliechiang.wastesortinghelperserver.controller;
 
 import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONException;
 import com.alibaba.fastjson.JSONObject;
 import com.charliechiang.wastesortinghelperserver.exception.ResourceNotFoundException;
+import com.charliechiang.wastesortinghelperserver.model.WasteCategory;
+import com.charliechiang.wastesortinghelperserver.service.DustbinStatusPublisher;
+import com.charliechiang.wastesortinghelperserver.service.RateLimiter;
+import com.charliechiang.wastesortinghelperserver.service.WebSocketMetrics;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import javax.websocket.OnClose;
@@ -15,6 +24,7 @@ import javax.websocket.Session;
 import javax.websocket.server.PathParam;
 import javax.websocket.server.ServerEndpoint;
 import java.io.IOException;
+import java.time.format.DateTimeParseException;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -27,6 +37,24 @@ public class WebSocketController {
     private static final Log logger = LogFactory.getLog(WebSocketController.class);
     private static final AtomicInteger onlineDustbinCount = new AtomicInteger(0);
     private static final ConcurrentHashMap<Long, WebSocketController> connectionMap = new ConcurrentHashMap<>();
+    // highest deposit sequence number persisted for each dustbin, read from the deposit log and the waste table on
+    // the first connection after a restart
+    private static final ConcurrentHashMap<Long, Long> acknowledgedSequenceMap = new ConcurrentHashMap<>();
+
+    //            | Type | Description                                  |
+    //            | ---- | -------------------------------------------- |
+    //            | 3    | deposit record sent by the dustbin           |
+    //            | 4    | cumulative acknowledgement sent by the server |
+    public static final int TYPE_DEPOSIT = 3;
+    public static final int TYPE_DEPOSIT_ACK = 4;
+
+    // endpoint instances are created by the container, so Spring beans are shared statically
+    private static WasteController wasteController;
+    private static DustbinStatusPublisher dustbinStatusPublisher;
+    private static WebSocketMetrics webSocketMetrics;
+    // null when rate-limit.enabled is off
+    private static RateLimiter rateLimiter;
+    private static Counter rateLimitRejectedCounter;
 
     private Session session;
     private Long dustbinId;
@@ -45,26 +73,31 @@ public class WebSocketController {
         this.session = session;
         this.dustbinId = dustbinId;
 
-        if (connectionMap.containsKey(dustbinId)) {
-            connectionMap.remove(dustbinId);
-            connectionMap.put(dustbinId, this);
-        } else {
-            connectionMap.put(dustbinId, this);
+        if (connectionMap.put(dustbinId, this) == null) {
             onlineDustbinCount.incrementAndGet();
         }
 
         logger.info("Dustbin " + dustbinId + " connected. Connection count=" + onlineDustbinCount.get());
+        webSocketMetrics.connected("dustbins");
+        dustbinStatusPublisher.publishConnection(dustbinId, true);
+
+        // tell the dustbin where to resume sending unacknowledged deposits
+        if (acknowledgedSequenceMap.containsKey(dustbinId) || loadAcknowledgedSequence() != null) {
+            sendDepositAcknowledgement();
+        }
     }
 
     @OnClose
     public void onClose() {
 
-        if (connectionMap.containsKey(dustbinId)) {
-            connectionMap.remove(dustbinId);
+        // a connection replaced by a newer one of the same dustbin leaves it online
+        if (connectionMap.remove(dustbinId, this)) {
             onlineDustbinCount.decrementAndGet();
+            dustbinStatusPublisher.publishConnection(dustbinId, false);
         }
 
         logger.info("Dustbin " + dustbinId + " disconnected. Connection count=" + onlineDustbinCount.get());
+        webSocketMetrics.disconnected("dustbins");
     }
 
     @OnMessage
@@ -80,6 +113,12 @@ public class WebSocketController {
             try {
                 JSONObject jsonObject = JSON.parseObject(message);
                 type = jsonObject.getInteger("type");
+
+                if (type != null && type == TYPE_DEPOSIT) {
+                    onDeposit(jsonObject);
+                    return;
+                }
+
                 requestId = jsonObject.getLong("requestId");
                 username = jsonObject.getString("username");
                 dustbinId = jsonObject.getLong("dustbinId");
@@ -105,6 +144,132 @@ public class WebSocketController {
         messageHistory.put(serverRequest.getRequestId(), serverRequest);
     }
 
+    private void onDeposit(JSONObject jsonObject) {
+
+        Long sequence = jsonObject.getLong("sequence");
+        if (sequence == null) {
+            return;
+        }
+
+        Long persistedSequence = acknowledgedSequenceMap.get(dustbinId);
+        if (persistedSequence == null) {
+            persistedSequence = loadAcknowledgedSequence();
+        }
+
+        // A dustbin without a persisted deposit starts wherever it likes. If the database could not be asked the
+        // deposit is taken as the next one as well, one that has been saved before is refused when it is saved again.
+        long acknowledgedSequence = persistedSequence == null ? sequence - 1 : persistedSequence;
+
+        // Duplicates (resent after a reconnection) are only acknowledged again. Gaps are not persisted,
+        // the dustbin resends everything after the acknowledged sequence number.
+        if (sequence != acknowledgedSequence + 1) {
+            sendDepositAcknowledgement();
+            return;
+        }
+
+        // counted with the HTTP deposits of the dustbin; a deposit over the limit is not acknowledged, the dustbin
+        // resends it once a later deposit is answered with the acknowledgement before it
+        if (rateLimiter != null && !rateLimiter.tryAcquire(RateLimiter.LimitClass.DEVICE, "dustbin:" + dustbinId)
+                                               .isAllowed()) {
+            rateLimitRejectedCounter.increment();
+            return;
+        }
+
+        long position;
+        try {
+            WasteForm wasteForm = new WasteForm(jsonObject.getString("username"),
+                                                dustbinId,
+                                                jsonObject.getDouble("weight"),
+                                                jsonObject.getObject("category", WasteCategory.class),
+                                                jsonObject.containsKey("time") ? jsonObject.getString("time") : "",
+                                                jsonObject.getBoolean("isCorrectlyCategorized"));
+
+            position = wasteController.logDeposit(wasteForm, sequence);
+        } catch (DateTimeParseException | JSONException | IllegalArgumentException ex) {
+            // the record can never be persisted, so it is skipped instead of being resent forever
+            logger.warn("Dropped deposit " + sequence + " from dustbin " + dustbinId + ": " + ex.getMessage());
+            acknowledgedSequenceMap.put(dustbinId, sequence);
+            sendDepositAcknowledgement();
+            return;
+        } catch (IOException ex) {
+            logger.error("Failed to log deposit " + sequence + " from dustbin " + dustbinId + ": " + ex.getMessage());
+            return;
+        }
+
+        // the deposit is safe in the log, the dustbin does not wait for the database
+        acknowledgedSequenceMap.put(dustbinId, sequence);
+        sendDepositAcknowledgement();
+
+        try {
+            wasteController.saveDeposit(position);
+        } catch (RuntimeException ex) {
+            logger.warn("Dropped deposit " + sequence + " from dustbin " + dustbinId + ": " + ex.getMessage());
+        }
+    }
+
+    // null if the dustbin has never sent a deposit or the database cannot be reached
+    private Long loadAcknowledgedSequence() {
+
+        Long sequence;
+        try {
+            sequence = wasteController.findAcknowledgedSequence(dustbinId);
+        } catch (RuntimeException ex) {
+            logger.warn("Could not read the acknowledged deposits of dustbin " + dustbinId + ": " + ex.getMessage());
+            return null;
+        }
+
+        return sequence == null ? null : acknowledgedSequenceMap.merge(dustbinId, sequence, Math::max);
+    }
+
+    private void sendDepositAcknowledgement() {
+
+        DepositAcknowledgement acknowledgement =
+                new DepositAcknowledgement(dustbinId, acknowledgedSequenceMap.getOrDefault(dustbinId, 0L));
+
+        try {
+            sendText(JSON.toJSONString(acknowledgement));
+        } catch (IOException ex) {
+            logger.error("Failed to acknowledge deposits: dustbinId=" + dustbinId + ", message=" + ex.getMessage());
+        }
+    }
+
+    private void sendText(String text) throws IOException {
+
+        // a basic remote endpoint does not allow concurrent writes
+        synchronized (session) {
+            webSocketMetrics.sendText("dustbins", session, text);
+        }
+    }
+
+    public static int getOnlineDustbinCount() {
+
+        return onlineDustbinCount.get();
+    }
+
+    @Autowired
+    public void setWasteController(WasteController wasteController) {
+        WebSocketController.wasteController = wasteController;
+    }
+
+    @Autowired
+    public void setDustbinStatusPublisher(DustbinStatusPublisher dustbinStatusPublisher) {
+        WebSocketController.dustbinStatusPublisher = dustbinStatusPublisher;
+    }
+
+    @Autowired
+    public void setWebSocketMetrics(WebSocketMetrics webSocketMetrics) {
+        WebSocketController.webSocketMetrics = webSocketMetrics;
+    }
+
+    @Autowired
+    public void setRateLimiter(RateLimiter rateLimiter,
+                               MeterRegistry meterRegistry,
+                               @Value("${rate-limit.enabled:true}") boolean isRateLimited) {
+        WebSocketController.rateLimiter = isRateLimited ? rateLimiter : null;
+        WebSocketController.rateLimitRejectedCounter =
+                meterRegistry.counter("security.rate.limit.rejected", "class", "device");
+    }
+
     @OnError
     public void onError(Session session, Throwable throwable) {
 
@@ -120,7 +285,7 @@ public class WebSocketController {
         }
 
         WebSocketController referencedDustbinWS = connectionMap.get(serverRequest.getDustbinId());
-        referencedDustbinWS.session.getBasicRemote().sendText(JSON.toJSONString(serverRequest));
+        referencedDustbinWS.sendText(JSON.toJSONString(serverRequest));
 
         referencedDustbinWS.messageHistory.remove(serverRequest.getRequestId());
         referencedDustbinWS.messageHistory.put(serverRequest.getRequestId(), serverRequest);
@@ -218,4 +383,43 @@ class ServerRequest {
     public void setDescription(String description) {
         this.description = description;
     }
-}
\ No newline at end of file
+}
+
+class DepositAcknowledgement {
+
+    private Integer type = WebSocketController.TYPE_DEPOSIT_ACK;
+    private Long dustbinId;
+    // every deposit up to and including this sequence number has been persisted
+    private Long sequence;
+
+    public DepositAcknowledgement(Long dustbinId,
+                                  Long sequence) {
+
+        this.dustbinId = dustbinId;
+        this.sequence = sequence;
+    }
+
+    public Integer getType() {
+        return type;
+    }
+
+    public void setType(Integer type) {
+        this.type = type;
+    }
+
+    public Long getDustbinId() {
+        return dustbinId;
+    }
+
+    public void setDustbinId(Long dustbinId) {
+        this.dustbinId = dustbinId;
+    }
+
+    public Long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(Long sequence) {
+        this.sequence = sequence;
+    }
+}
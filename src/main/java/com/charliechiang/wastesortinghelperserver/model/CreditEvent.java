@@ -0,0 +1,71 @@
+package com.charliechiang.wastesortinghelperserver.model;
+
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import java.time.LocalDateTime;
+
+// A row of the credit ledger. Rows are only ever inserted, and removed together with their user.
+@Entity
+@Table(name = "credit_event", indexes = {@Index(columnList = "userId, id"), @Index(columnList = "wasteId")})
+public class CreditEvent {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.AUTO)
+    private Long id;
+    // IDs instead of associations, the ledger does not hold on to users or wastes
+    private Long userId;
+    private Long wasteId;
+    @Enumerated(EnumType.STRING)
+    private CreditEventType type;
+    private int amount;
+    private LocalDateTime time;
+
+    public CreditEvent() {
+
+    }
+
+    public CreditEvent(Long userId, CreditEventType type, int amount, Long wasteId) {
+
+        this.userId = userId;
+        this.type = type;
+        this.amount = amount;
+        this.wasteId = wasteId;
+        this.time = LocalDateTime.now();
+    }
+
+    // credit never drops below zero
+    public int applyTo(int credit) {
+
+        return Math.max(type.isAbsolute() ? amount : credit + amount, 0);
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public Long getWasteId() {
+        return wasteId;
+    }
+
+    public CreditEventType getType() {
+        return type;
+    }
+
+    public int getAmount() {
+        return amount;
+    }
+
+    public LocalDateTime getTime() {
+        return time;
+    }
+}
@@ -0,0 +1,27 @@
+package com.charliechiang.wastesortinghelperserver.model;
+
+public enum CreditEventType {
+
+    // the credit a user had when the ledger was introduced
+    OPENING(true),
+    // a correctly sorted food or recyclable waste
+    DEPOSIT(false),
+    // an incorrectly sorted waste
+    PENALTY(false),
+    // a waste reported as incorrectly sorted after it was credited
+    CORRECTION(false),
+    MANUAL_SET(true),
+    OFFSET(false);
+
+    // the amount replaces the credit instead of being added to it
+    private final boolean isAbsolute;
+
+    CreditEventType(boolean isAbsolute) {
+
+        this.isAbsolute = isAbsolute;
+    }
+
+    public boolean isAbsolute() {
+        return isAbsolute;
+    }
+}
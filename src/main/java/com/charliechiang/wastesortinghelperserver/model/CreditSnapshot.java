@@ -0,0 +1,46 @@
+package com.charliechiang.wastesortinghelperserver.model;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import java.time.LocalDateTime;
+
+// The credit of a user after all of their credit events up to eventId.
+@Entity
+@Table(name = "credit_snapshot")
+public class CreditSnapshot {
+
+    @Id
+    private Long userId;
+    private Long eventId;
+    private int credit;
+    private LocalDateTime time;
+
+    public CreditSnapshot() {
+
+    }
+
+    public CreditSnapshot(Long userId, Long eventId, int credit) {
+
+        this.userId = userId;
+        this.eventId = eventId;
+        this.credit = credit;
+        this.time = LocalDateTime.now();
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public Long getEventId() {
+        return eventId;
+    }
+
+    public int getCredit() {
+        return credit;
+    }
+
+    public LocalDateTime getTime() {
+        return time;
+    }
+}
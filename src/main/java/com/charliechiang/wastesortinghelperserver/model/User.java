@@ -1,6 +1,8 @@
 package com.charliechiang.wastesortinghelperserver.model;
 
 import com.fasterxml.jackson.annotation.JsonBackReference;
+import org.hibernate.annotations.ColumnDefault;
+import org.hibernate.annotations.DynamicUpdate;
 import org.hibernate.annotations.OnDelete;
 import org.hibernate.annotations.OnDeleteAction;
 import org.springframework.security.core.GrantedAuthority;
@@ -16,17 +18,29 @@ import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
+import javax.persistence.PrimaryKeyJoinColumn;
+import javax.persistence.SecondaryTable;
 import javax.persistence.Table;
+import javax.persistence.Transient;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.stream.Collectors;
 
+// Credit and rankings live in user_stats and the tree game in user_tree, rows of their own next to the user row,
+// so credit changes, ranking updates and the game do not rewrite or lock the row that logins read. Only the
+// columns that changed are written.
 @Entity
 @Table(name = "user")
+@SecondaryTable(name = User.STATS_TABLE, pkJoinColumns = @PrimaryKeyJoinColumn(name = "user_id"))
+@SecondaryTable(name = User.TREE_TABLE, pkJoinColumns = @PrimaryKeyJoinColumn(name = "user_id"))
+@DynamicUpdate
 public class User implements UserDetails {
 
+    public static final String STATS_TABLE = "user_stats";
+    public static final String TREE_TABLE = "user_tree";
+
     @Id
     @GeneratedValue(strategy = GenerationType.AUTO)
     private Long id;
@@ -38,9 +52,15 @@ public class User implements UserDetails {
     @JoinColumn(name = "school_id", referencedColumnName = "id")
     private School school;
     private Short timeOfEnrollment;
+    // only changed by UserRepository.updateCreditById, saving a stale copy of the user (from the ranking update
+    // for example) must not overwrite a credit change made in the meantime
+    @Column(table = STATS_TABLE, updatable = false)
     private Integer credit = 0;
+    @Column(table = STATS_TABLE)
     private Integer schoolRanking = Integer.MAX_VALUE;
+    @Column(table = STATS_TABLE)
     private Integer collegeRanking = Integer.MAX_VALUE;
+    @Column(table = STATS_TABLE, updatable = false)
     private LocalDateTime timeLastUpdatedCredit = LocalDateTime.of(1970, 1, 1, 1, 1);
     @JsonBackReference
     // the start date of last punished interval
@@ -53,18 +73,32 @@ public class User implements UserDetails {
     private String sessionKey;
     @JsonBackReference
     private String unionId;
-    @JsonBackReference
-    private Boolean needFullCreditUpdate = false;
+    @Column(table = TREE_TABLE)
     private int remainingWater = 0;
+    @Column(table = TREE_TABLE)
     private int remainingFertilizer = 0;
+    @Column(table = TREE_TABLE)
     private int remainingMedicine = 0;
+    @Column(table = TREE_TABLE)
     private int water = 0;
+    @Column(table = TREE_TABLE)
     private int fertilizer = 0;
+    @Column(table = TREE_TABLE)
     private int medicine = 0;
+    @Column(table = TREE_TABLE)
     private int level = 0;
+    @JsonBackReference
+    // only set by UserRepository.markDeletedById, saving a stale copy of the user must not bring it back
+    // the default fills in the rows that exist when the column is added
+    @Column(nullable = false, updatable = false)
+    @ColumnDefault("false")
+    private boolean deleted = false;
 
     @ElementCollection(fetch = FetchType.EAGER)
     private List<String> roles = new ArrayList<>();
+    // built on first use, getAuthorities() is called for every authenticated request
+    @Transient
+    private transient List<GrantedAuthority> authorities;
 
     public User() {
 
@@ -116,10 +150,14 @@ public class User implements UserDetails {
     @Override
     public Collection<? extends GrantedAuthority> getAuthorities() {
 
-        return this.roles
-                .stream()
-                .map(SimpleGrantedAuthority::new)
-                .collect(Collectors.toList());
+        if (authorities == null) {
+            authorities = this.roles
+                    .stream()
+                    .map(SimpleGrantedAuthority::new)
+                    .collect(Collectors.toUnmodifiableList());
+        }
+
+        return authorities;
     }
 
     @Override
@@ -227,20 +265,13 @@ public class User implements UserDetails {
         this.unionId = unionId;
     }
 
-    public Boolean getNeedFullCreditUpdate() {
-        return needFullCreditUpdate;
-    }
-
-    public void setNeedFullCreditUpdate(Boolean needFullCreditUpdate) {
-        this.needFullCreditUpdate = needFullCreditUpdate;
-    }
-
     public List<String> getRoles() {
         return roles;
     }
 
     public void setRoles(List<String> roles) {
         this.roles = roles;
+        this.authorities = null;
     }
 
     public int getRemainingWater() {
@@ -298,4 +329,8 @@ public class User implements UserDetails {
     public void setLevel(int level) {
         this.level = level;
     }
+
+    public boolean isDeleted() {
+        return deleted;
+    }
 }
@@ -2,6 +2,7 @@ package com.charliechiang.wastesortinghelperserver.model;
 
 import com.fasterxml.jackson.annotation.JsonBackReference;
 
+import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
@@ -9,10 +10,12 @@ import javax.persistence.Id;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
 import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "waste")
+// a deposit the dustbin resent after the server restarted is refused by the database
+@Table(name = "waste", uniqueConstraints = @UniqueConstraint(columnNames = {"dustbin_id", "dustbinSequence"}))
 public class Waste {
 
     @Id
@@ -28,6 +31,11 @@ public class Waste {
     @ManyToOne
     @JoinColumn(name = "dustbin_id", referencedColumnName = "id")
     private Dustbin dustbin;
+    // the PendingDeposit.depositKey the waste was saved from, null for wastes saved without the deposit log
+    @Column(unique = true, length = 36)
+    private String depositKey;
+    // PendingDeposit.sequence
+    private Long dustbinSequence;
 
     public Boolean getCorrectlyCategorized() {
         return isCorrectlyCategorized;
@@ -100,4 +108,13 @@ public class Waste {
     public void setUser(User user) {
         this.user = user;
     }
+
+    // not exposed through a getter, wastes are serialized as they are
+    public void setDepositKey(String depositKey) {
+        this.depositKey = depositKey;
+    }
+
+    public void setDustbinSequence(Long dustbinSequence) {
+        this.dustbinSequence = dustbinSequence;
+    }
 }
@@ -0,0 +1,69 @@
+package com.charliechiang.wastesortinghelperserver.repository;
+
+import com.charliechiang.wastesortinghelperserver.model.CreditEvent;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+@Transactional(readOnly = true)
+public interface CreditEventRepository extends JpaRepository<CreditEvent, Long> {
+
+    // the tail that is replayed on top of a snapshot
+    List<CreditEvent> findAllByUserIdAndIdGreaterThanOrderByIdAsc(Long userId, Long id);
+
+    List<CreditEvent> findAllByUserIdOrderByIdDesc(Long userId, Pageable pageable);
+
+    @Query("select distinct e.userId from CreditEvent e where e.id > :id")
+    List<Long> findUserIdsByIdGreaterThan(@Param("id") Long id);
+
+    // the ledger has been recording deposits since the first waste it recorded, wastes before it are in OPENING events
+    @Query("select min(e.wasteId) from CreditEvent e")
+    Optional<Long> findMinWasteId();
+
+    // the latest limit wastes from fromWasteId on, with the sum of the credit events recorded for them; wastes of
+    // deleted users and those an OPENING event of their user already counted are left out
+    @Query(value = "select w.id as wasteId, w.user_id as userId, u.username as username, w.category as category,"
+                   + " w.is_correctly_categorized as correctlyCategorized,"
+                   + " coalesce(sum(e.amount), 0) as recordedAmount, count(e.id) as eventCount"
+                   + " from (select id, user_id, category, is_correctly_categorized, time from waste"
+                   + " where id >= :fromWasteId order by id desc limit :limit) w"
+                   + " join user u on u.id = w.user_id"
+                   + " left join credit_event e on e.waste_id = w.id"
+                   + " where u.deleted = false and not exists (select o.id from credit_event o"
+                   + " where o.user_id = w.user_id and o.type = 'OPENING' and o.time >= w.time)"
+                   + " group by w.id, w.user_id, u.username, w.category, w.is_correctly_categorized",
+           nativeQuery = true)
+    List<RecordedWasteCredit> findLatestRecordedWasteCredits(@Param("fromWasteId") Long fromWasteId,
+                                                             @Param("limit") int limit);
+
+    @Transactional
+    @Modifying
+    @Query(value = "delete from credit_event where user_id = :userId limit :limit", nativeQuery = true)
+    int deleteChunkByUserId(@Param("userId") Long userId, @Param("limit") int limit);
+
+    interface RecordedWasteCredit {
+
+        Long getWasteId();
+
+        Long getUserId();
+
+        String getUsername();
+
+        // the ordinal of the WasteCategory, or null
+        Integer getCategory();
+
+        Boolean getCorrectlyCategorized();
+
+        Integer getRecordedAmount();
+
+        Integer getEventCount();
+    }
+}
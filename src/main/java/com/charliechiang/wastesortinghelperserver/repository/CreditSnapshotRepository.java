@@ -0,0 +1,24 @@
+package com.charliechiang.wastesortinghelperserver.repository;
+
+import com.charliechiang.wastesortinghelperserver.model.CreditSnapshot;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Optional;
+
+@Repository
+@Transactional(readOnly = true)
+public interface CreditSnapshotRepository extends JpaRepository<CreditSnapshot, Long> {
+
+    @Query("select max(s.eventId) from CreditSnapshot s")
+    Optional<Long> findMaxEventId();
+
+    @Transactional
+    @Modifying
+    @Query("delete from CreditSnapshot s where s.userId = :userId")
+    int deleteByUserId(@Param("userId") Long userId);
+}
@@ -2,14 +2,25 @@ package com.charliechiang.wastesortinghelperserver.repository;
 
 import com.charliechiang.wastesortinghelperserver.model.Dustbin;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import javax.persistence.QueryHint;
+import java.util.List;
 import java.util.Optional;
 
+import static org.hibernate.jpa.QueryHints.HINT_CACHEABLE;
+
 @Repository
+@Transactional(readOnly = true)
 public interface DustbinRepository extends JpaRepository<Dustbin, Long> {
 
     Optional<Dustbin> findById(Long id);
 
     Optional<Dustbin> findByName(String name);
+
+    @Override
+    @QueryHints(@QueryHint(name = HINT_CACHEABLE, value = "true"))
+    List<Dustbin> findAll();
 }
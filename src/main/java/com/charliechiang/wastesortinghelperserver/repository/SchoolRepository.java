@@ -2,9 +2,18 @@ package com.charliechiang.wastesortinghelperserver.repository;
 
 import com.charliechiang.wastesortinghelperserver.model.School;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.QueryHint;
+import java.util.List;
+
+import static org.hibernate.jpa.QueryHints.HINT_CACHEABLE;
+
 @Repository
 public interface SchoolRepository extends JpaRepository<School, Long> {
 
+    @Override
+    @QueryHints(@QueryHint(name = HINT_CACHEABLE, value = "true"))
+    List<School> findAll();
 }
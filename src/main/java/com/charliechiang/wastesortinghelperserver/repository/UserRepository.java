@@ -1,26 +1,76 @@
 package com.charliechiang.wastesortinghelperserver.repository;
 
 import com.charliechiang.wastesortinghelperserver.model.User;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
-import javax.transaction.Transactional;
+import javax.persistence.QueryHint;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Optional;
+import java.util.Set;
 
+import static org.hibernate.jpa.QueryHints.HINT_NATIVE_SPACES;
+
+// query methods are not transactional by default, read-only ones are routed to the replica when there is one
+// deleted users are left out of every lookup, they only remain until UserPurger has removed their wastes
 @Repository
+@Transactional(readOnly = true)
 public interface UserRepository extends JpaRepository<User, Long> {
 
+    @Query("select u from User u where u.deleted = false order by u.credit desc")
     ArrayList<User> findAllByOrderByCreditDesc();
 
+    @Query("select u from User u where u.deleted = false")
     ArrayList<User> findAll();
 
-    Optional<User> findByUsername(String username);
+    @EntityGraph(attributePaths = "school", type = EntityGraph.EntityGraphType.LOAD)
+    @Query("select u from User u where u.username = :username and u.deleted = false")
+    Optional<User> findByUsername(@Param("username") String username);
+
+    ArrayList<User> findAllByRolesIsContainingAndDeletedIsFalse(String role);
+
+    @Query("select u.username from User u where u.username in :usernames and u.deleted = false")
+    Set<String> findUsernamesByUsernameIn(@Param("usernames") Collection<String> usernames);
+
+    ArrayList<User> findAllByDeletedIsTrue();
+
+    // users from before the credit ledger, with a credit or with wastes their credit does not include yet
+    @Query("select u from User u where u.deleted = false"
+           + " and not exists (select e from CreditEvent e where e.userId = u.id)"
+           + " and (u.credit <> 0 or exists (select w from Waste w where w.user = u and w.time > u.timeLastUpdatedCredit))")
+    ArrayList<User> findAllWithoutCreditEvents();
+
+    // User spans several tables, bulk JPQL updates of it would go through temporary tables, these are plain SQL
+    // naming the table they write keeps Hibernate from evicting the whole second-level cache after each of them
+    // the row lock serializes concurrent credit changes of the user until the transaction ends
+    @Transactional
+    @Query(value = "select credit from user_stats where user_id = :id for update", nativeQuery = true)
+    int lockCreditById(@Param("id") Long id);
+
+    @Transactional
+    @Modifying
+    @QueryHints(@QueryHint(name = HINT_NATIVE_SPACES, value = User.STATS_TABLE))
+    @Query(value = "update user_stats set credit = :credit, time_last_updated_credit = :time where user_id = :id",
+           nativeQuery = true)
+    int updateCreditById(@Param("id") Long id, @Param("credit") int credit, @Param("time") LocalDateTime time);
 
-    ArrayList<User> findAllByRolesIsContaining(String role);
+    @Transactional
+    @Modifying
+    @QueryHints(@QueryHint(name = HINT_NATIVE_SPACES, value = "user"))
+    @Query(value = "update user set deleted = true where id = :id", nativeQuery = true)
+    int markDeletedById(@Param("id") Long id);
 
+    @Transactional
     void deleteByUsername(String username);
 
+    @Transactional
     void deleteById(Long id);
-}
\ No newline at end of file
+}
@@ -4,32 +4,65 @@ import com.charliechiang.wastesortinghelperserver.model.Dustbin;
 import com.charliechiang.wastesortinghelperserver.model.User;
 import com.charliechiang.wastesortinghelperserver.model.Waste;
 import com.charliechiang.wastesortinghelperserver.model.WasteCategory;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
 
 @Repository
+@Transactional(readOnly = true)
 public interface WasteRepository extends JpaRepository<Waste, Long> {
 
-    ArrayList<Waste> findTop5ByDustbinOrderByIdDesc(Dustbin dustbin);
+    // the RecentDepositBuffer.SIZE latest deposits of the dustbin, for a buffer that does not hold them all yet
+    @EntityGraph(attributePaths = {"user", "dustbin"}, type = EntityGraph.EntityGraphType.LOAD)
+    ArrayList<Waste> findTop5ByDustbinIdOrderByIdDesc(Long dustbinId);
 
+    @EntityGraph(attributePaths = "user", type = EntityGraph.EntityGraphType.LOAD)
     ArrayList<Waste> findByDustbinOrderByTimeDesc(Dustbin dustbin);
 
+    @EntityGraph(attributePaths = "dustbin", type = EntityGraph.EntityGraphType.LOAD)
     ArrayList<Waste> findByUserOrderByTimeDesc(User user);
 
     ArrayList<Waste> findAllByUser(User user);
 
     ArrayList<Waste> findAllByUserAndTimeIsAfter(User user, LocalDateTime time);
 
+    @EntityGraph(attributePaths = "dustbin", type = EntityGraph.EntityGraphType.LOAD)
     ArrayList<Waste> findTop20ByUserOrderByTimeDesc(User user);
 
     ArrayList<Waste> findByCategory(WasteCategory category);
 
     ArrayList<Waste> findByUserAndIsCorrectlyCategorizedIsTrue(User user);
 
-    void deleteAllByUser(User user);
+    long countByUserId(Long userId);
+
+    // through the unique index of dustbin_id and dustbin_sequence
+    @Query("select max(w.dustbinSequence) from Waste w where w.dustbin.id = :dustbinId")
+    Optional<Long> findMaxDustbinSequence(@Param("dustbinId") Long dustbinId);
+
+    // only the first report of a waste changes it, a credit correction is due when 1 is returned
+    @Transactional
+    @Modifying
+    @Query("update Waste w set w.isCorrectlyCategorized = false where w.id = :id and w.isCorrectlyCategorized = true")
+    int markIncorrectlyCategorizedById(@Param("id") Long id);
+
+    // a bounded chunk per transaction, deleting all wastes of a heavy user at once holds row locks for too long
+    @Transactional
+    @Modifying
+    @Query(value = "delete from waste where user_id = :userId limit :limit", nativeQuery = true)
+    int deleteChunkByUserId(@Param("userId") Long userId, @Param("limit") int limit);
+
+    @Override
+    @EntityGraph(attributePaths = {"user", "dustbin"}, type = EntityGraph.EntityGraphType.LOAD)
+    List<Waste> findAll();
 
     Waste findById(long id);
 }
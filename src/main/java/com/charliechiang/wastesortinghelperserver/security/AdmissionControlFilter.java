@@ -0,0 +1,178 @@
+package com.charliechiang.wastesortinghelperserver.security;
+
+import com.charliechiang.wastesortinghelperserver.config.AdmissionControlProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.web.filter.GenericFilterBean;
+import org.springframework.web.util.UrlPathHelper;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Limits the API requests handled at once, so that under overload dustbin deposits still get a thread and a
+// database connection. Each priority leaves the permits reserved for the ones above it, and whatever cannot be
+// admitted is answered with 503 before the security chain or a controller runs.
+public class AdmissionControlFilter extends GenericFilterBean {
+
+    public enum Priority {
+        // deposits, fullness reports and lid-open requests
+        DEVICE,
+        USER,
+        // admin reads of whole tables and bulk imports
+        BULK
+    }
+
+    private static final List<Rule> RULES =
+            List.of(new Rule(HttpMethod.POST, "/api/v1/wastes/**", Priority.DEVICE),
+                    new Rule(HttpMethod.POST, "/api/v1/dustbins/*/full", Priority.DEVICE),
+                    new Rule(HttpMethod.POST, "/api/v1/dustbins/*/requests", Priority.DEVICE),
+                    new Rule(HttpMethod.GET, "/api/v1/wastes", Priority.BULK),
+                    new Rule(HttpMethod.GET, "/api/v1/users", Priority.BULK),
+                    new Rule(HttpMethod.GET, "/api/v1/users/admins", Priority.BULK),
+                    new Rule(HttpMethod.GET, "/api/v1/users/*/wastes", Priority.BULK),
+                    new Rule(HttpMethod.GET, "/api/v1/dustbins/*/wastes", Priority.BULK),
+                    new Rule(HttpMethod.POST, "/api/v1/users/import", Priority.BULK),
+                    // WebSocket handshakes do not touch the database
+                    new Rule(null, "/api/v1/ws/**", null),
+                    new Rule(null, "/api/**", Priority.USER));
+
+    private final AdmissionControlProperties properties;
+
+    private final Semaphore permits;
+    private final Semaphore bulkPermits;
+
+    private final AntPathMatcher pathMatcher = new AntPathMatcher();
+    private final UrlPathHelper urlPathHelper = new UrlPathHelper();
+
+    private final Map<Priority, AtomicInteger> activeMap = new EnumMap<>(Priority.class);
+    private final Map<Priority, Counter> shedCounterMap = new EnumMap<>(Priority.class);
+
+    public AdmissionControlFilter(AdmissionControlProperties properties,
+                                  MeterRegistry meterRegistry) {
+
+        this.properties = properties;
+        this.permits = new Semaphore(properties.getMaxConcurrent());
+        this.bulkPermits = new Semaphore(properties.getBulkMaxConcurrent());
+
+        for (Priority i : Priority.values()) {
+            Tags tags = Tags.of("priority", i.name().toLowerCase());
+            activeMap.put(i, meterRegistry.gauge("http.server.requests.admitted", tags, new AtomicInteger()));
+            shedCounterMap.put(i, meterRegistry.counter("http.server.requests.shed", tags));
+        }
+    }
+
+    @Override
+    public void doFilter(ServletRequest req, ServletResponse res, FilterChain filterChain)
+            throws IOException, ServletException {
+
+        Priority priority = classify((HttpServletRequest) req);
+
+        if (priority == null) {
+            filterChain.doFilter(req, res);
+            return;
+        }
+
+        if (!admit(priority)) {
+            shedCounterMap.get(priority).increment();
+            HttpServletResponse response = (HttpServletResponse) res;
+            response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+            response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+            return;
+        }
+
+        AtomicInteger active = activeMap.get(priority);
+        active.incrementAndGet();
+        try {
+            filterChain.doFilter(req, res);
+        } finally {
+            active.decrementAndGet();
+            permits.release();
+            if (priority == Priority.BULK) {
+                bulkPermits.release();
+            }
+        }
+    }
+
+    private Priority classify(HttpServletRequest request) {
+
+        String path = urlPathHelper.getPathWithinApplication(request);
+
+        for (Rule i : RULES) {
+            if ((i.method == null || i.method.matches(request.getMethod())) && pathMatcher.match(i.pattern, path)) {
+                return i.priority;
+            }
+        }
+
+        return null;
+    }
+
+    private boolean admit(Priority priority) {
+
+        switch (priority) {
+            case DEVICE:
+                try {
+                    return permits.tryAcquire(properties.getDeviceWaitMs(), TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            case USER:
+                return tryAcquireLeaving(properties.getDeviceReserved());
+            default:
+                if (!bulkPermits.tryAcquire()) {
+                    return false;
+                }
+                if (tryAcquireLeaving(properties.getDeviceReserved() + properties.getUserReserved())) {
+                    return true;
+                }
+                bulkPermits.release();
+                return false;
+        }
+    }
+
+    // a permit taken out of the reserve of higher priorities is given back
+    private boolean tryAcquireLeaving(int reserved) {
+
+        if (!permits.tryAcquire()) {
+            return false;
+        }
+
+        if (permits.availablePermits() >= reserved) {
+            return true;
+        }
+
+        permits.release();
+        return false;
+    }
+
+    private static class Rule {
+
+        private final HttpMethod method;
+        private final String pattern;
+        // null for requests that are always admitted
+        private final Priority priority;
+
+        Rule(HttpMethod method, String pattern, Priority priority) {
+
+            this.method = method;
+            this.pattern = pattern;
+            this.priority = priority;
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package com.charliechiang.wastesortinghelperserver.security;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.http.HttpHeaders;
@@ -15,6 +17,7 @@ import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
 import java.io.IOException;
+import java.util.concurrent.TimeUnit;
 
 public class JwtTokenAuthenticationFilter extends GenericFilterBean {
 
@@ -24,9 +27,16 @@ public class JwtTokenAuthenticationFilter extends GenericFilterBean {
 
     private final JwtTokenProvider jwtTokenProvider;
 
-    public JwtTokenAuthenticationFilter(JwtTokenProvider jwtTokenProvider) {
+    // time spent validating and parsing tokens, by whether the request ended up authenticated
+    private final Timer authenticatedTimer;
+    private final Timer rejectedTimer;
+
+    public JwtTokenAuthenticationFilter(JwtTokenProvider jwtTokenProvider,
+                                        MeterRegistry meterRegistry) {
 
         this.jwtTokenProvider = jwtTokenProvider;
+        this.authenticatedTimer = meterRegistry.timer("security.jwt.authentication", "outcome", "authenticated");
+        this.rejectedTimer = meterRegistry.timer("security.jwt.authentication", "outcome", "rejected");
     }
 
     @Override
@@ -36,12 +46,20 @@ public class JwtTokenAuthenticationFilter extends GenericFilterBean {
         String token = resolveToken((HttpServletRequest) req);
 //        log.info("Extracting token from HttpServletRequest: " + token);
 
-        if (token != null && jwtTokenProvider.validateToken(token)) {
-            Authentication auth = jwtTokenProvider.getAuthentication(token);
+        if (token != null) {
+            long startTime = System.nanoTime();
+            boolean isAuthenticated = false;
+
+            if (jwtTokenProvider.validateToken(token)) {
+                Authentication auth = jwtTokenProvider.getAuthentication(token);
 
-            if (auth != null && !(auth instanceof AnonymousAuthenticationToken)) {
-                SecurityContextHolder.getContext().setAuthentication(auth);
+                if (auth != null && !(auth instanceof AnonymousAuthenticationToken)) {
+                    SecurityContextHolder.getContext().setAuthentication(auth);
+                    isAuthenticated = true;
+                }
             }
+
+            (isAuthenticated ? authenticatedTimer : rejectedTimer).record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
         }
 
         filterChain.doFilter(req, res);
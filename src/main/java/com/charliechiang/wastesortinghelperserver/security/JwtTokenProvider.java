@@ -19,10 +19,12 @@ import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
 import javax.crypto.SecretKey;
+import javax.websocket.Session;
 import java.nio.charset.StandardCharsets;
 import java.util.Base64;
 import java.util.Collection;
 import java.util.Date;
+import java.util.List;
 
 import static java.util.stream.Collectors.joining;
 
@@ -90,6 +92,18 @@ public class JwtTokenProvider {
         return new UsernamePasswordAuthenticationToken(principal, token, authorities);
     }
 
+    // WebSocket clients pass the token as the "token" query parameter, returns null if it is missing or invalid
+    public Authentication getAuthenticationFromSession(Session session) {
+
+        List<String> tokens = session.getRequestParameterMap().get("token");
+
+        if (tokens == null || tokens.isEmpty() || !validateToken(tokens.get(0))) {
+            return null;
+        }
+
+        return getAuthentication(tokens.get(0));
+    }
+
     public boolean validateToken(String token) {
 
         try {
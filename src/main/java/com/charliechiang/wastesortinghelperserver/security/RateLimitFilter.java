@@ -0,0 +1,220 @@
+package com.charliechiang.wastesortinghelperserver.security;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONException;
+import com.alibaba.fastjson.JSONObject;
+import com.charliechiang.wastesortinghelperserver.service.RateLimiter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.filter.GenericFilterBean;
+import org.springframework.web.util.UrlPathHelper;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+// Runs after JwtTokenAuthenticationFilter, so lid-open requests are counted per user. Requests over the limit
+// are answered with 429 here and never reach a controller or the database. Deposits are counted per dustbin, their
+// body is read here and handed on to the controller. Only what cannot be tied to a dustbin or a user is counted per
+// address, which is the client's behind a proxy as long as server.forward-headers-strategy is set.
+public class RateLimitFilter extends GenericFilterBean {
+
+    private static final String DUSTBIN_FULL_PATTERN = "/api/v1/dustbins/{id}/full";
+    private static final String DUSTBIN_REQUESTS_PATTERN = "/api/v1/dustbins/{id}/requests";
+    private static final String WASTES_PATTERN = "/api/v1/wastes/**";
+    private static final String DUSTBIN_WEBSOCKET_PATTERN = "/api/v1/ws/dustbins/{id}";
+    private static final String WEBSOCKET_PATTERN = "/api/v1/ws/**";
+
+    private final RateLimiter rateLimiter;
+    private final JwtTokenProvider jwtTokenProvider;
+
+    private final AntPathMatcher pathMatcher = new AntPathMatcher();
+    private final UrlPathHelper urlPathHelper = new UrlPathHelper();
+
+    private final Counter deviceRejectedCounter;
+    private final Counter userRejectedCounter;
+
+    public RateLimitFilter(RateLimiter rateLimiter,
+                           JwtTokenProvider jwtTokenProvider,
+                           MeterRegistry meterRegistry) {
+
+        this.rateLimiter = rateLimiter;
+        this.jwtTokenProvider = jwtTokenProvider;
+        this.deviceRejectedCounter = meterRegistry.counter("security.rate.limit.rejected", "class", "device");
+        this.userRejectedCounter = meterRegistry.counter("security.rate.limit.rejected", "class", "user");
+    }
+
+    @Override
+    public void doFilter(ServletRequest req, ServletResponse res, FilterChain filterChain)
+            throws IOException, ServletException {
+
+        HttpServletRequest request = (HttpServletRequest) req;
+        HttpServletResponse response = (HttpServletResponse) res;
+        String path = urlPathHelper.getPathWithinApplication(request);
+        boolean isPost = HttpMethod.POST.matches(request.getMethod());
+
+        RateLimiter.LimitClass limitClass;
+        String key;
+
+        if (isPost && pathMatcher.match(DUSTBIN_FULL_PATTERN, path)) {
+            limitClass = RateLimiter.LimitClass.DEVICE;
+            key = "dustbin:" + pathMatcher.extractUriTemplateVariables(DUSTBIN_FULL_PATTERN, path).get("id");
+        } else if (isPost && pathMatcher.match(WASTES_PATTERN, path)) {
+            limitClass = RateLimiter.LimitClass.DEVICE;
+            String dustbinId = request.getParameter("dustbinId");
+
+            // deposits carry the dustbin ID in their body, reports in the query
+            if (dustbinId == null && request.getContentType() != null && request.getContentType().contains("json")) {
+                CachedBodyRequest cachedBodyRequest = new CachedBodyRequest(request);
+                dustbinId = getDustbinId(cachedBodyRequest.body);
+                request = cachedBodyRequest;
+                req = cachedBodyRequest;
+            }
+
+            key = dustbinId != null ? "dustbin:" + dustbinId : "address:" + request.getRemoteAddr();
+        } else if (pathMatcher.match(DUSTBIN_WEBSOCKET_PATTERN, path)) {
+            limitClass = RateLimiter.LimitClass.DEVICE;
+            key = "dustbin:" + pathMatcher.extractUriTemplateVariables(DUSTBIN_WEBSOCKET_PATTERN, path).get("id");
+        } else if (isPost && pathMatcher.match(DUSTBIN_REQUESTS_PATTERN, path)) {
+            limitClass = RateLimiter.LimitClass.USER;
+            key = getUserKey(request);
+        } else if (pathMatcher.match(WEBSOCKET_PATTERN, path)) {
+            // user and dashboard connections send their token in the query, the endpoint rejects invalid ones
+            limitClass = RateLimiter.LimitClass.USER;
+            key = getWebSocketUserKey(request);
+        } else {
+            filterChain.doFilter(req, res);
+            return;
+        }
+
+        RateLimiter.Decision decision = rateLimiter.tryAcquire(limitClass, key);
+
+        response.setHeader("X-RateLimit-Limit", String.valueOf(decision.getLimit()));
+        response.setHeader("X-RateLimit-Remaining", String.valueOf(decision.getRemaining()));
+
+        if (!decision.isAllowed()) {
+            long retryAfterSeconds = Math.max(1, (long) Math.ceil(decision.getRetryAfterNanos() / (double) TimeUnit.SECONDS.toNanos(1)));
+            response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds));
+            response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+            (limitClass == RateLimiter.LimitClass.DEVICE ? deviceRejectedCounter : userRejectedCounter).increment();
+            return;
+        }
+
+        filterChain.doFilter(req, res);
+    }
+
+    private String getWebSocketUserKey(HttpServletRequest request) {
+
+        String token = request.getParameter("token");
+
+        if (token != null && jwtTokenProvider.validateToken(token)) {
+            return "user:" + jwtTokenProvider.getAuthentication(token).getName();
+        }
+
+        return "address:" + request.getRemoteAddr();
+    }
+
+    private static String getUserKey(HttpServletRequest request) {
+
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+
+        return authentication != null && authentication.isAuthenticated() ? "user:" + authentication.getName()
+                                                                           : "address:" + request.getRemoteAddr();
+    }
+
+    // a body that is not a JSON object with a dustbin ID is left for the controller to reject
+    private static String getDustbinId(byte[] body) {
+
+        try {
+            Object value = JSON.parse(body);
+            Object dustbinId = value instanceof JSONObject ? ((JSONObject) value).get("dustbinId") : null;
+            return dustbinId instanceof Number || dustbinId instanceof String ? dustbinId.toString() : null;
+        } catch (JSONException | NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static class CachedBodyRequest extends HttpServletRequestWrapper {
+
+        private final byte[] body;
+
+        CachedBodyRequest(HttpServletRequest request) throws IOException {
+
+            super(request);
+            this.body = StreamUtils.copyToByteArray(request.getInputStream());
+        }
+
+        @Override
+        public ServletInputStream getInputStream() {
+
+            ByteArrayInputStream inputStream = new ByteArrayInputStream(body);
+
+            return new ServletInputStream() {
+
+                @Override
+                public boolean isFinished() {
+                    return inputStream.available() == 0;
+                }
+
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                // the body has been read already, so all of it is available at once
+                @Override
+                public void setReadListener(ReadListener readListener) {
+                    try {
+                        if (!isFinished()) {
+                            readListener.onDataAvailable();
+                        }
+                        if (isFinished()) {
+                            readListener.onAllDataRead();
+                        }
+                    } catch (IOException e) {
+                        readListener.onError(e);
+                    }
+                }
+
+                @Override
+                public int read() {
+                    return inputStream.read();
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) {
+                    return inputStream.read(b, off, len);
+                }
+            };
+        }
+
+        @Override
+        public BufferedReader getReader() {
+
+            Charset charset = getCharacterEncoding() == null ? StandardCharsets.UTF_8
+                                                             : Charset.forName(getCharacterEncoding());
+
+            return new BufferedReader(new InputStreamReader(getInputStream(), charset));
+        }
+    }
+}
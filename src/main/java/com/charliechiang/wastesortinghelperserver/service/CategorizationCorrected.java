@@ -0,0 +1,47 @@
+package com.charliechiang.wastesortinghelperserver.service;
+
+import com.charliechiang.wastesortinghelperserver.model.WasteCategory;
+
+// published when a deposit has been reported as incorrectly categorized
+public class CategorizationCorrected {
+
+    private final Long wasteId;
+    private final Long userId;
+    private final String username;
+    private final WasteCategory category;
+    // what the waste was worth before the report
+    private final int previousWasteCredit;
+
+    public CategorizationCorrected(Long wasteId,
+                                   Long userId,
+                                   String username,
+                                   WasteCategory category,
+                                   int previousWasteCredit) {
+
+        this.wasteId = wasteId;
+        this.userId = userId;
+        this.username = username;
+        this.category = category;
+        this.previousWasteCredit = previousWasteCredit;
+    }
+
+    public Long getWasteId() {
+        return wasteId;
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public WasteCategory getCategory() {
+        return category;
+    }
+
+    public int getPreviousWasteCredit() {
+        return previousWasteCredit;
+    }
+}
@@ -0,0 +1,110 @@
+package com.charliechiang.wastesortinghelperserver.service;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+// Sends the latest message per key to one subscriber. While the subscriber is still busy receiving, newer
+// messages for the same key replace older ones, so a slow subscriber skips intermediate states instead of
+// building up a backlog. Sends are asynchronous and one at a time, so the executor threads only pick the next
+// message and are never held up by a slow connection.
+public class CoalescingSender<K> {
+
+    private static final Log logger = LogFactory.getLog(CoalescingSender.class);
+
+    private final ConcurrentHashMap<K, String> pendingMap = new ConcurrentHashMap<>();
+    private final AtomicBoolean isScheduled = new AtomicBoolean(false);
+    private final Executor executor;
+    private final TextSink sink;
+    private volatile boolean isClosed = false;
+
+    public CoalescingSender(Executor executor, TextSink sink) {
+
+        this.executor = executor;
+        this.sink = sink;
+    }
+
+    public void offer(K key, String text) {
+
+        if (isClosed) {
+            return;
+        }
+
+        pendingMap.put(key, text);
+        schedule();
+    }
+
+    public int getPendingCount() {
+
+        return pendingMap.size();
+    }
+
+    public boolean isClosed() {
+
+        return isClosed;
+    }
+
+    public void close() {
+
+        isClosed = true;
+        pendingMap.clear();
+    }
+
+    private void schedule() {
+
+        if (isScheduled.compareAndSet(false, true)) {
+            executor.execute(this::sendNext);
+        }
+    }
+
+    // the subscriber stays scheduled until the message being sent has been sent
+    private void sendNext() {
+
+        for (Map.Entry<K, String> entry : pendingMap.entrySet()) {
+            if (isClosed) {
+                break;
+            }
+
+            // only remove the message that is being sent, a newer one may have replaced it meanwhile
+            if (pendingMap.remove(entry.getKey(), entry.getValue())) {
+                try {
+                    sink.send(entry.getValue(), this::onSent);
+                } catch (RuntimeException ex) {
+                    onSent(ex);
+                }
+                return;
+            }
+        }
+
+        isScheduled.set(false);
+
+        if (!pendingMap.isEmpty() && !isClosed) {
+            schedule();
+        }
+    }
+
+    private void onSent(Throwable failure) {
+
+        if (failure != null) {
+            logger.info("Closing subscriber after failed send: " + failure.getMessage());
+            close();
+            isScheduled.set(false);
+            return;
+        }
+
+        // not sent from here, the sink may call back on the thread that sent the message
+        executor.execute(this::sendNext);
+    }
+
+    @FunctionalInterface
+    public interface TextSink {
+
+        // onSent is called once the text has been sent, with the reason if it could not be
+        void send(String text, Consumer<Throwable> onSent);
+    }
+}
@@ -0,0 +1,42 @@
+package com.charliechiang.wastesortinghelperserver.service;
+
+import java.time.LocalDateTime;
+
+// published by CreditLedger after every committed change, delta is what the change added to the previous credit
+public class CreditChanged {
+
+    private final Long userId;
+    private final String username;
+    private final int credit;
+    private final int delta;
+    private final LocalDateTime time;
+
+    public CreditChanged(Long userId, String username, int credit, int delta, LocalDateTime time) {
+
+        this.userId = userId;
+        this.username = username;
+        this.credit = credit;
+        this.delta = delta;
+        this.time = time;
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public int getCredit() {
+        return credit;
+    }
+
+    public int getDelta() {
+        return delta;
+    }
+
+    public LocalDateTime getTime() {
+        return time;
+    }
+}
@@ -0,0 +1,353 @@
+package com.charliechiang.wastesortinghelperserver.service;
+
+import com.charliechiang.wastesortinghelperserver.model.CreditEvent;
+import com.charliechiang.wastesortinghelperserver.model.CreditEventType;
+import com.charliechiang.wastesortinghelperserver.model.CreditSnapshot;
+import com.charliechiang.wastesortinghelperserver.model.User;
+import com.charliechiang.wastesortinghelperserver.model.Waste;
+import com.charliechiang.wastesortinghelperserver.model.WasteCategory;
+import com.charliechiang.wastesortinghelperserver.repository.CreditEventRepository;
+import com.charliechiang.wastesortinghelperserver.repository.CreditEventRepository.RecordedWasteCredit;
+import com.charliechiang.wastesortinghelperserver.repository.CreditSnapshotRepository;
+import com.charliechiang.wastesortinghelperserver.repository.UserRepository;
+import com.charliechiang.wastesortinghelperserver.repository.WasteRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// Every change of a user's credit is appended to the credit_event table in the transaction that updates
+// User.credit, which remains the current credit rankings are computed from. The user_stats row is locked for
+// that transaction, so concurrent deposits and manual changes of one user wait for each other instead of overwriting
+// each other. Snapshots of active users are taken periodically, so the credit can be recomputed from a snapshot
+// and the few events after it instead of from every waste of the user. Deposits and reports reach the ledger
+// as domain events, every committed change is published as a CreditChanged event. Those the event bus gave up on
+// while the database was unreachable are recorded before the next batch, those still in the ring or not recorded
+// yet when the server stopped are made up for on startup from the latest wastes.
+@Component
+// the opening balances are read from user_stats, which has to be filled first
+@DependsOn("userTableMigration")
+public class CreditLedger implements SmartInitializingSingleton {
+
+    private static final Log logger = LogFactory.getLog(CreditLedger.class);
+
+    private static final WasteCategory[] CATEGORIES = WasteCategory.values();
+
+    private final CreditEventRepository creditEventRepository;
+    private final CreditSnapshotRepository creditSnapshotRepository;
+    private final UserRepository userRepository;
+    private final WasteRepository wasteRepository;
+    private final DomainEventBus domainEventBus;
+    private final TransactionTemplate transactionTemplate;
+    private final int reconcileWasteCount;
+
+    private final Timer creditUpdateTimer;
+    // handed back by the event bus, in the order they were published
+    private final Queue<Object> missedEvents = new ConcurrentLinkedQueue<>();
+
+    // events up to this ID are included in the snapshots of the previous run
+    private volatile long snapshotEventId = -1;
+
+    public CreditLedger(CreditEventRepository creditEventRepository,
+                        CreditSnapshotRepository creditSnapshotRepository,
+                        UserRepository userRepository,
+                        WasteRepository wasteRepository,
+                        DomainEventBus domainEventBus,
+                        PlatformTransactionManager transactionManager,
+                        @Value("${credit.reconcile.waste-count:16384}") int reconcileWasteCount,
+                        MeterRegistry meterRegistry) {
+
+        this.creditEventRepository = creditEventRepository;
+        this.creditSnapshotRepository = creditSnapshotRepository;
+        this.userRepository = userRepository;
+        this.wasteRepository = wasteRepository;
+        this.domainEventBus = domainEventBus;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.reconcileWasteCount = reconcileWasteCount;
+        this.creditUpdateTimer = meterRegistry.timer("user.credit.update");
+    }
+
+    // runs before the server accepts requests, so no event can be recorded for a user ahead of the opening one
+    // a single read-write transaction, which also keeps the lookups on the primary
+    @Override
+    public void afterSingletonsInstantiated() {
+
+        // first, a user whose only credited deposits were lost would otherwise be opened with them
+        reconcile();
+
+        int userCount = transactionTemplate.execute(transactionStatus -> {
+            List<User> users = userRepository.findAllWithoutCreditEvents();
+
+            for (User user : users) {
+                // what the credit of the user would have become on the next credit update
+                int credit = user.getCredit();
+                for (Waste waste : wasteRepository.findAllByUserAndTimeIsAfter(user, user.getTimeLastUpdatedCredit())) {
+                    credit += getWasteCredit(waste);
+                }
+
+                append(user, CreditEventType.OPENING, credit, null);
+            }
+
+            return users.size();
+        });
+
+        if (userCount > 0) {
+            logger.info("Opened the credit ledger of " + userCount + " users.");
+        }
+    }
+
+    // deposits and reports saved before the server stopped, whose events the ledger had not committed yet; they can
+    // only be among the latest wastes, the ring holds buffer-size events. Read in a read-write transaction like the
+    // opening, a replica may not have the latest wastes.
+    private void reconcile() {
+
+        List<CreditChanged> changes = transactionTemplate.execute(transactionStatus -> {
+            List<CreditChanged> appliedChanges = new ArrayList<>();
+            Long fromWasteId = creditEventRepository.findMinWasteId().orElse(null);
+
+            if (fromWasteId == null) {
+                return appliedChanges;
+            }
+
+            for (RecordedWasteCredit waste : creditEventRepository.findLatestRecordedWasteCredits(fromWasteId,
+                                                                                                 reconcileWasteCount)) {
+                WasteCategory category = waste.getCategory() == null ? null : CATEGORIES[waste.getCategory()];
+                int amount = getWasteCredit(Boolean.TRUE.equals(waste.getCorrectlyCategorized()), category)
+                             - waste.getRecordedAmount();
+
+                if (amount != 0) {
+                    CreditEventType type = waste.getEventCount() > 0 ? CreditEventType.CORRECTION
+                                           : amount > 0 ? CreditEventType.DEPOSIT : CreditEventType.PENALTY;
+                    appliedChanges.add(apply(waste.getUserId(), waste.getUsername(), type, amount, waste.getWasteId()));
+                }
+            }
+
+            return appliedChanges;
+        });
+
+        if (!changes.isEmpty()) {
+            logger.info("Recorded the credit of " + changes.size() + " wastes the ledger had missed.");
+        }
+
+        changes.forEach(domainEventBus::publish);
+    }
+
+    public static int getWasteCredit(Waste waste) {
+
+        return getWasteCredit(waste.getCorrectlyCategorized(), waste.getCategory());
+    }
+
+    public static int getWasteCredit(boolean isCorrectlyCategorized, WasteCategory category) {
+
+        if (!isCorrectlyCategorized) {
+            return -1;
+        }
+
+        return category == WasteCategory.FOOD_WASTE || category == WasteCategory.RECYCLABLE_WASTE ? 1 : 0;
+    }
+
+    // WasteDeposited and CategorizationCorrected events, a batch is committed at once and published after that
+    public void record(List<Object> events) {
+
+        recordMissed();
+
+        List<CreditChanged> changes = transactionTemplate.execute(transactionStatus -> apply(events));
+
+        changes.forEach(domainEventBus::publish);
+    }
+
+    // events the bus gave up on, kept until the database is back
+    public void abandon(List<Object> events) {
+
+        missedEvents.addAll(events);
+    }
+
+    public int getMissedCount() {
+
+        return missedEvents.size();
+    }
+
+    // one transaction each, so an event that cannot be recorded is skipped on its own; a transient error is thrown
+    // on to the event bus, which retries them with the batch that follows
+    private void recordMissed() {
+
+        Object event;
+
+        while ((event = missedEvents.peek()) != null) {
+            List<Object> events = List.of(event);
+
+            try {
+                transactionTemplate.execute(transactionStatus -> apply(events)).forEach(domainEventBus::publish);
+            } catch (RuntimeException e) {
+                if (DomainEventBus.isTransient(e)) {
+                    throw e;
+                }
+                logger.error("Could not record a missed " + event.getClass().getSimpleName()
+                             + " event, it is skipped.", e);
+            }
+
+            missedEvents.poll();
+        }
+    }
+
+    // has to run in a transaction
+    private List<CreditChanged> apply(List<Object> events) {
+
+        List<CreditChanged> appliedChanges = new ArrayList<>();
+
+        for (Object event : events) {
+            if (event instanceof WasteDeposited) {
+                WasteDeposited deposit = (WasteDeposited) event;
+                int amount = getWasteCredit(deposit.isCorrectlyCategorized(), deposit.getCategory());
+
+                if (amount != 0) {
+                    appliedChanges.add(apply(deposit.getUserId(),
+                                             deposit.getUsername(),
+                                             amount > 0 ? CreditEventType.DEPOSIT : CreditEventType.PENALTY,
+                                             amount,
+                                             deposit.getWasteId()));
+                }
+            } else if (event instanceof CategorizationCorrected) {
+                CategorizationCorrected correction = (CategorizationCorrected) event;
+                int amount = getWasteCredit(false, correction.getCategory()) - correction.getPreviousWasteCredit();
+
+                if (amount != 0) {
+                    appliedChanges.add(apply(correction.getUserId(),
+                                             correction.getUsername(),
+                                             CreditEventType.CORRECTION,
+                                             amount,
+                                             correction.getWasteId()));
+                }
+            }
+        }
+
+        return appliedChanges;
+    }
+
+    public int set(User user, int credit) {
+
+        return append(user, CreditEventType.MANUAL_SET, credit, null);
+    }
+
+    public int offset(User user, int offset) {
+
+        return append(user, CreditEventType.OFFSET, offset, null);
+    }
+
+    public List<CreditEvent> getEvents(User user, int n) {
+
+        return creditEventRepository.findAllByUserIdOrderByIdDesc(user.getId(), PageRequest.of(0, n));
+    }
+
+    // recomputes User.credit from the ledger, after the row has been repaired by hand for example
+    // isFull ignores the snapshot, for when events before it have been repaired as well
+    public int rebuild(User user, boolean isFull) {
+
+        CreditChanged change = transactionTemplate.execute(transactionStatus -> {
+            int previousCredit = userRepository.lockCreditById(user.getId());
+            CreditSnapshot snapshot =
+                    replay(user.getId(), isFull ? null : creditSnapshotRepository.findById(user.getId()).orElse(null));
+
+            creditSnapshotRepository.save(snapshot);
+            userRepository.updateCreditById(user.getId(), snapshot.getCredit(), snapshot.getTime());
+
+            return new CreditChanged(user.getId(),
+                                     user.getUsername(),
+                                     snapshot.getCredit(),
+                                     snapshot.getCredit() - previousCredit,
+                                     snapshot.getTime());
+        });
+
+        return publish(user, change);
+    }
+
+    @Scheduled(fixedDelayString = "${credit.snapshot.delay-ms:600000}")
+    public void snapshot() {
+
+        if (snapshotEventId < 0) {
+            snapshotEventId = creditSnapshotRepository.findMaxEventId().orElse(0L);
+        }
+
+        int snapshotCount = 0;
+        long lastEventId = snapshotEventId;
+
+        for (Long userId : creditEventRepository.findUserIdsByIdGreaterThan(snapshotEventId)) {
+            CreditSnapshot snapshot = transactionTemplate.execute(transactionStatus -> creditSnapshotRepository.save(
+                    replay(userId, creditSnapshotRepository.findById(userId).orElse(null))));
+
+            lastEventId = Math.max(lastEventId, snapshot.getEventId());
+            snapshotCount++;
+        }
+
+        snapshotEventId = lastEventId;
+
+        if (snapshotCount > 0) {
+            logger.info("Took credit snapshots of " + snapshotCount + " users.");
+        }
+    }
+
+    private int append(User user, CreditEventType type, int amount, Long wasteId) {
+
+        Timer.Sample sample = Timer.start();
+        try {
+            CreditChanged change = transactionTemplate.execute(
+                    transactionStatus -> apply(user.getId(), user.getUsername(), type, amount, wasteId));
+
+            return publish(user, change);
+        } finally {
+            sample.stop(creditUpdateTimer);
+        }
+    }
+
+    // has to run in a transaction
+    private CreditChanged apply(Long userId, String username, CreditEventType type, int amount, Long wasteId) {
+
+        // the event is only given its ID once the row is locked, so the events of a user are numbered in the
+        // order they were applied and replaying them by ID gives the same credit, clamping included
+        int previousCredit = userRepository.lockCreditById(userId);
+        CreditEvent event = creditEventRepository.save(new CreditEvent(userId, type, amount, wasteId));
+        int credit = event.applyTo(previousCredit);
+
+        userRepository.updateCreditById(userId, credit, event.getTime());
+
+        return new CreditChanged(userId, username, credit, credit - previousCredit, event.getTime());
+    }
+
+    private int publish(User user, CreditChanged change) {
+
+        // credit is not updatable through the entity, the copy of the caller is only brought up to date
+        user.setCredit(change.getCredit());
+        user.setTimeLastUpdatedCredit(change.getTime());
+
+        domainEventBus.publish(change);
+
+        return change.getCredit();
+    }
+
+    // from is null to replay the whole ledger of the user
+    private CreditSnapshot replay(Long userId, CreditSnapshot from) {
+
+        int credit = from == null ? 0 : from.getCredit();
+        long eventId = from == null ? 0 : from.getEventId();
+
+        for (CreditEvent event : creditEventRepository.findAllByUserIdAndIdGreaterThanOrderByIdAsc(userId, eventId)) {
+            credit = event.applyTo(credit);
+            eventId = event.getId();
+        }
+
+        return new CreditSnapshot(userId, eventId, credit);
+    }
+}
@@ -0,0 +1,428 @@
+package com.charliechiang.wastesortinghelperserver.service;
+
+import com.charliechiang.wastesortinghelperserver.model.WasteCategory;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+// Deposits are appended here before they are saved, so a deposit the dustbin has been answered for survives a
+// database outage or a crash of the server. The log is a directory of memory-mapped segments of segment-bytes each.
+// A record is the length and CRC-32C of the deposit, a state byte set once it is no longer needed, and the deposit.
+// A segment is deleted when none of its deposits is needed any more. Deposits whose save failed, and those found
+// unsaved on startup, are deferred to WasteController.replayDeposits.
+@Component
+public class DepositLog {
+
+    private static final Log logger = LogFactory.getLog(DepositLog.class);
+
+    // length, checksum, state
+    private static final int HEADER_BYTES = 9;
+    private static final int CHECKSUM_OFFSET = 4;
+    private static final int STATE_OFFSET = 8;
+    private static final byte STATE_REMOVED = 1;
+
+    private static final String SEGMENT_PREFIX = "deposits-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final Path directory;
+    private final int segmentBytes;
+
+    // by segment number, guarded by this like the rest of the state
+    private final TreeMap<Integer, Segment> segmentMap = new TreeMap<>();
+    // positions of the deposits left to the replay, oldest first
+    private final TreeSet<Long> deferredPositions = new TreeSet<>();
+    // the highest sequence number logged for each dustbin, of the records appended or found pending on startup
+    private final Map<Long, Long> maxSequenceMap = new HashMap<>();
+    private Segment activeSegment;
+    private int pendingCount;
+    private long droppedCount;
+
+    // a second server on the same directory would save the deposits twice
+    private FileChannel lockChannel;
+
+    public DepositLog(@Value("${deposit.log.dir:deposit-log}") String directory,
+                      @Value("${deposit.log.segment-bytes:8388608}") int segmentBytes) {
+
+        this.directory = Paths.get(directory);
+        this.segmentBytes = segmentBytes;
+    }
+
+    @PostConstruct
+    public synchronized void open() throws IOException {
+
+        Files.createDirectories(directory);
+
+        lockChannel = FileChannel.open(directory.resolve("lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        if (lockChannel.tryLock() == null) {
+            lockChannel.close();
+            throw new IllegalStateException("The deposit log in " + directory + " is used by another server.");
+        }
+
+        List<Path> paths;
+        try (Stream<Path> stream = Files.list(directory)) {
+            paths = stream.filter(i -> i.getFileName().toString().startsWith(SEGMENT_PREFIX)
+                                       && i.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                          .sorted()
+                          .collect(Collectors.toList());
+        }
+
+        int lastNumber = 0;
+        for (Path path : paths) {
+            String fileName = path.getFileName().toString();
+            Segment segment = mapSegment(Integer.parseInt(fileName.substring(SEGMENT_PREFIX.length(),
+                                                                             fileName.length() - SEGMENT_SUFFIX.length())),
+                                         path,
+                                         StandardOpenOption.READ,
+                                         StandardOpenOption.WRITE);
+            recover(segment);
+            lastNumber = segment.number;
+
+            if (segment.pendingCount == 0) {
+                delete(segment);
+            }
+        }
+
+        // appends never continue an old segment, whatever a crash left after its last record stays unread
+        activeSegment = createSegment(lastNumber + 1);
+
+        if (pendingCount > 0) {
+            logger.info("Found " + pendingCount + " deposits in the deposit log that have not been saved.");
+        }
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+
+        force();
+        lockChannel.close();
+    }
+
+    // returns the position of the deposit, which has to be removed once it is saved or deferred if it could not be
+    public synchronized long append(PendingDeposit deposit) throws IOException {
+
+        byte[] payload = encode(deposit);
+
+        if (HEADER_BYTES + payload.length > segmentBytes) {
+            throw new IllegalArgumentException("The deposit does not fit in a segment of the deposit log.");
+        }
+
+        if (activeSegment.writeOffset + HEADER_BYTES + payload.length > activeSegment.buffer.capacity()) {
+            Segment previousSegment = activeSegment;
+            activeSegment = createSegment(previousSegment.number + 1);
+
+            if (previousSegment.pendingCount == 0) {
+                delete(previousSegment);
+            }
+        }
+
+        MappedByteBuffer buffer = activeSegment.buffer;
+        int offset = activeSegment.writeOffset;
+
+        buffer.duplicate().position(offset + HEADER_BYTES).put(payload);
+        buffer.putInt(offset + CHECKSUM_OFFSET, checksum(ByteBuffer.wrap(payload)));
+        // the length goes last, a record cut short by a crash ends the segment instead of being read half-written
+        buffer.putInt(offset, payload.length);
+
+        activeSegment.writeOffset += HEADER_BYTES + payload.length;
+        activeSegment.pendingCount++;
+        pendingCount++;
+        recordSequence(deposit);
+
+        return getPosition(activeSegment.number, offset);
+    }
+
+    public synchronized PendingDeposit read(long position) {
+
+        Segment segment = getSegment(position);
+        int offset = getOffset(position);
+
+        byte[] payload = new byte[segment.buffer.getInt(offset)];
+        segment.buffer.duplicate().position(offset + HEADER_BYTES).get(payload);
+
+        return decode(payload);
+    }
+
+    // the deposit has been saved, or can never be
+    public synchronized void remove(long position) {
+
+        Segment segment = getSegment(position);
+
+        segment.buffer.put(getOffset(position) + STATE_OFFSET, STATE_REMOVED);
+        segment.pendingCount--;
+        pendingCount--;
+
+        if (segment.pendingCount == 0 && segment != activeSegment) {
+            delete(segment);
+        }
+    }
+
+    // the deposit can never be saved, or cannot even be read; a position whose segment is gone is only counted
+    public synchronized void discard(long position) {
+
+        droppedCount++;
+
+        if (segmentMap.containsKey((int) (position >>> 32))) {
+            remove(position);
+        }
+    }
+
+    public synchronized void defer(long position) {
+
+        deferredPositions.add(position);
+    }
+
+    // the oldest deferred deposit, which is no longer deferred, or null
+    public synchronized Long pollDeferred() {
+
+        return deferredPositions.pollFirst();
+    }
+
+    public synchronized boolean hasDeferred() {
+
+        return !deferredPositions.isEmpty();
+    }
+
+    // appends only go to the page cache, which survives a crash of the server but not of the machine
+    public void force() {
+
+        List<MappedByteBuffer> buffers = new ArrayList<>();
+
+        synchronized (this) {
+            for (Segment segment : segmentMap.values()) {
+                buffers.add(segment.buffer);
+            }
+        }
+
+        for (MappedByteBuffer buffer : buffers) {
+            buffer.force();
+        }
+    }
+
+    // the deposits saved before are found in the waste table, null if the dustbin has no deposit in the log
+    public synchronized Long getMaxSequence(Long dustbinId) {
+
+        return maxSequenceMap.get(dustbinId);
+    }
+
+    public synchronized int getPendingCount() {
+
+        return pendingCount;
+    }
+
+    public synchronized long getDroppedCount() {
+
+        return droppedCount;
+    }
+
+    public synchronized int getDeferredCount() {
+
+        return deferredPositions.size();
+    }
+
+    public synchronized int getSegmentCount() {
+
+        return segmentMap.size();
+    }
+
+    private void recover(Segment segment) {
+
+        MappedByteBuffer buffer = segment.buffer;
+        int offset = 0;
+
+        while (offset + HEADER_BYTES <= buffer.capacity()) {
+            int length = buffer.getInt(offset);
+
+            if (length <= 0 || length > buffer.capacity() - offset - HEADER_BYTES) {
+                break;
+            }
+
+            if (buffer.getInt(offset + CHECKSUM_OFFSET)
+                != checksum(buffer.duplicate().position(offset + HEADER_BYTES).limit(offset + HEADER_BYTES + length))) {
+                logger.warn("Segment " + segment.path + " of the deposit log is damaged at offset " + offset
+                            + ", the deposits after it are skipped.");
+                break;
+            }
+
+            if (buffer.get(offset + STATE_OFFSET) != STATE_REMOVED) {
+                deferredPositions.add(getPosition(segment.number, offset));
+                segment.pendingCount++;
+                pendingCount++;
+
+                byte[] payload = new byte[length];
+                buffer.duplicate().position(offset + HEADER_BYTES).get(payload);
+                try {
+                    recordSequence(decode(payload));
+                } catch (IllegalArgumentException e) {
+                    // left to the replay, which drops it
+                }
+            }
+
+            offset += HEADER_BYTES + length;
+        }
+
+        segment.writeOffset = offset;
+    }
+
+    private void recordSequence(PendingDeposit deposit) {
+
+        if (deposit.getSequence() != null) {
+            maxSequenceMap.merge(deposit.getDustbinId(), deposit.getSequence(), Math::max);
+        }
+    }
+
+    private Segment createSegment(int number) throws IOException {
+
+        return mapSegment(number,
+                          directory.resolve(String.format("%s%010d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX)),
+                          StandardOpenOption.CREATE_NEW,
+                          StandardOpenOption.READ,
+                          StandardOpenOption.WRITE);
+    }
+
+    private Segment mapSegment(int number, Path path, StandardOpenOption... options) throws IOException {
+
+        try (FileChannel channel = FileChannel.open(path, options)) {
+            // a new file is extended to segment-bytes of zeros, which read as the end of the segment
+            long size = channel.size() == 0 ? segmentBytes : channel.size();
+            Segment segment = new Segment(number, path, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+
+            segmentMap.put(number, segment);
+
+            return segment;
+        }
+    }
+
+    private void delete(Segment segment) {
+
+        segmentMap.remove(segment.number);
+
+        // the mapping itself is released when the buffer is collected
+        try {
+            Files.deleteIfExists(segment.path);
+        } catch (IOException e) {
+            logger.warn("Could not delete segment " + segment.path + " of the deposit log: " + e.getMessage());
+        }
+    }
+
+    private Segment getSegment(long position) {
+
+        Segment segment = segmentMap.get((int) (position >>> 32));
+
+        if (segment == null) {
+            throw new IllegalArgumentException("There is no deposit at position " + position + " of the deposit log.");
+        }
+
+        return segment;
+    }
+
+    private static long getPosition(int segmentNumber, int offset) {
+
+        return (long) segmentNumber << 32 | offset;
+    }
+
+    private static int getOffset(long position) {
+
+        return (int) position;
+    }
+
+    private static int checksum(ByteBuffer bytes) {
+
+        CRC32C crc = new CRC32C();
+        crc.update(bytes);
+
+        return (int) crc.getValue();
+    }
+
+    private static byte[] encode(PendingDeposit deposit) throws IOException {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            output.writeUTF(deposit.getUsername());
+            output.writeLong(deposit.getDustbinId());
+            output.writeBoolean(deposit.getWeight() != null);
+            output.writeDouble(deposit.getWeight() == null ? 0 : deposit.getWeight());
+            output.writeUTF(deposit.getCategory() == null ? "" : deposit.getCategory().name());
+            output.writeLong(deposit.getTime().toEpochSecond(ZoneOffset.UTC));
+            output.writeInt(deposit.getTime().getNano());
+            // fields added later go last, records written before them end here
+            output.writeUTF(deposit.getDepositKey() == null ? "" : deposit.getDepositKey());
+            output.writeBoolean(deposit.getSequence() != null);
+            output.writeLong(deposit.getSequence() == null ? 0 : deposit.getSequence());
+        }
+
+        return bytes.toByteArray();
+    }
+
+    private static PendingDeposit decode(byte[] payload) {
+
+        try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(payload))) {
+            String username = input.readUTF();
+            long dustbinId = input.readLong();
+            boolean hasWeight = input.readBoolean();
+            double weight = input.readDouble();
+            String category = input.readUTF();
+            long epochSecond = input.readLong();
+            int nano = input.readInt();
+            String depositKey = input.available() > 0 ? input.readUTF() : "";
+            boolean hasSequence = input.available() > 0 && input.readBoolean();
+            long sequence = hasSequence ? input.readLong() : 0;
+
+            return new PendingDeposit(depositKey.isEmpty() ? null : depositKey,
+                                      username,
+                                      dustbinId,
+                                      hasSequence ? sequence : null,
+                                      hasWeight ? weight : null,
+                                      category.isEmpty() ? null : WasteCategory.valueOf(category),
+                                      LocalDateTime.ofEpochSecond(epochSecond, nano, ZoneOffset.UTC));
+        } catch (IOException e) {
+            // cannot happen to a record that passed its checksum, unless it was written by an incompatible version
+            throw new IllegalArgumentException("A deposit in the deposit log cannot be read.", e);
+        }
+    }
+
+    private static class Segment {
+
+        private final int number;
+        private final Path path;
+        private final MappedByteBuffer buffer;
+        // the end of the last record
+        private int writeOffset;
+        // records that have not been removed
+        private int pendingCount;
+
+        Segment(int number, Path path, MappedByteBuffer buffer) {
+
+            this.number = number;
+            this.path = path;
+            this.buffer = buffer;
+        }
+    }
+}
@@ -0,0 +1,515 @@
+package com.charliechiang.wastesortinghelperserver.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.CannotCreateTransactionException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+// Hands the domain events (WasteDeposited, CategorizationCorrected, CreditChanged, DustbinStatusChanged) from the
+// request that caused them to the consumers subscribed to them, each on its own thread, so a request only waits for
+// what it has to answer with and a new consumer is subscribed in DomainEventConfig instead of being called from the
+// controllers. Events are put in a ring of buffer-size slots that the consumers read in batches of up to batch-size.
+// Publishers wait for a BLOCK consumer a whole ring behind, a DROP consumer is skipped ahead and loses the events.
+// A consumer that publishes never waits, it could be waiting for itself; what does not fit in the ring is held in
+// order and published by the consumer between its batches.
+@Component
+public class DomainEventBus implements SmartLifecycle {
+
+    private static final Log logger = LogFactory.getLog(DomainEventBus.class);
+
+    // how long an idle consumer sleeps between checks, publishers wake it up before that
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    // how long a publisher waits for a BLOCK consumer before checking again
+    private static final long PUBLISHER_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    // a batch that failed on a transient database error is retried after this, doubled on each failure up to the max
+    private static final long RETRY_MIN_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long RETRY_MAX_DELAY_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    public enum OverflowPolicy {
+        BLOCK,
+        DROP
+    }
+
+    // a batch that throws is handed over again one event at a time, so a batch should be applied atomically; one that
+    // throws a transient database error is handed over again as a whole, for up to retry-timeout-ms of failures in a
+    // row, and then to the abandoned handler of the consumer
+    public interface BatchHandler {
+
+        void onEvents(List<Object> events);
+    }
+
+    private final AtomicReferenceArray<Slot> slots;
+    private final int mask;
+    private final int batchSize;
+    private final long drainTimeoutNanos;
+    private final long retryTimeoutNanos;
+    private final MeterRegistry meterRegistry;
+
+    // the sequence the next event is published at
+    private final AtomicLong nextSequence = new AtomicLong();
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    private final Counter publisherWaitCounter;
+    private final ThreadLocal<Subscriber> currentSubscriber = new ThreadLocal<>();
+
+    // the lowest sequence a BLOCK consumer has not read yet, as last seen by a publisher
+    private volatile long gatingSequence;
+    private volatile boolean isRunning;
+    private volatile boolean isStopped;
+
+    public DomainEventBus(@Value("${domain.events.buffer-size:8192}") int bufferSize,
+                          @Value("${domain.events.batch-size:256}") int batchSize,
+                          @Value("${domain.events.drain-timeout-ms:5000}") long drainTimeoutMillis,
+                          @Value("${domain.events.retry-timeout-ms:30000}") long retryTimeoutMillis,
+                          MeterRegistry meterRegistry) {
+
+        if (Integer.bitCount(bufferSize) != 1) {
+            throw new IllegalArgumentException("domain.events.buffer-size has to be a power of two.");
+        }
+
+        this.slots = new AtomicReferenceArray<>(bufferSize);
+        this.mask = bufferSize - 1;
+        this.batchSize = batchSize;
+        this.drainTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(drainTimeoutMillis);
+        this.retryTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(retryTimeoutMillis);
+        this.meterRegistry = meterRegistry;
+        this.publisherWaitCounter = Counter.builder("domain.events.publisher.waits")
+                                           .description("Events whose publisher had to wait for a BLOCK consumer")
+                                           .register(meterRegistry);
+    }
+
+    // the consumer sees the events published from now on whose class is one of eventTypes
+    public void subscribe(String name,
+                          OverflowPolicy policy,
+                          BatchHandler handler,
+                          Class<?>... eventTypes) {
+
+        subscribe(name, policy, handler, null, eventTypes);
+    }
+
+    // abandonedHandler is given the batches the consumer gave up retrying, to make up for them once the database is
+    // back; without one they are skipped
+    public synchronized void subscribe(String name,
+                                       OverflowPolicy policy,
+                                       BatchHandler handler,
+                                       BatchHandler abandonedHandler,
+                                       Class<?>... eventTypes) {
+
+        Subscriber subscriber =
+                new Subscriber(name, policy, handler, abandonedHandler, Set.of(eventTypes), nextSequence.get());
+
+        Gauge.builder("domain.events.lag", subscriber, i -> nextSequence.get() - i.sequence)
+             .description("Events published that the consumer has not handled yet")
+             .tag("consumer", name)
+             .register(meterRegistry);
+
+        subscribers.add(subscriber);
+        gatingSequence = getMinimumBlockingSequence();
+        // consumers run as soon as they subscribe, events can be published before the context has been refreshed
+        subscriber.thread.start();
+    }
+
+    // takes a sequence and a slot, so it does not wait unless a BLOCK consumer is a whole ring behind
+    public void publish(Object event) {
+
+        if (isStopped) {
+            return;
+        }
+
+        Subscriber subscriber = currentSubscriber.get();
+        if (subscriber != null) {
+            if (!subscriber.heldEvents.isEmpty() || !tryPublish(event)) {
+                subscriber.heldEvents.add(event);
+            }
+            return;
+        }
+
+        long sequence = nextSequence.getAndIncrement();
+        long wrapSequence = sequence - slots.length();
+
+        if (wrapSequence >= gatingSequence) {
+            awaitBlockingSubscribers(wrapSequence);
+        }
+
+        put(sequence, event);
+    }
+
+    public long getPublishedCount() {
+
+        return nextSequence.get();
+    }
+
+    // only takes a sequence if its slot has been read by every BLOCK consumer
+    private boolean tryPublish(Object event) {
+
+        long sequence;
+
+        do {
+            sequence = nextSequence.get();
+            long wrapSequence = sequence - slots.length();
+
+            if (wrapSequence >= gatingSequence) {
+                long minimumSequence = getMinimumBlockingSequence();
+                gatingSequence = minimumSequence;
+
+                if (wrapSequence >= minimumSequence) {
+                    return false;
+                }
+            }
+        } while (!nextSequence.compareAndSet(sequence, sequence + 1));
+
+        put(sequence, event);
+
+        return true;
+    }
+
+    private void put(long sequence, Object event) {
+
+        int index = (int) sequence & mask;
+        Slot slot = new Slot(sequence, event);
+        Slot previousSlot;
+
+        do {
+            previousSlot = slots.get(index);
+
+            // only DROP consumers let a later publisher lap this one, they have skipped the event already
+            if (previousSlot != null && previousSlot.sequence > sequence) {
+                return;
+            }
+        } while (!slots.compareAndSet(index, previousSlot, slot));
+
+        for (Subscriber subscriber : subscribers) {
+            if (subscriber.isSleeping) {
+                LockSupport.unpark(subscriber.thread);
+            }
+        }
+    }
+
+    @Override
+    public void start() {
+
+        isRunning = true;
+    }
+
+    // stopped after the web server, which has stopped taking requests and deposits by then
+    @Override
+    public int getPhase() {
+
+        return 0;
+    }
+
+    @Override
+    public void stop() {
+
+        long deadline = System.nanoTime() + drainTimeoutNanos;
+
+        // consumers may still publish while they drain, the ledger publishes the credit changes of the deposits
+        while (subscribers.stream().anyMatch(i -> i.sequence < nextSequence.get() || !i.heldEvents.isEmpty())) {
+            if (System.nanoTime() - deadline > 0) {
+                logger.warn("Stopped the domain event consumers before they handled every event.");
+                break;
+            }
+
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+
+        isStopped = true;
+
+        for (Subscriber subscriber : subscribers) {
+            subscriber.isClosed = true;
+            LockSupport.unpark(subscriber.thread);
+        }
+
+        for (Subscriber subscriber : subscribers) {
+            try {
+                subscriber.thread.join(TimeUnit.NANOSECONDS.toMillis(drainTimeoutNanos));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        isRunning = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+
+        return isRunning;
+    }
+
+    private void awaitBlockingSubscribers(long wrapSequence) {
+
+        long minimumSequence;
+        boolean hasWaited = false;
+
+        while (wrapSequence >= (minimumSequence = getMinimumBlockingSequence()) && !isStopped) {
+            if (!hasWaited) {
+                publisherWaitCounter.increment();
+                hasWaited = true;
+            }
+
+            LockSupport.parkNanos(PUBLISHER_PARK_NANOS);
+        }
+
+        gatingSequence = minimumSequence;
+    }
+
+    private long getMinimumBlockingSequence() {
+
+        long minimumSequence = Long.MAX_VALUE;
+
+        for (Subscriber subscriber : subscribers) {
+            if (subscriber.policy == OverflowPolicy.BLOCK) {
+                minimumSequence = Math.min(minimumSequence, subscriber.sequence);
+            }
+        }
+
+        return minimumSequence;
+    }
+
+    private static class Slot {
+
+        private final long sequence;
+        private final Object event;
+
+        Slot(long sequence, Object event) {
+
+            this.sequence = sequence;
+            this.event = event;
+        }
+    }
+
+    private class Subscriber implements Runnable {
+
+        private final String name;
+        private final OverflowPolicy policy;
+        private final BatchHandler handler;
+        private final BatchHandler abandonedHandler;
+        private final Set<Class<?>> eventTypes;
+        private final Thread thread;
+        private final Counter droppedCounter;
+        private final Counter failedCounter;
+        private final Counter retriedCounter;
+        private final Counter abandonedCounter;
+        // published by the consumer while the ring was full, only taken from by the consumer
+        private final Queue<Object> heldEvents = new ConcurrentLinkedQueue<>();
+
+        // the next sequence to read, everything before it has been handled
+        private volatile long sequence;
+        private volatile boolean isSleeping;
+        private volatile boolean isClosed;
+        // when the batches began failing on transient errors, 0 while they succeed; only used by the consumer
+        private long failingSinceNanos;
+
+        Subscriber(String name,
+                   OverflowPolicy policy,
+                   BatchHandler handler,
+                   BatchHandler abandonedHandler,
+                   Set<Class<?>> eventTypes,
+                   long sequence) {
+
+            this.name = name;
+            this.policy = policy;
+            this.handler = handler;
+            this.abandonedHandler = abandonedHandler;
+            this.eventTypes = eventTypes;
+            this.sequence = sequence;
+            this.thread = new Thread(this, "domain-events-" + name);
+            this.thread.setDaemon(true);
+            this.droppedCounter = Counter.builder("domain.events.dropped")
+                                         .description("Events a DROP consumer was lapped on")
+                                         .tag("consumer", name)
+                                         .register(meterRegistry);
+            this.failedCounter = Counter.builder("domain.events.failed")
+                                        .description("Events the consumer threw on and skipped")
+                                        .tag("consumer", name)
+                                        .register(meterRegistry);
+            this.retriedCounter = Counter.builder("domain.events.retries")
+                                         .description("Batches handed to the consumer again after a transient error")
+                                         .tag("consumer", name)
+                                         .register(meterRegistry);
+            this.abandonedCounter = Counter.builder("domain.events.abandoned")
+                                           .description("Events the consumer gave up retrying after transient errors")
+                                           .tag("consumer", name)
+                                           .register(meterRegistry);
+        }
+
+        @Override
+        public void run() {
+
+            List<Object> batch = new ArrayList<>(batchSize);
+            long next = sequence;
+
+            currentSubscriber.set(this);
+
+            while (!isClosed) {
+                Slot slot = slots.get((int) next & mask);
+
+                if (slot == null || slot.sequence < next) {
+                    if (next > sequence) {
+                        handle(batch);
+                        batch.clear();
+                        sequence = next;
+                        publishHeldEvents();
+                        continue;
+                    }
+
+                    // another BLOCK consumer is a whole ring behind, it is checked on again shortly
+                    if (!heldEvents.isEmpty()) {
+                        publishHeldEvents();
+                        LockSupport.parkNanos(this, PUBLISHER_PARK_NANOS);
+                        continue;
+                    }
+
+                    // a publisher checks the flag after its slot is set, either it wakes the consumer up or the
+                    // consumer sees the slot
+                    isSleeping = true;
+                    slot = slots.get((int) next & mask);
+                    if (slot == null || slot.sequence < next) {
+                        LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                    }
+                    isSleeping = false;
+                    continue;
+                }
+
+                if (slot.sequence > next) {
+                    // lapped, the oldest events still in the ring are those after the one in the slot
+                    long skippedTo = slot.sequence - slots.length() + 1;
+                    droppedCounter.increment(skippedTo - next);
+                    next = skippedTo;
+                    continue;
+                }
+
+                if (eventTypes.contains(slot.event.getClass())) {
+                    batch.add(slot.event);
+                }
+                next++;
+
+                // skipped events count as well, publishers may be waiting for the slots
+                if (next - sequence >= batchSize) {
+                    handle(batch);
+                    batch.clear();
+                    sequence = next;
+                    publishHeldEvents();
+                }
+            }
+        }
+
+        private void publishHeldEvents() {
+
+            Object event;
+
+            while ((event = heldEvents.peek()) != null && tryPublish(event)) {
+                heldEvents.poll();
+            }
+        }
+
+        private void handle(List<Object> batch) {
+
+            if (batch.isEmpty()) {
+                return;
+            }
+
+            long retryDelayNanos = RETRY_MIN_DELAY_NANOS;
+
+            while (true) {
+                try {
+                    handler.onEvents(batch);
+                    failingSinceNanos = 0;
+                    return;
+                } catch (RuntimeException e) {
+                    if (!isTransient(e)) {
+                        handleFailed(batch, e);
+                        return;
+                    }
+
+                    if (isClosed) {
+                        logger.error("Consumer " + name + " was stopped before it could handle " + batch.size()
+                                     + " events.", e);
+                        return;
+                    }
+
+                    long now = System.nanoTime();
+                    if (failingSinceNanos == 0) {
+                        failingSinceNanos = now;
+                    }
+
+                    // publishers wait for a BLOCK consumer meanwhile, but not for longer than the retry timeout; the
+                    // batches after it get a single try until one succeeds
+                    long remainingNanos = failingSinceNanos + retryTimeoutNanos - now;
+                    if (remainingNanos <= 0) {
+                        abandon(batch, e);
+                        return;
+                    }
+
+                    retriedCounter.increment();
+                    logger.warn("Consumer " + name + " failed on a transient error, retrying in "
+                                + TimeUnit.NANOSECONDS.toMillis(retryDelayNanos) + " ms: " + e.getMessage());
+                    LockSupport.parkNanos(this, Math.min(retryDelayNanos, remainingNanos));
+                    retryDelayNanos = Math.min(retryDelayNanos * 2, RETRY_MAX_DELAY_NANOS);
+                }
+            }
+        }
+
+        private void abandon(List<Object> batch, RuntimeException e) {
+
+            abandonedCounter.increment(batch.size());
+
+            if (abandonedHandler == null) {
+                logger.error("Consumer " + name + " gave up on " + batch.size()
+                             + " events after transient errors, they are skipped: " + e.getMessage());
+                return;
+            }
+
+            logger.warn("Consumer " + name + " gave up on " + batch.size()
+                        + " events after transient errors, they are handed over to be made up for: " + e.getMessage());
+            try {
+                abandonedHandler.onEvents(batch);
+            } catch (RuntimeException ex) {
+                logger.error("Consumer " + name + " could not take back " + batch.size() + " events.", ex);
+            }
+        }
+
+        private void handleFailed(List<Object> batch, RuntimeException e) {
+
+            if (batch.size() > 1) {
+                for (Object event : batch) {
+                    handle(List.of(event));
+                }
+                return;
+            }
+
+            failedCounter.increment();
+            logger.error("Consumer " + name + " could not handle a " + batch.get(0).getClass().getSimpleName()
+                         + " event, it is skipped.", e);
+        }
+    }
+
+    // the database is unreachable or a lock could not be taken, the same batch may well succeed later
+    public static boolean isTransient(RuntimeException e) {
+
+        return e instanceof TransientDataAccessException
+               || e instanceof RecoverableDataAccessException
+               || e instanceof DataAccessResourceFailureException
+               || e instanceof CannotCreateTransactionException;
+    }
+}
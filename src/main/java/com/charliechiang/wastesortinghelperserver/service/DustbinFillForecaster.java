@@ -0,0 +1,149 @@
+package com.charliechiang.wastesortinghelperserver.service;
+
+import com.charliechiang.wastesortinghelperserver.model.WasteCategory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Per dustbin and category, keeps the weight deposited since the dustbin was last emptied and an exponentially
+// weighted arrival rate. Both are updated in O(1) per deposit, so forecasts never scan the waste table.
+@Component
+public class DustbinFillForecaster {
+
+    private static final WasteCategory[] CATEGORIES = WasteCategory.values();
+
+    private final ConcurrentHashMap<Long, CategoryState[]> stateMap = new ConcurrentHashMap<>();
+
+    // deposits older than this contribute 1/e of their weight to the arrival rate
+    private final double smoothingWindowSeconds;
+
+    public DustbinFillForecaster(@Value("${dustbin.forecast.smoothing-window-seconds:86400}") double smoothingWindowSeconds) {
+
+        this.smoothingWindowSeconds = smoothingWindowSeconds;
+    }
+
+    // decayed from the time of the deposit, so deposits saved late from the deposit log do not count as recent ones
+    public void recordDeposit(Long dustbinId, WasteCategory category, Double weight, LocalDateTime time) {
+
+        if (category == null || weight == null || weight <= 0) {
+            return;
+        }
+
+        CategoryState state = getStates(dustbinId)[category.ordinal()];
+        long depositTime = time == null
+                           ? System.currentTimeMillis()
+                           : time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+
+        synchronized (state) {
+            if (depositTime >= state.lastDepositTime) {
+                state.decayedWeight = decay(state, depositTime) + weight;
+                state.lastDepositTime = depositTime;
+            } else {
+                double elapsedSeconds = (state.lastDepositTime - depositTime) / 1000.0;
+                state.decayedWeight += weight * Math.exp(-elapsedSeconds / smoothingWindowSeconds);
+            }
+            state.accumulatedWeight += weight;
+        }
+    }
+
+    public void updateStatus(Long dustbinId, DustbinStatus status) {
+
+        CategoryState[] states = getStates(dustbinId);
+
+        updateFull(states[WasteCategory.HAZARDOUS_WASTE.ordinal()], status.getHazardousWasteFull());
+        updateFull(states[WasteCategory.RECYCLABLE_WASTE.ordinal()], status.getRecyclableWasteFull());
+        updateFull(states[WasteCategory.FOOD_WASTE.ordinal()], status.getFoodWasteFull());
+        updateFull(states[WasteCategory.RESIDUAL_WASTE.ordinal()], status.getResidualWasteFull());
+    }
+
+    public void remove(Long dustbinId) {
+
+        stateMap.remove(dustbinId);
+    }
+
+    public DustbinForecast forecast(Long dustbinId, double capacity) {
+
+        CategoryState[] states = stateMap.get(dustbinId);
+        List<DustbinForecast.CategoryForecast> categoryForecasts = new ArrayList<>(CATEGORIES.length);
+        long now = System.currentTimeMillis();
+
+        for (WasteCategory category : CATEGORIES) {
+            if (states == null) {
+                categoryForecasts.add(new DustbinForecast.CategoryForecast(category, 0.0, 0.0, null));
+                continue;
+            }
+
+            CategoryState state = states[category.ordinal()];
+
+            synchronized (state) {
+                // kg per second
+                double rate = decay(state, now) / smoothingWindowSeconds;
+                Long secondsToFull;
+
+                if (state.full) {
+                    secondsToFull = 0L;
+                } else if (rate > 0) {
+                    secondsToFull = (long) (Math.max(0.0, capacity - state.accumulatedWeight) / rate);
+                } else {
+                    secondsToFull = null;
+                }
+
+                categoryForecasts.add(new DustbinForecast.CategoryForecast(category,
+                                                                           state.accumulatedWeight,
+                                                                           rate * 3600,
+                                                                           secondsToFull));
+            }
+        }
+
+        return new DustbinForecast(dustbinId, categoryForecasts);
+    }
+
+    private CategoryState[] getStates(Long dustbinId) {
+
+        return stateMap.computeIfAbsent(dustbinId, id -> {
+            CategoryState[] states = new CategoryState[CATEGORIES.length];
+            for (int i = 0; i < states.length; i++) {
+                states[i] = new CategoryState();
+            }
+            return states;
+        });
+    }
+
+    private static void updateFull(CategoryState state, Boolean full) {
+
+        boolean isFull = Boolean.TRUE.equals(full);
+
+        synchronized (state) {
+            // a dustbin that reports not-full after being full has been emptied
+            if (state.full && !isFull) {
+                state.accumulatedWeight = 0.0;
+            }
+            state.full = isFull;
+        }
+    }
+
+    private double decay(CategoryState state, long now) {
+
+        if (state.lastDepositTime == 0) {
+            return 0.0;
+        }
+
+        double elapsedSeconds = Math.max(0, now - state.lastDepositTime) / 1000.0;
+
+        return state.decayedWeight * Math.exp(-elapsedSeconds / smoothingWindowSeconds);
+    }
+
+    private static class CategoryState {
+
+        private double accumulatedWeight;
+        // exponentially decayed sum of deposited weight as of lastDepositTime
+        private double decayedWeight;
+        private long lastDepositTime;
+        private boolean full;
+    }
+}
@@ -0,0 +1,64 @@
+package com.charliechiang.wastesortinghelperserver.service;
+
+import com.charliechiang.wastesortinghelperserver.model.WasteCategory;
+
+import java.util.List;
+
+public class DustbinForecast {
+
+    private final Long dustbinId;
+    private final List<CategoryForecast> categories;
+
+    public DustbinForecast(Long dustbinId,
+                           List<CategoryForecast> categories) {
+
+        this.dustbinId = dustbinId;
+        this.categories = categories;
+    }
+
+    public Long getDustbinId() {
+        return dustbinId;
+    }
+
+    public List<CategoryForecast> getCategories() {
+        return categories;
+    }
+
+    public static class CategoryForecast {
+
+        private final WasteCategory category;
+        // kg since the dustbin was last emptied
+        private final Double accumulatedWeight;
+        // kg per hour
+        private final Double arrivalRate;
+        // null if nothing has been deposited recently
+        private final Long secondsToFull;
+
+        public CategoryForecast(WasteCategory category,
+                                Double accumulatedWeight,
+                                Double arrivalRate,
+                                Long secondsToFull) {
+
+            this.category = category;
+            this.accumulatedWeight = accumulatedWeight;
+            this.arrivalRate = arrivalRate;
+            this.secondsToFull = secondsToFull;
+        }
+
+        public WasteCategory getCategory() {
+            return category;
+        }
+
+        public Double getAccumulatedWeight() {
+            return accumulatedWeight;
+        }
+
+        public Double getArrivalRate() {
+            return arrivalRate;
+        }
+
+        public Long getSecondsToFull() {
+            return secondsToFull;
+        }
+    }
+}
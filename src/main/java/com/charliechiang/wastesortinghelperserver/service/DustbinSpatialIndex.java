@@ -0,0 +1,313 @@
+package com.charliechiang.wastesortinghelperserver.service;
+
+import com.charliechiang.wastesortinghelperserver.model.Dustbin;
+import com.charliechiang.wastesortinghelperserver.model.WasteCategory;
+import com.charliechiang.wastesortinghelperserver.repository.DustbinRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Uniform latitude/longitude grid over all dustbins. A k-nearest query scans rings of cells around the query
+// point and stops as soon as no unscanned cell can contain a closer dustbin. Once the rings have covered more cells
+// than there are occupied ones, the occupied cells left are scanned directly instead.
+@Component
+public class DustbinSpatialIndex {
+
+    private static final double METRES_PER_DEGREE = 111_320.0;
+
+    private final DustbinRepository dustbinRepository;
+    private final double cellSize;
+
+    private final ConcurrentHashMap<Long, Entry> entryMap = new ConcurrentHashMap<>();
+    // cells are replaced as a whole on writes, so queries never see a cell being modified
+    private final ConcurrentHashMap<Long, Entry[]> cellMap = new ConcurrentHashMap<>();
+
+    private volatile int minCellX = Integer.MAX_VALUE;
+    private volatile int maxCellX = Integer.MIN_VALUE;
+    private volatile int minCellY = Integer.MAX_VALUE;
+    private volatile int maxCellY = Integer.MIN_VALUE;
+
+    public DustbinSpatialIndex(DustbinRepository dustbinRepository,
+                               @Value("${dustbin.spatial-index.cell-size-degrees:0.01}") double cellSize) {
+
+        this.dustbinRepository = dustbinRepository;
+        this.cellSize = cellSize;
+    }
+
+    @PostConstruct
+    public void init() {
+
+        dustbinRepository.findAll().forEach(this::put);
+    }
+
+    public void put(Dustbin dustbin) {
+
+        remove(dustbin.getId());
+
+        if (dustbin.getLatitude() == null || dustbin.getLongitude() == null) {
+            return;
+        }
+
+        Entry entry = new Entry(dustbin.getId(),
+                                dustbin.getName(),
+                                dustbin.getLatitude(),
+                                dustbin.getLongitude(),
+                                toCellX(dustbin.getLongitude()),
+                                toCellY(dustbin.getLatitude()));
+        entry.fullMask = toFullMask(DustbinStatus.of(dustbin));
+
+        synchronized (this) {
+            cellMap.compute(toCellKey(entry.cellX, entry.cellY), (key, cell) -> {
+                if (cell == null) {
+                    return new Entry[]{entry};
+                }
+                Entry[] newCell = Arrays.copyOf(cell, cell.length + 1);
+                newCell[cell.length] = entry;
+                return newCell;
+            });
+            entryMap.put(entry.id, entry);
+
+            minCellX = Math.min(minCellX, entry.cellX);
+            maxCellX = Math.max(maxCellX, entry.cellX);
+            minCellY = Math.min(minCellY, entry.cellY);
+            maxCellY = Math.max(maxCellY, entry.cellY);
+        }
+    }
+
+    public synchronized void remove(Long id) {
+
+        Entry entry = entryMap.remove(id);
+
+        if (entry == null) {
+            return;
+        }
+
+        cellMap.computeIfPresent(toCellKey(entry.cellX, entry.cellY), (key, cell) -> {
+            Entry[] newCell = Arrays.stream(cell).filter(i -> !i.id.equals(id)).toArray(Entry[]::new);
+            return newCell.length == 0 ? null : newCell;
+        });
+    }
+
+    public void updateStatus(Long id, DustbinStatus status) {
+
+        Entry entry = entryMap.get(id);
+
+        if (entry != null) {
+            entry.fullMask = toFullMask(status);
+        }
+    }
+
+    // category == null matches every dustbin regardless of whether it is full
+    public List<NearbyDustbin> findNearest(double latitude, double longitude, WasteCategory category, int n) {
+
+        if (n <= 0 || entryMap.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        int fullBit = category == null ? 0 : 1 << category.ordinal();
+        double metresPerLongitudeDegree = METRES_PER_DEGREE * Math.cos(Math.toRadians(latitude));
+        // the shortest side of a cell bounds the distance to cells in the next ring
+        double minCellMetres = cellSize * Math.min(METRES_PER_DEGREE, metresPerLongitudeDegree);
+
+        PriorityQueue<Candidate> nearest = new PriorityQueue<>(Comparator.comparingDouble((Candidate c) -> c.squaredDistance)
+                                                                         .reversed());
+
+        int minX = minCellX;
+        int maxX = maxCellX;
+        int minY = minCellY;
+        int maxY = maxCellY;
+
+        int centerX = toCellX(longitude);
+        int centerY = toCellY(latitude);
+        int maxRing = Math.max(Math.max(centerX - minX, maxX - centerX),
+                               Math.max(centerY - minY, maxY - centerY));
+
+        // a query far away from the dustbins, or for a category that every dustbin near it is full of, would otherwise
+        // visit every empty cell of the bounding box
+        int occupiedCellCount = cellMap.size();
+        long scannedCellCount = 0;
+
+        for (int ring = 0; ring <= maxRing; ring++) {
+            if (scannedCellCount > occupiedCellCount) {
+                scanCellsOutside(ring - 1, centerX, centerY, latitude, longitude, metresPerLongitudeDegree, fullBit, n,
+                                 nearest);
+                break;
+            }
+
+            // only the border of the square is new in this ring, clipped to the cells that can hold dustbins
+            int left = centerX - ring;
+            int right = centerX + ring;
+            int bottom = centerY - ring;
+            int top = centerY + ring;
+
+            for (int x = Math.max(left, minX); x <= Math.min(right, maxX); x++) {
+                if (bottom >= minY && bottom <= maxY) {
+                    scanCell(x, bottom, latitude, longitude, metresPerLongitudeDegree, fullBit, n, nearest);
+                }
+                if (ring != 0 && top >= minY && top <= maxY) {
+                    scanCell(x, top, latitude, longitude, metresPerLongitudeDegree, fullBit, n, nearest);
+                }
+            }
+            for (int y = Math.max(bottom + 1, minY); y <= Math.min(top - 1, maxY); y++) {
+                if (left >= minX && left <= maxX) {
+                    scanCell(left, y, latitude, longitude, metresPerLongitudeDegree, fullBit, n, nearest);
+                }
+                if (right >= minX && right <= maxX) {
+                    scanCell(right, y, latitude, longitude, metresPerLongitudeDegree, fullBit, n, nearest);
+                }
+            }
+
+            scannedCellCount += ring == 0 ? 1 : 8L * ring;
+
+            double searchedRadius = ring * minCellMetres;
+            if (nearest.size() == n && nearest.peek().squaredDistance <= searchedRadius * searchedRadius) {
+                break;
+            }
+        }
+
+        List<NearbyDustbin> result = new ArrayList<>(nearest.size());
+        while (!nearest.isEmpty()) {
+            Candidate candidate = nearest.poll();
+            result.add(new NearbyDustbin(candidate.entry.id,
+                                         candidate.entry.name,
+                                         candidate.entry.latitude,
+                                         candidate.entry.longitude,
+                                         Math.sqrt(candidate.squaredDistance)));
+        }
+        Collections.reverse(result);
+
+        return result;
+    }
+
+    // every occupied cell outside of the square of rings already scanned around the center
+    private void scanCellsOutside(int ring,
+                                  int centerX,
+                                  int centerY,
+                                  double latitude,
+                                  double longitude,
+                                  double metresPerLongitudeDegree,
+                                  int fullBit,
+                                  int n,
+                                  PriorityQueue<Candidate> nearest) {
+
+        for (Entry[] cell : cellMap.values()) {
+            if (Math.max(Math.abs(cell[0].cellX - centerX), Math.abs(cell[0].cellY - centerY)) > ring) {
+                scanEntries(cell, latitude, longitude, metresPerLongitudeDegree, fullBit, n, nearest);
+            }
+        }
+    }
+
+    private void scanCell(int x,
+                          int y,
+                          double latitude,
+                          double longitude,
+                          double metresPerLongitudeDegree,
+                          int fullBit,
+                          int n,
+                          PriorityQueue<Candidate> nearest) {
+
+        Entry[] cell = cellMap.get(toCellKey(x, y));
+        if (cell != null) {
+            scanEntries(cell, latitude, longitude, metresPerLongitudeDegree, fullBit, n, nearest);
+        }
+    }
+
+    private void scanEntries(Entry[] cell,
+                             double latitude,
+                             double longitude,
+                             double metresPerLongitudeDegree,
+                             int fullBit,
+                             int n,
+                             PriorityQueue<Candidate> nearest) {
+
+        for (Entry entry : cell) {
+            if ((entry.fullMask & fullBit) != 0) {
+                continue;
+            }
+
+            double dx = (entry.longitude - longitude) * metresPerLongitudeDegree;
+            double dy = (entry.latitude - latitude) * METRES_PER_DEGREE;
+            double squaredDistance = dx * dx + dy * dy;
+
+            if (nearest.size() < n) {
+                nearest.add(new Candidate(entry, squaredDistance));
+            } else if (squaredDistance < nearest.peek().squaredDistance) {
+                nearest.poll();
+                nearest.add(new Candidate(entry, squaredDistance));
+            }
+        }
+    }
+
+    private int toCellX(double longitude) {
+        return (int) Math.floor(longitude / cellSize);
+    }
+
+    private int toCellY(double latitude) {
+        return (int) Math.floor(latitude / cellSize);
+    }
+
+    private static long toCellKey(int cellX, int cellY) {
+        return ((long) cellY << 32) | (cellX & 0xffffffffL);
+    }
+
+    private static int toFullMask(DustbinStatus status) {
+
+        int fullMask = 0;
+
+        if (Boolean.TRUE.equals(status.getHazardousWasteFull())) {
+            fullMask |= 1 << WasteCategory.HAZARDOUS_WASTE.ordinal();
+        }
+        if (Boolean.TRUE.equals(status.getRecyclableWasteFull())) {
+            fullMask |= 1 << WasteCategory.RECYCLABLE_WASTE.ordinal();
+        }
+        if (Boolean.TRUE.equals(status.getFoodWasteFull())) {
+            fullMask |= 1 << WasteCategory.FOOD_WASTE.ordinal();
+        }
+        if (Boolean.TRUE.equals(status.getResidualWasteFull())) {
+            fullMask |= 1 << WasteCategory.RESIDUAL_WASTE.ordinal();
+        }
+
+        return fullMask;
+    }
+
+    private static class Entry {
+
+        private final Long id;
+        private final String name;
+        private final double latitude;
+        private final double longitude;
+        private final int cellX;
+        private final int cellY;
+        private volatile int fullMask;
+
+        Entry(Long id, String name, double latitude, double longitude, int cellX, int cellY) {
+
+            this.id = id;
+            this.name = name;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.cellX = cellX;
+            this.cellY = cellY;
+        }
+    }
+
+    private static class Candidate {
+
+        private final Entry entry;
+        private final double squaredDistance;
+
+        Candidate(Entry entry, double squaredDistance) {
+
+            this.entry = entry;
+            this.squaredDistance = squaredDistance;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.charliechiang.wastesortinghelperserver.service;
+
+import com.charliechiang.wastesortinghelperserver.model.Dustbin;
+
+import java.util.Objects;
+
+public final class DustbinStatus {
+
+    private final Boolean isHazardousWasteFull;
+    private final Boolean isRecyclableWasteFull;
+    private final Boolean isFoodWasteFull;
+    private final Boolean isResidualWasteFull;
+
+    public DustbinStatus(Boolean isHazardousWasteFull,
+                         Boolean isRecyclableWasteFull,
+                         Boolean isFoodWasteFull,
+                         Boolean isResidualWasteFull) {
+
+        this.isHazardousWasteFull = isHazardousWasteFull;
+        this.isRecyclableWasteFull = isRecyclableWasteFull;
+        this.isFoodWasteFull = isFoodWasteFull;
+        this.isResidualWasteFull = isResidualWasteFull;
+    }
+
+    public static DustbinStatus of(Dustbin dustbin) {
+
+        return new DustbinStatus(dustbin.getHazardousWasteFull(),
+                                 dustbin.getRecyclableWasteFull(),
+                                 dustbin.getFoodWasteFull(),
+                                 dustbin.getResidualWasteFull());
+    }
+
+    public void applyTo(Dustbin dustbin) {
+
+        dustbin.setHazardousWasteFull(isHazardousWasteFull);
+        dustbin.setRecyclableWasteFull(isRecyclableWasteFull);
+        dustbin.setFoodWasteFull(isFoodWasteFull);
+        dustbin.setResidualWasteFull(isResidualWasteFull);
+    }
+
+    public Boolean getHazardousWasteFull() {
+        return isHazardousWasteFull;
+    }
+
+    public Boolean getRecyclableWasteFull() {
+        return isRecyclableWasteFull;
+    }
+
+    public Boolean getFoodWasteFull() {
+        return isFoodWasteFull;
+    }
+
+    public Boolean getResidualWasteFull() {
+        return isResidualWasteFull;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof DustbinStatus)) {
+            return false;
+        }
+
+        DustbinStatus that = (DustbinStatus) o;
+        return Objects.equals(isHazardousWasteFull, that.isHazardousWasteFull)
+               && Objects.equals(isRecyclableWasteFull, that.isRecyclableWasteFull)
+               && Objects.equals(isFoodWasteFull, that.isFoodWasteFull)
+               && Objects.equals(isResidualWasteFull, that.isResidualWasteFull);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(isHazardousWasteFull, isRecyclableWasteFull, isFoodWasteFull, isResidualWasteFull);
+    }
+}
@@ -0,0 +1,77 @@
+package com.charliechiang.wastesortinghelperserver.service;
+
+import java.time.LocalDateTime;
+
+// the latest known state of a dustbin, pushed to dashboards as a whole so that skipped messages lose nothing
+public class DustbinStatusChange {
+
+    private final Long dustbinId;
+    private final Boolean online;
+    private final Boolean hazardousWasteFull;
+    private final Boolean recyclableWasteFull;
+    private final Boolean foodWasteFull;
+    private final Boolean residualWasteFull;
+    private final LocalDateTime lastDepositTime;
+
+    public DustbinStatusChange(Long dustbinId,
+                               Boolean online,
+                               DustbinStatus status,
+                               LocalDateTime lastDepositTime) {
+
+        this.dustbinId = dustbinId;
+        this.online = online;
+        this.hazardousWasteFull = status == null ? null : status.getHazardousWasteFull();
+        this.recyclableWasteFull = status == null ? null : status.getRecyclableWasteFull();
+        this.foodWasteFull = status == null ? null : status.getFoodWasteFull();
+        this.residualWasteFull = status == null ? null : status.getResidualWasteFull();
+        this.lastDepositTime = lastDepositTime;
+    }
+
+    public DustbinStatusChange withOnline(Boolean online) {
+
+        return new DustbinStatusChange(dustbinId, online, getStatus(), lastDepositTime);
+    }
+
+    public DustbinStatusChange withStatus(DustbinStatus status) {
+
+        return new DustbinStatusChange(dustbinId, online, status, lastDepositTime);
+    }
+
+    public DustbinStatusChange withLastDepositTime(LocalDateTime lastDepositTime) {
+
+        return new DustbinStatusChange(dustbinId, online, getStatus(), lastDepositTime);
+    }
+
+    private DustbinStatus getStatus() {
+
+        return new DustbinStatus(hazardousWasteFull, recyclableWasteFull, foodWasteFull, residualWasteFull);
+    }
+
+    public Long getDustbinId() {
+        return dustbinId;
+    }
+
+    public Boolean getOnline() {
+        return online;
+    }
+
+    public Boolean getHazardousWasteFull() {
+        return hazardousWasteFull;
+    }
+
+    public Boolean getRecyclableWasteFull() {
+        return recyclableWasteFull;
+    }
+
+    public Boolean getFoodWasteFull() {
+        return foodWasteFull;
+    }
+
+    public Boolean getResidualWasteFull() {
+        return residualWasteFull;
+    }
+
+    public LocalDateTime getLastDepositTime() {
+        return lastDepositTime;
+    }
+}
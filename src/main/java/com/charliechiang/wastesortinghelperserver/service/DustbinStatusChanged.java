@@ -0,0 +1,22 @@
+package com.charliechiang.wastesortinghelperserver.service;
+
+// published by DustbinStatusTable for every fullness report, whether or not it changed the status
+public class DustbinStatusChanged {
+
+    private final Long dustbinId;
+    private final DustbinStatus status;
+
+    public DustbinStatusChanged(Long dustbinId, DustbinStatus status) {
+
+        this.dustbinId = dustbinId;
+        this.status = status;
+    }
+
+    public Long getDustbinId() {
+        return dustbinId;
+    }
+
+    public DustbinStatus getStatus() {
+        return status;
+    }
+}
@@ -0,0 +1,107 @@
+package com.charliechiang.wastesortinghelperserver.service;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.serializer.SerializerFeature;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.UnaryOperator;
+
+// Fans dustbin state changes out to dashboard subscribers. Each change is serialized once and handed to every
+// subscriber's CoalescingSender, so one change costs O(subscribers). Changes are handed over while the dustbin's
+// entry is being updated, so subscribers always get a dustbin's changes in the order they were made.
+@Component
+public class DustbinStatusPublisher {
+
+    private final ConcurrentHashMap<Long, DustbinStatusChange> stateMap = new ConcurrentHashMap<>();
+    private final CopyOnWriteArraySet<CoalescingSender<Long>> subscribers = new CopyOnWriteArraySet<>();
+    private final ExecutorService executor = Executors.newFixedThreadPool(2, runnable -> {
+        Thread thread = new Thread(runnable, "dustbin-status-publisher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public CoalescingSender<Long> subscribe(CoalescingSender.TextSink sink) {
+
+        CoalescingSender<Long> subscriber = new CoalescingSender<>(executor, sink);
+        subscribers.add(subscriber);
+
+        // start from the current state of every known dustbin, a change being published meanwhile is offered after it
+        for (Long dustbinId : stateMap.keySet()) {
+            stateMap.computeIfPresent(dustbinId, (id, change) -> {
+                subscriber.offer(id, toJson(change));
+                return change;
+            });
+        }
+
+        return subscriber;
+    }
+
+    public void unsubscribe(CoalescingSender<Long> subscriber) {
+
+        subscriber.close();
+        subscribers.remove(subscriber);
+    }
+
+    public void publishStatus(Long dustbinId, DustbinStatus status) {
+
+        publish(dustbinId, change -> change.withStatus(status));
+    }
+
+    public void publishConnection(Long dustbinId, boolean online) {
+
+        publish(dustbinId, change -> change.withOnline(online));
+    }
+
+    public void publishDeposit(Long dustbinId, LocalDateTime time) {
+
+        publish(dustbinId, change -> change.withLastDepositTime(time));
+    }
+
+    public void remove(Long dustbinId) {
+
+        stateMap.remove(dustbinId);
+    }
+
+    public Collection<CoalescingSender<Long>> getSubscribers() {
+
+        return subscribers;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+
+        executor.shutdownNow();
+    }
+
+    private void publish(Long dustbinId, UnaryOperator<DustbinStatusChange> update) {
+
+        stateMap.compute(dustbinId, (id, previous) -> {
+            DustbinStatusChange change = update.apply(previous == null
+                                                      ? new DustbinStatusChange(id, null, null, null)
+                                                      : previous);
+            String text = toJson(change);
+
+            for (CoalescingSender<Long> subscriber : subscribers) {
+                if (subscriber.isClosed()) {
+                    subscribers.remove(subscriber);
+                } else {
+                    subscriber.offer(id, text);
+                }
+            }
+
+            return change;
+        });
+    }
+
+    private static String toJson(DustbinStatusChange change) {
+
+        return JSON.toJSONString(change, SerializerFeature.WriteMapNullValue);
+    }
+}
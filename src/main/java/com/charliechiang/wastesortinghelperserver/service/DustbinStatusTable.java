@@ -0,0 +1,223 @@
+package com.charliechiang.wastesortinghelperserver.service;
+
+import com.charliechiang.wastesortinghelperserver.exception.ResourceNotFoundException;
+import com.charliechiang.wastesortinghelperserver.model.Dustbin;
+import com.charliechiang.wastesortinghelperserver.repository.DustbinRepository;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Latest fullness reported by each dustbin. Sensors flap around the threshold, so reports are absorbed here
+// and only the latest state of each dustbin is written back to the database periodically.
+@Component
+public class DustbinStatusTable {
+
+    private static final Log logger = LogFactory.getLog(DustbinStatusTable.class);
+
+    private final DustbinRepository dustbinRepository;
+    private final DustbinSpatialIndex dustbinSpatialIndex;
+    private final DustbinFillForecaster dustbinFillForecaster;
+    private final DustbinStatusPublisher dustbinStatusPublisher;
+    private final RecentDepositBuffer recentDepositBuffer;
+    private final DomainEventBus domainEventBus;
+    private final TransactionTemplate transactionTemplate;
+
+    private final ConcurrentHashMap<Long, Entry> statusMap = new ConcurrentHashMap<>();
+
+    public DustbinStatusTable(DustbinRepository dustbinRepository,
+                              DustbinSpatialIndex dustbinSpatialIndex,
+                              DustbinFillForecaster dustbinFillForecaster,
+                              DustbinStatusPublisher dustbinStatusPublisher,
+                              RecentDepositBuffer recentDepositBuffer,
+                              DomainEventBus domainEventBus,
+                              PlatformTransactionManager transactionManager) {
+
+        this.dustbinRepository = dustbinRepository;
+        this.dustbinSpatialIndex = dustbinSpatialIndex;
+        this.dustbinFillForecaster = dustbinFillForecaster;
+        this.dustbinStatusPublisher = dustbinStatusPublisher;
+        this.recentDepositBuffer = recentDepositBuffer;
+        this.domainEventBus = domainEventBus;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    // the forecaster learns which dustbins were full before the restart, and that emptying them starts a new count
+    @PostConstruct
+    public void init() {
+
+        for (Dustbin dustbin : dustbinRepository.findAll()) {
+            Entry entry = statusMap.computeIfAbsent(dustbin.getId(), id -> new Entry(dustbin));
+            dustbinFillForecaster.updateStatus(entry.id, entry.getCurrent());
+        }
+    }
+
+    public Optional<Dustbin> getDustbin(Long id) {
+
+        return Optional.ofNullable(getEntry(id)).map(Entry::toDustbin);
+    }
+
+    public Dustbin updateStatus(Long id, DustbinStatus status) throws ResourceNotFoundException {
+
+        Entry entry = getEntry(id);
+
+        if (entry == null) {
+            throw new ResourceNotFoundException("Dustbin with ID=" + id + " could not be found.");
+        }
+
+        synchronized (entry) {
+            entry.current = status;
+        }
+        // the spatial index answers the next nearby search, the forecaster and the dashboards follow from the event
+        dustbinSpatialIndex.updateStatus(id, status);
+        domainEventBus.publish(new DustbinStatusChanged(id, status));
+
+        return entry.toDustbin();
+    }
+
+    // overwrite the (possibly not yet flushed) status of a dustbin loaded from the database
+    public Dustbin applyStatus(Dustbin dustbin) {
+
+        Entry entry = statusMap.get(dustbin.getId());
+
+        if (entry != null) {
+            entry.getCurrent().applyTo(dustbin);
+        }
+
+        return dustbin;
+    }
+
+    public void put(Dustbin dustbin) {
+
+        statusMap.put(dustbin.getId(), new Entry(dustbin));
+        dustbinSpatialIndex.put(dustbin);
+    }
+
+    public void remove(Long id) {
+
+        statusMap.remove(id);
+        dustbinSpatialIndex.remove(id);
+        dustbinFillForecaster.remove(id);
+        dustbinStatusPublisher.remove(id);
+        recentDepositBuffer.remove(id);
+    }
+
+    public int getPendingCount() {
+
+        int pendingCount = 0;
+
+        for (Entry entry : statusMap.values()) {
+            if (entry.isDirty()) {
+                pendingCount++;
+            }
+        }
+
+        return pendingCount;
+    }
+
+    // Written through the entities, loaded from the second-level cache, so the cached dustbins are updated in place.
+    // A bulk update would evict every dustbin from the cache, and each deposit would read its dustbin from the
+    // database again until it is reloaded.
+    @Scheduled(fixedDelayString = "${dustbin.status.flush-delay-ms:5000}")
+    public void flush() {
+
+        List<Entry> dirtyEntries = new ArrayList<>();
+        List<DustbinStatus> statuses = new ArrayList<>();
+
+        for (Entry entry : statusMap.values()) {
+            DustbinStatus current = entry.getCurrent();
+            if (!current.equals(entry.persisted)) {
+                dirtyEntries.add(entry);
+                statuses.add(current);
+            }
+        }
+
+        if (dirtyEntries.isEmpty()) {
+            return;
+        }
+
+        try {
+            // read-write, which also keeps the lookups on the primary
+            transactionTemplate.executeWithoutResult(transactionStatus -> {
+                for (int i = 0; i < dirtyEntries.size(); i++) {
+                    DustbinStatus status = statuses.get(i);
+                    dustbinRepository.findById(dirtyEntries.get(i).id).ifPresent(status::applyTo);
+                }
+            });
+        } catch (Exception ex) {
+            logger.error("Failed to flush status of " + dirtyEntries.size() + " dustbins: " + ex.getMessage());
+            return;
+        }
+
+        for (int i = 0; i < dirtyEntries.size(); i++) {
+            dirtyEntries.get(i).persisted = statuses.get(i);
+        }
+    }
+
+    @PreDestroy
+    public void flushOnShutdown() {
+
+        flush();
+    }
+
+    private Entry getEntry(Long id) {
+
+        Entry entry = statusMap.get(id);
+
+        if (entry != null) {
+            return entry;
+        }
+
+        Optional<Dustbin> dustbin = dustbinRepository.findById(id);
+
+        // a concurrent load of the same dustbin may have won, keep the entry that is already there
+        return dustbin.map(d -> statusMap.computeIfAbsent(id, key -> new Entry(d)))
+                      .orElse(null);
+    }
+
+    private static class Entry {
+
+        private final Long id;
+        private final String name;
+        private final Double latitude;
+        private final Double longitude;
+        private DustbinStatus current;
+        private volatile DustbinStatus persisted;
+
+        Entry(Dustbin dustbin) {
+
+            this.id = dustbin.getId();
+            this.name = dustbin.getName();
+            this.latitude = dustbin.getLatitude();
+            this.longitude = dustbin.getLongitude();
+            this.current = DustbinStatus.of(dustbin);
+            this.persisted = this.current;
+        }
+
+        synchronized DustbinStatus getCurrent() {
+            return current;
+        }
+
+        boolean isDirty() {
+            return !getCurrent().equals(persisted);
+        }
+
+        Dustbin toDustbin() {
+
+            Dustbin dustbin = new Dustbin(name, latitude, longitude);
+            dustbin.setId(id);
+            getCurrent().applyTo(dustbin);
+
+            return dustbin;
+        }
+    }
+}
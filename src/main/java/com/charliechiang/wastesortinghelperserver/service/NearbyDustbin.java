@@ -0,0 +1,44 @@
+package com.charliechiang.wastesortinghelperserver.service;
+
+public class NearbyDustbin {
+
+    private final Long id;
+    private final String name;
+    private final Double latitude;
+    private final Double longitude;
+    // metres
+    private final Double distance;
+
+    public NearbyDustbin(Long id,
+                         String name,
+                         Double latitude,
+                         Double longitude,
+                         Double distance) {
+
+        this.id = id;
+        this.name = name;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.distance = distance;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Double getLatitude() {
+        return latitude;
+    }
+
+    public Double getLongitude() {
+        return longitude;
+    }
+
+    public Double getDistance() {
+        return distance;
+    }
+}
@@ -0,0 +1,74 @@
+package com.charliechiang.wastesortinghelperserver.service;
+
+import com.charliechiang.wastesortinghelperserver.model.WasteCategory;
+
+import java.time.LocalDateTime;
+
+// a deposit as it is kept in DepositLog until it is saved, the time is resolved before it is appended
+public class PendingDeposit {
+
+    // saved with the waste, which is unique, so a deposit replayed after it was saved is not saved twice; null for
+    // deposits logged by versions without it
+    private final String depositKey;
+    private final String username;
+    private final Long dustbinId;
+    // the sequence number of a deposit sent over the dustbin WebSocket, null for the REST API
+    private final Long sequence;
+    private final Double weight;
+    private final WasteCategory category;
+    private final LocalDateTime time;
+
+    public PendingDeposit(String username,
+                          Long dustbinId,
+                          Double weight,
+                          WasteCategory category,
+                          LocalDateTime time) {
+
+        this(null, username, dustbinId, null, weight, category, time);
+    }
+
+    public PendingDeposit(String depositKey,
+                          String username,
+                          Long dustbinId,
+                          Long sequence,
+                          Double weight,
+                          WasteCategory category,
+                          LocalDateTime time) {
+
+        this.depositKey = depositKey;
+        this.username = username;
+        this.dustbinId = dustbinId;
+        this.sequence = sequence;
+        this.weight = weight;
+        this.category = category;
+        this.time = time;
+    }
+
+    public String getDepositKey() {
+        return depositKey;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public Long getDustbinId() {
+        return dustbinId;
+    }
+
+    public Long getSequence() {
+        return sequence;
+    }
+
+    public Double getWeight() {
+        return weight;
+    }
+
+    public WasteCategory getCategory() {
+        return category;
+    }
+
+    public LocalDateTime getTime() {
+        return time;
+    }
+}
@@ -0,0 +1,156 @@
+package com.charliechiang.wastesortinghelperserver.service;
+
+import com.charliechiang.wastesortinghelperserver.model.ServerSetting;
+import com.charliechiang.wastesortinghelperserver.repository.ServerSettingsRepository;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Token buckets kept as a single theoretical arrival time per key (GCRA), updated with compare-and-set, so
+// concurrent requests of the same dustbin or user never block each other. Rates and bursts are server settings,
+// read periodically so that checking a request never touches the database.
+@Component
+public class RateLimiter {
+
+    public enum LimitClass {
+        // dustbins, keyed by dustbin ID, or by address when a request does not name one
+        DEVICE("deviceRequestRate", 2.0, "deviceRequestBurst", 20),
+        // signed-in users, keyed by username, or by address before they have signed in
+        USER("userRequestRate", 0.5, "userRequestBurst", 5);
+
+        private final String rateSettingId;
+        private final double defaultRate;
+        private final String burstSettingId;
+        private final long defaultBurst;
+
+        LimitClass(String rateSettingId, double defaultRate, String burstSettingId, long defaultBurst) {
+
+            this.rateSettingId = rateSettingId;
+            this.defaultRate = defaultRate;
+            this.burstSettingId = burstSettingId;
+            this.defaultBurst = defaultBurst;
+        }
+    }
+
+    private final ServerSettingsRepository serverSettingsRepository;
+
+    private volatile Map<LimitClass, Limit> limitMap = new EnumMap<>(LimitClass.class);
+    private final ConcurrentHashMap<String, AtomicLong> bucketMap = new ConcurrentHashMap<>();
+
+    public RateLimiter(ServerSettingsRepository serverSettingsRepository) {
+
+        this.serverSettingsRepository = serverSettingsRepository;
+
+        for (LimitClass i : LimitClass.values()) {
+            limitMap.put(i, new Limit(i.defaultRate, i.defaultBurst));
+        }
+    }
+
+    public Decision tryAcquire(LimitClass limitClass, String key) {
+
+        Limit limit = limitMap.get(limitClass);
+        AtomicLong bucket = bucketMap.computeIfAbsent(limitClass.name() + ":" + key,
+                                                      k -> new AtomicLong(System.nanoTime()));
+        long now = System.nanoTime();
+
+        while (true) {
+            long arrivalTime = bucket.get();
+            long nextArrivalTime = (arrivalTime - now > 0 ? arrivalTime : now) + limit.intervalNanos;
+            long waitNanos = nextArrivalTime - now - limit.capacityNanos;
+
+            if (waitNanos > 0) {
+                return new Decision(false, limit.burst, 0, waitNanos);
+            }
+
+            if (bucket.compareAndSet(arrivalTime, nextArrivalTime)) {
+                return new Decision(true, limit.burst, -waitNanos / limit.intervalNanos, 0);
+            }
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${rate-limit.refresh-delay-ms:10000}")
+    public void refresh() {
+
+        Map<String, String> settingMap = new HashMap<>();
+        for (ServerSetting i : serverSettingsRepository.findAll()) {
+            settingMap.put(i.getId(), i.getValue());
+        }
+
+        Map<LimitClass, Limit> newLimitMap = new EnumMap<>(LimitClass.class);
+        for (LimitClass i : LimitClass.values()) {
+            double rate = parse(settingMap.get(i.rateSettingId), i.defaultRate);
+            long burst = (long) parse(settingMap.get(i.burstSettingId), i.defaultBurst);
+            newLimitMap.put(i, new Limit(rate, burst));
+        }
+        limitMap = newLimitMap;
+
+        // a bucket that has refilled completely is the same as a missing one
+        long now = System.nanoTime();
+        bucketMap.values().removeIf(i -> i.get() - now <= 0);
+    }
+
+    private static double parse(String value, double defaultValue) {
+
+        try {
+            return value == null ? defaultValue : Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static class Limit {
+
+        private final long burst;
+        // one request is let through every intervalNanos, up to burst requests at once
+        private final long intervalNanos;
+        private final long capacityNanos;
+
+        Limit(double rate, long burst) {
+
+            this.burst = Math.max(1, burst);
+            this.intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / Math.max(rate, 1e-6)));
+            this.capacityNanos = this.burst * intervalNanos;
+        }
+    }
+
+    public static class Decision {
+
+        private final boolean isAllowed;
+        private final long limit;
+        private final long remaining;
+        private final long retryAfterNanos;
+
+        public Decision(boolean isAllowed,
+                        long limit,
+                        long remaining,
+                        long retryAfterNanos) {
+
+            this.isAllowed = isAllowed;
+            this.limit = limit;
+            this.remaining = remaining;
+            this.retryAfterNanos = retryAfterNanos;
+        }
+
+        public boolean isAllowed() {
+            return isAllowed;
+        }
+
+        public long getLimit() {
+            return limit;
+        }
+
+        public long getRemaining() {
+            return remaining;
+        }
+
+        public long getRetryAfterNanos() {
+            return retryAfterNanos;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.charliechiang.wastesortinghelperserver.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// Users who wrote recently. Their read-only transactions stay on the primary database until the replica has
+// had time to catch up, so they see their own changes (e.g. a waste they have just thrown away).
+@Component
+public class ReadYourWritesWindow {
+
+    private static final int PURGE_THRESHOLD = 10000;
+
+    private final long windowNanos;
+    private final ConcurrentHashMap<String, Long> expiryMap = new ConcurrentHashMap<>();
+
+    public ReadYourWritesWindow(@Value("${app.datasource.replica.sticky-ms:5000}") long windowMillis) {
+
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+    }
+
+    public void recordWrite(String username) {
+
+        long now = System.nanoTime();
+
+        if (expiryMap.size() > PURGE_THRESHOLD) {
+            expiryMap.values().removeIf(expiry -> expiry - now <= 0);
+        }
+
+        expiryMap.put(username, now + windowNanos);
+    }
+
+    public boolean isActive(String username) {
+
+        Long expiry = expiryMap.get(username);
+
+        if (expiry == null) {
+            return false;
+        }
+
+        if (expiry - System.nanoTime() <= 0) {
+            expiryMap.remove(username, expiry);
+            return false;
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,49 @@
+package com.charliechiang.wastesortinghelperserver.service;
+
+import com.charliechiang.wastesortinghelperserver.model.Dustbin;
+import com.charliechiang.wastesortinghelperserver.model.User;
+import com.charliechiang.wastesortinghelperserver.model.Waste;
+import com.charliechiang.wastesortinghelperserver.model.WasteCategory;
+
+import java.time.LocalDateTime;
+
+public class RecentDeposit {
+
+    private final Long wasteId;
+    private final Long userId;
+    private final String username;
+    private final WasteCategory category;
+    private final Double weight;
+    private final LocalDateTime time;
+
+    public RecentDeposit(Waste waste) {
+
+        this.wasteId = waste.getId();
+        this.userId = waste.getUser().getId();
+        this.username = waste.getUser().getUsername();
+        this.category = waste.getCategory();
+        this.weight = waste.getWeight();
+        this.time = waste.getTime();
+    }
+
+    // the user only has its ID and username, which is all the credit ledger needs, it is not serialized with the waste
+    public Waste toWaste(Dustbin dustbin) {
+
+        User user = new User();
+        user.setId(userId);
+        user.setUsername(username);
+
+        Waste waste = new Waste(user, category, weight, dustbin, time);
+        waste.setId(wasteId);
+
+        return waste;
+    }
+
+    public Long getWasteId() {
+        return wasteId;
+    }
+
+    public LocalDateTime getTime() {
+        return time;
+    }
+}
@@ -0,0 +1,124 @@
+package com.charliechiang.wastesortinghelperserver.service;
+
+import com.charliechiang.wastesortinghelperserver.model.Waste;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+// The latest deposits of every dustbin, newest first, added as wastes are saved. A report of an incorrect
+// categorization is about one of them, so it is resolved here; the waste table is only read for a dustbin
+// that has not had SIZE deposits since the server started and whose buffer does not reach back to the report.
+// Deposits saved by another server would be missing, which is one reason the server runs as a single instance.
+@Component
+public class RecentDepositBuffer {
+
+    // a report can only be about one of the latest deposits of the dustbin
+    public static final int SIZE = 5;
+
+    private final ConcurrentHashMap<Long, Buffer> bufferMap = new ConcurrentHashMap<>();
+
+    public void record(Waste waste) {
+
+        getBuffer(waste.getDustbin().getId()).add(new RecentDeposit(waste));
+    }
+
+    // the latest of the last SIZE deposits that happened before time, or null
+    // loader returns the last SIZE wastes of the dustbin, it is called when the buffer alone cannot tell
+    public RecentDeposit findLatestBefore(Long dustbinId, LocalDateTime time, Supplier<List<Waste>> loader) {
+
+        Buffer buffer = getBuffer(dustbinId);
+        RecentDeposit deposit = buffer.findLatestBefore(time);
+
+        if (deposit != null || buffer.isComplete()) {
+            return deposit;
+        }
+
+        buffer.load(loader.get());
+
+        return buffer.findLatestBefore(time);
+    }
+
+    // for a waste that has been deleted, the next older one is read from the database when it is needed
+    public void remove(Long dustbinId, Long wasteId) {
+
+        Buffer buffer = bufferMap.get(dustbinId);
+
+        if (buffer != null) {
+            buffer.remove(wasteId);
+        }
+    }
+
+    public void remove(Long dustbinId) {
+
+        bufferMap.remove(dustbinId);
+    }
+
+    private Buffer getBuffer(Long dustbinId) {
+
+        return bufferMap.computeIfAbsent(dustbinId, id -> new Buffer());
+    }
+
+    private static class Buffer {
+
+        // ordered by waste ID, newest first, the order reports have always been resolved in
+        private final RecentDeposit[] deposits = new RecentDeposit[SIZE];
+        private int count;
+        // filled from the database, there are no deposits older than these among the last SIZE even if count < SIZE
+        private boolean loaded;
+
+        synchronized void add(RecentDeposit deposit) {
+
+            int index = 0;
+            while (index < count && deposits[index].getWasteId() > deposit.getWasteId()) {
+                index++;
+            }
+
+            if (index == SIZE || (index < count && deposits[index].getWasteId().equals(deposit.getWasteId()))) {
+                return;
+            }
+
+            System.arraycopy(deposits, index, deposits, index + 1, Math.min(count, SIZE - 1) - index);
+            deposits[index] = deposit;
+            count = Math.min(count + 1, SIZE);
+        }
+
+        synchronized void load(List<Waste> wastes) {
+
+            for (Waste waste : wastes) {
+                add(new RecentDeposit(waste));
+            }
+            loaded = true;
+        }
+
+        synchronized void remove(Long wasteId) {
+
+            for (int i = 0; i < count; i++) {
+                if (deposits[i].getWasteId().equals(wasteId)) {
+                    System.arraycopy(deposits, i + 1, deposits, i, count - i - 1);
+                    deposits[--count] = null;
+                    loaded = false;
+                    return;
+                }
+            }
+        }
+
+        synchronized boolean isComplete() {
+
+            return loaded || count == SIZE;
+        }
+
+        synchronized RecentDeposit findLatestBefore(LocalDateTime time) {
+
+            for (int i = 0; i < count; i++) {
+                if (time.isAfter(deposits[i].getTime())) {
+                    return deposits[i];
+                }
+            }
+
+            return null;
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package com.charliechiang.wastesortinghelperserver.service;
+
+import com.charliechiang.wastesortinghelperserver.model.Waste;
+import com.charliechiang.wastesortinghelperserver.model.WasteCategory;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.function.Supplier;
+
+// The SIZE latest wastes of recently active users, the history the mini-program shows on every open. A user is
+// loaded from the database on the first request, then kept up to date by deposits and reports. Users who have
+// not asked for their history for the longest are evicted once more than max-wastes wastes are cached. Only
+// the scalar fields are kept, the dustbin is taken from DustbinStatusTable when the wastes are returned. Deposits
+// and reports handled by another server would not reach the cache, the server runs as a single instance.
+@Component
+public class RecentWasteCache {
+
+    // histories up to this long are served from the cache, full histories are always read from the database
+    public static final int SIZE = 20;
+
+    private final DustbinStatusTable dustbinStatusTable;
+
+    private final int maxWastes;
+    private final Counter hitCounter;
+    private final Counter missCounter;
+
+    // access ordered, guarded by this, the lists are small enough to be updated under the same lock
+    private final LinkedHashMap<String, Entry> entryMap = new LinkedHashMap<>(16, 0.75f, true);
+    // wastes held by loaded entries
+    private int wasteCount;
+
+    public RecentWasteCache(DustbinStatusTable dustbinStatusTable,
+                            @Value("${user.recent-wastes.max-wastes:200000}") int maxWastes,
+                            MeterRegistry meterRegistry) {
+
+        this.dustbinStatusTable = dustbinStatusTable;
+        this.maxWastes = maxWastes;
+        this.hitCounter = meterRegistry.counter("user.recent.wastes.requests", "result", "hit");
+        this.missCounter = meterRegistry.counter("user.recent.wastes.requests", "result", "miss");
+    }
+
+    // the n latest wastes of the user, n at most SIZE; loader returns the SIZE latest from the database on a miss
+    public List<Waste> getLatest(String username, int n, Supplier<List<Waste>> loader) {
+
+        Entry entry;
+
+        synchronized (this) {
+            entry = entryMap.get(username);
+
+            if (entry != null && entry.loaded) {
+                hitCounter.increment();
+                return toWastes(entry.getLatest(n));
+            }
+
+            // created before the database is read, deposits made in the meantime are added to it
+            if (entry == null) {
+                entry = new Entry();
+                entryMap.put(username, entry);
+            }
+        }
+
+        missCounter.increment();
+
+        List<Waste> wastes;
+        try {
+            wastes = loader.get();
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                entryMap.remove(username, entry);
+            }
+            throw e;
+        }
+
+        synchronized (this) {
+            int previousCount = entry.count;
+
+            for (Waste waste : wastes) {
+                entry.add(new RecentWaste(waste));
+            }
+
+            // an entry evicted or replaced while it was loading is only used for this request
+            if (entryMap.get(username) == entry) {
+                wasteCount += entry.loaded ? entry.count - previousCount : entry.count;
+                entry.loaded = true;
+                evict();
+            }
+
+            return toWastes(entry.getLatest(n));
+        }
+    }
+
+    public synchronized void record(String username, Waste waste) {
+
+        Entry entry = entryMap.get(username);
+
+        if (entry != null) {
+            int previousCount = entry.count;
+            entry.add(new RecentWaste(waste));
+
+            if (entry.loaded) {
+                wasteCount += entry.count - previousCount;
+            }
+        }
+    }
+
+    public synchronized void recordIncorrectCategorization(String username, Long wasteId) {
+
+        Entry entry = entryMap.get(username);
+
+        if (entry != null) {
+            for (int i = 0; i < entry.count; i++) {
+                if (entry.wastes[i].id.equals(wasteId)) {
+                    entry.wastes[i].correctlyCategorized = false;
+                }
+            }
+        }
+    }
+
+    public synchronized void evict(String username) {
+
+        Entry entry = entryMap.remove(username);
+
+        if (entry != null && entry.loaded) {
+            wasteCount -= entry.count;
+        }
+    }
+
+    public synchronized int getUserCount() {
+
+        return entryMap.size();
+    }
+
+    public synchronized int getWasteCount() {
+
+        return wasteCount;
+    }
+
+    public int getMaxWastes() {
+
+        return maxWastes;
+    }
+
+    private void evict() {
+
+        Iterator<Entry> iterator = entryMap.values().iterator();
+
+        while (wasteCount > maxWastes && iterator.hasNext()) {
+            Entry entry = iterator.next();
+
+            if (entry.loaded) {
+                wasteCount -= entry.count;
+                iterator.remove();
+            }
+        }
+    }
+
+    private List<Waste> toWastes(List<RecentWaste> recentWastes) {
+
+        List<Waste> wastes = new ArrayList<>(recentWastes.size());
+
+        for (RecentWaste recentWaste : recentWastes) {
+            Waste waste = new Waste(null,
+                                    recentWaste.category,
+                                    recentWaste.weight,
+                                    dustbinStatusTable.getDustbin(recentWaste.dustbinId).orElse(null),
+                                    recentWaste.time);
+            waste.setId(recentWaste.id);
+            waste.setCorrectlyCategorized(recentWaste.correctlyCategorized);
+            wastes.add(waste);
+        }
+
+        return wastes;
+    }
+
+    private static class Entry {
+
+        // ordered by time, latest first, as the history is listed
+        private final RecentWaste[] wastes = new RecentWaste[SIZE];
+        private int count;
+        private boolean loaded;
+
+        void add(RecentWaste waste) {
+
+            for (int i = 0; i < count; i++) {
+                if (wastes[i].id.equals(waste.id)) {
+                    return;
+                }
+            }
+
+            int index = 0;
+            while (index < count && !wastes[index].time.isBefore(waste.time)) {
+                index++;
+            }
+
+            if (index == SIZE) {
+                return;
+            }
+
+            System.arraycopy(wastes, index, wastes, index + 1, Math.min(count, SIZE - 1) - index);
+            wastes[index] = waste;
+            count = Math.min(count + 1, SIZE);
+        }
+
+        List<RecentWaste> getLatest(int n) {
+
+            return Arrays.asList(wastes).subList(0, Math.min(n, count));
+        }
+    }
+
+    private static class RecentWaste {
+
+        private final Long id;
+        private final WasteCategory category;
+        private final Double weight;
+        private final Long dustbinId;
+        private final LocalDateTime time;
+        private Boolean correctlyCategorized;
+
+        RecentWaste(Waste waste) {
+
+            this.id = waste.getId();
+            this.category = waste.getCategory();
+            this.weight = waste.getWeight();
+            this.dustbinId = waste.getDustbin().getId();
+            this.time = waste.getTime();
+            this.correctlyCategorized = waste.getCorrectlyCategorized();
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.charliechiang.wastesortinghelperserver.service;
+
+import org.hibernate.Cache;
+import org.hibernate.SessionFactory;
+import org.springframework.stereotype.Component;
+
+import javax.persistence.EntityManagerFactory;
+
+// Schools, dustbins and settings are kept in the Hibernate second-level cache. Hibernate invalidates the cache
+// on its own writes, the controllers still evict explicitly after an administrator changes the data so the
+// change is visible right away even if the row was also changed outside this server.
+@Component
+public class ReferenceDataCache {
+
+    private final Cache cache;
+
+    public ReferenceDataCache(EntityManagerFactory entityManagerFactory) {
+
+        this.cache = entityManagerFactory.unwrap(SessionFactory.class).getCache();
+    }
+
+    public void evict(Class<?> entityClass) {
+
+        cache.evictEntityData(entityClass);
+        // the cached findAll results of every reference entity live in the default query region
+        cache.evictDefaultQueryRegion();
+    }
+}
@@ -0,0 +1,74 @@
+package com.charliechiang.wastesortinghelperserver.service;
+
+// One account of a bulk import, with the fields of a sign-up form. line is the position in the uploaded file.
+public class UserImportRecord {
+
+    private int line;
+    private String username;
+    private String password;
+    private String realName;
+    private String openId = "";
+    // -1 for no school
+    private Long schoolId = -1L;
+    private Short timeOfEnrollment = -1;
+
+    public UserImportRecord() {
+
+    }
+
+    public int getLine() {
+        return line;
+    }
+
+    public void setLine(int line) {
+        this.line = line;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    public String getPassword() {
+        return password;
+    }
+
+    public void setPassword(String password) {
+        this.password = password;
+    }
+
+    public String getRealName() {
+        return realName;
+    }
+
+    public void setRealName(String realName) {
+        this.realName = realName;
+    }
+
+    public String getOpenId() {
+        return openId;
+    }
+
+    public void setOpenId(String openId) {
+        this.openId = openId;
+    }
+
+    public Long getSchoolId() {
+        return schoolId;
+    }
+
+    public void setSchoolId(Long schoolId) {
+        this.schoolId = schoolId;
+    }
+
+    public Short getTimeOfEnrollment() {
+        return timeOfEnrollment;
+    }
+
+    public void setTimeOfEnrollment(Short timeOfEnrollment) {
+        this.timeOfEnrollment = timeOfEnrollment;
+    }
+}
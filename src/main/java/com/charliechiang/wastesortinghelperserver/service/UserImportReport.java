@@ -0,0 +1,86 @@
+package com.charliechiang.wastesortinghelperserver.service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+public class UserImportReport {
+
+    public enum Status {
+        CREATED,
+        // the username is taken, or appears earlier in the same file
+        CONFLICT,
+        INVALID,
+        // the batch containing the record could not be inserted
+        FAILED
+    }
+
+    private int created = 0;
+    private int rejected = 0;
+    private final List<Result> results = new ArrayList<>();
+
+    public int getCreated() {
+        return created;
+    }
+
+    public int getRejected() {
+        return rejected;
+    }
+
+    public List<Result> getResults() {
+        return results;
+    }
+
+    void add(int line, String username, Status status, String message) {
+
+        if (status == Status.CREATED) {
+            created++;
+        } else {
+            rejected++;
+        }
+
+        results.add(new Result(line, username, status, message));
+    }
+
+    // records are rejected and inserted in different passes, the report follows the uploaded file
+    void sortByLine() {
+
+        results.sort(Comparator.comparingInt(Result::getLine));
+    }
+
+    public static class Result {
+
+        private final int line;
+        private final String username;
+        private final Status status;
+        // null for created accounts
+        private final String message;
+
+        public Result(int line,
+                      String username,
+                      Status status,
+                      String message) {
+
+            this.line = line;
+            this.username = username;
+            this.status = status;
+            this.message = message;
+        }
+
+        public int getLine() {
+            return line;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+    }
+}
@@ -0,0 +1,364 @@
+package com.charliechiang.wastesortinghelperserver.service;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONException;
+import com.charliechiang.wastesortinghelperserver.model.School;
+import com.charliechiang.wastesortinghelperserver.model.User;
+import com.charliechiang.wastesortinghelperserver.repository.SchoolRepository;
+import com.charliechiang.wastesortinghelperserver.repository.UserRepository;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hibernate.Session;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.dao.DataAccessException;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceException;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Registers a whole cohort of students at once. Password hashes are computed on all cores while the accounts are
+// inserted batch-size at a time, each batch in a transaction of its own sent as JDBC batches. A batch the database
+// rejects is inserted again one account at a time, so every record gets a line in the report: created, or why it
+// was left out.
+@Component
+public class UserImporter {
+
+    private static final Log logger = LogFactory.getLog(UserImporter.class);
+
+    private static final Set<String> CSV_COLUMNS =
+            Set.of("username", "password", "realName", "openId", "schoolId", "timeOfEnrollment");
+    // the length of the string columns of the user table
+    private static final int MAX_TEXT_LENGTH = 255;
+
+    private final UserRepository userRepository;
+    private final SchoolRepository schoolRepository;
+    private final PasswordEncoder passwordEncoder;
+    private final EntityManager entityManager;
+    private final TransactionTemplate transactionTemplate;
+
+    private final int batchSize;
+
+    private final ExecutorService hashingExecutor =
+            Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+                Thread thread = new Thread(runnable, "password-hashing");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    public UserImporter(UserRepository userRepository,
+                        SchoolRepository schoolRepository,
+                        PasswordEncoder passwordEncoder,
+                        EntityManager entityManager,
+                        PlatformTransactionManager transactionManager,
+                        @Value("${user.import.batch-size:500}") int batchSize) {
+
+        this.userRepository = userRepository;
+        this.schoolRepository = schoolRepository;
+        this.passwordEncoder = passwordEncoder;
+        this.entityManager = entityManager;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.batchSize = batchSize;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+
+        hashingExecutor.shutdownNow();
+    }
+
+    // the first line names the columns, quoted fields may contain commas and "" for a quote
+    public UserImportReport importCsv(BufferedReader reader) throws IOException {
+
+        UserImportReport report = new UserImportReport();
+        List<UserImportRecord> records = new ArrayList<>();
+
+        String header = reader.readLine();
+        if (header == null) {
+            return report;
+        }
+
+        List<String> columns = splitCsvLine(header);
+        for (String column : columns) {
+            if (!CSV_COLUMNS.contains(column)) {
+                report.add(1, null, UserImportReport.Status.INVALID, "Unknown column " + column + ".");
+                return report;
+            }
+        }
+
+        String line;
+        int lineNumber = 1;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.isBlank()) {
+                continue;
+            }
+
+            List<String> fields = splitCsvLine(line);
+            if (fields.size() != columns.size()) {
+                report.add(lineNumber, null, UserImportReport.Status.INVALID,
+                           "Expected " + columns.size() + " fields, found " + fields.size() + ".");
+                continue;
+            }
+
+            try {
+                records.add(toRecord(lineNumber, columns, fields));
+            } catch (NumberFormatException e) {
+                report.add(lineNumber, null, UserImportReport.Status.INVALID, "Malformed number: " + e.getMessage());
+            }
+        }
+
+        importRecords(records, report);
+        return report;
+    }
+
+    // one JSON object per line, with the fields of the sign-up form
+    public UserImportReport importNdjson(BufferedReader reader) throws IOException {
+
+        UserImportReport report = new UserImportReport();
+        List<UserImportRecord> records = new ArrayList<>();
+
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.isBlank()) {
+                continue;
+            }
+
+            try {
+                UserImportRecord record = JSON.parseObject(line, UserImportRecord.class);
+                record.setLine(lineNumber);
+                records.add(record);
+            } catch (JSONException | NumberFormatException e) {
+                report.add(lineNumber, null, UserImportReport.Status.INVALID, "Malformed JSON: " + e.getMessage());
+            }
+        }
+
+        importRecords(records, report);
+        return report;
+    }
+
+    private void importRecords(List<UserImportRecord> records, UserImportReport report) {
+
+        Set<String> usernames = new HashSet<>();
+        List<UserImportRecord> candidates = new ArrayList<>();
+
+        for (UserImportRecord record : records) {
+            String problem = validate(record);
+            if (problem != null) {
+                report.add(record.getLine(), record.getUsername(), UserImportReport.Status.INVALID, problem);
+            } else if (record.getUsername().equals("me") || !usernames.add(record.getUsername())) {
+                report.add(record.getLine(), record.getUsername(), UserImportReport.Status.CONFLICT,
+                           "User with username=" + record.getUsername() + " already exists.");
+            } else {
+                candidates.add(record);
+            }
+        }
+
+        // a single query for the whole file instead of a lookup per account
+        Set<String> takenUsernames = usernames.isEmpty() ? Collections.emptySet()
+                                                         : userRepository.findUsernamesByUsernameIn(usernames);
+        Map<Long, School> schools = new HashMap<>();
+        for (School school : schoolRepository.findAll()) {
+            schools.put(school.getId(), school);
+        }
+
+        List<UserImportRecord> accepted = new ArrayList<>();
+        for (UserImportRecord record : candidates) {
+            if (takenUsernames.contains(record.getUsername())) {
+                report.add(record.getLine(), record.getUsername(), UserImportReport.Status.CONFLICT,
+                           "User with username=" + record.getUsername() + " already exists.");
+            } else if (record.getSchoolId() != null && record.getSchoolId() != -1 && !schools.containsKey(record.getSchoolId())) {
+                report.add(record.getLine(), record.getUsername(), UserImportReport.Status.INVALID,
+                           "School with ID=" + record.getSchoolId() + " could not be found.");
+            } else {
+                accepted.add(record);
+            }
+        }
+
+        // bcrypt is slow on purpose, the hashes of later batches are computed while earlier ones are inserted
+        List<CompletableFuture<String>> passwords = new ArrayList<>(accepted.size());
+        for (UserImportRecord record : accepted) {
+            passwords.add(CompletableFuture.supplyAsync(() -> passwordEncoder.encode(record.getPassword()),
+                                                        hashingExecutor));
+        }
+
+        for (int from = 0; from < accepted.size(); from += batchSize) {
+            int to = Math.min(from + batchSize, accepted.size());
+            List<User> users = new ArrayList<>(to - from);
+
+            for (int i = from; i < to; i++) {
+                users.add(toUser(accepted.get(i), passwords.get(i).join(), schools));
+            }
+
+            try {
+                transactionTemplate.executeWithoutResult(transactionStatus -> insert(users));
+            } catch (DataAccessException | PersistenceException e) {
+                logger.warn("Could not import users on lines " + accepted.get(from).getLine() + " to "
+                            + accepted.get(to - 1).getLine() + " as a batch, importing them one at a time.", e);
+                // the users of the failed batch may have been given IDs already, they are created anew
+                for (int i = from; i < to; i++) {
+                    insertOne(accepted.get(i), passwords.get(i).join(), schools, report);
+                }
+                continue;
+            }
+
+            for (int i = from; i < to; i++) {
+                report.add(accepted.get(i).getLine(), accepted.get(i).getUsername(), UserImportReport.Status.CREATED, null);
+            }
+        }
+
+        report.sortByLine();
+    }
+
+    private void insertOne(UserImportRecord record,
+                           String encodedPassword,
+                           Map<Long, School> schools,
+                           UserImportReport report) {
+
+        User user = toUser(record, encodedPassword, schools);
+
+        try {
+            transactionTemplate.executeWithoutResult(transactionStatus -> insert(List.of(user)));
+            report.add(record.getLine(), record.getUsername(), UserImportReport.Status.CREATED, null);
+        } catch (DataAccessException | PersistenceException e) {
+            report.add(record.getLine(), record.getUsername(), UserImportReport.Status.FAILED,
+                       NestedExceptionUtils.getMostSpecificCause(e).getMessage());
+        }
+    }
+
+    private void insert(List<User> users) {
+
+        entityManager.unwrap(Session.class).setJdbcBatchSize(batchSize);
+
+        for (User user : users) {
+            entityManager.persist(user);
+        }
+
+        // keeps the persistence context from growing with the size of the file
+        entityManager.flush();
+        entityManager.clear();
+    }
+
+    private static String validate(UserImportRecord record) {
+
+        if (record.getUsername() == null || record.getUsername().isBlank()) {
+            return "username is required.";
+        }
+        if (record.getPassword() == null || record.getPassword().isEmpty()) {
+            return "password is required.";
+        }
+        if (record.getRealName() == null) {
+            return "realName is required.";
+        }
+        if (record.getUsername().length() > MAX_TEXT_LENGTH) {
+            return "username is longer than " + MAX_TEXT_LENGTH + " characters.";
+        }
+        if (record.getRealName().length() > MAX_TEXT_LENGTH) {
+            return "realName is longer than " + MAX_TEXT_LENGTH + " characters.";
+        }
+        if (record.getOpenId() != null && record.getOpenId().length() > MAX_TEXT_LENGTH) {
+            return "openId is longer than " + MAX_TEXT_LENGTH + " characters.";
+        }
+        return null;
+    }
+
+    private static User toUser(UserImportRecord record, String encodedPassword, Map<Long, School> schools) {
+
+        User user = new User();
+
+        user.setUsername(record.getUsername());
+        user.setPassword(encodedPassword);
+        user.setRealName(record.getRealName());
+        user.setSchool(schools.get(record.getSchoolId()));
+        user.setTimeOfEnrollment(record.getTimeOfEnrollment());
+        user.setOpenId(record.getOpenId());
+        user.setRoles(new ArrayList<>(List.of("ROLE_USER")));
+
+        return user;
+    }
+
+    private static UserImportRecord toRecord(int lineNumber, List<String> columns, List<String> fields) {
+
+        UserImportRecord record = new UserImportRecord();
+        record.setLine(lineNumber);
+
+        for (int i = 0; i < columns.size(); i++) {
+            String field = fields.get(i);
+
+            switch (columns.get(i)) {
+                case "username":
+                    record.setUsername(field);
+                    break;
+                case "password":
+                    record.setPassword(field);
+                    break;
+                case "realName":
+                    record.setRealName(field);
+                    break;
+                case "openId":
+                    record.setOpenId(field);
+                    break;
+                case "schoolId":
+                    record.setSchoolId(field.isEmpty() ? -1L : Long.valueOf(field));
+                    break;
+                case "timeOfEnrollment":
+                    record.setTimeOfEnrollment(field.isEmpty() ? -1 : Short.valueOf(field));
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        return record;
+    }
+
+    private static List<String> splitCsvLine(String line) {
+
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean isQuoted = false;
+
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+
+            if (isQuoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    isQuoted = false;
+                }
+            } else if (c == '"') {
+                isQuoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString().trim());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString().trim());
+
+        return fields;
+    }
+}
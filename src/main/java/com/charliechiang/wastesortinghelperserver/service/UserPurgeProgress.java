@@ -0,0 +1,64 @@
+package com.charliechiang.wastesortinghelperserver.service;
+
+import java.time.LocalDateTime;
+
+// Updated by the purging thread and read by requests. After a restart the purge starts over with the wastes
+// that are left, wastesPurged only counts what this server has deleted.
+public class UserPurgeProgress {
+
+    private final Long userId;
+    private final String username;
+    private final LocalDateTime timeStarted = LocalDateTime.now();
+    private volatile long wastesPurged = 0;
+    // -1 until the purge has counted them
+    private volatile long wastesRemaining = -1;
+    private volatile LocalDateTime timeFinished;
+
+    UserPurgeProgress(Long userId, String username) {
+
+        this.userId = userId;
+        this.username = username;
+    }
+
+    Long getUserId() {
+        return userId;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public LocalDateTime getTimeStarted() {
+        return timeStarted;
+    }
+
+    public long getWastesPurged() {
+        return wastesPurged;
+    }
+
+    public long getWastesRemaining() {
+        return wastesRemaining;
+    }
+
+    public LocalDateTime getTimeFinished() {
+        return timeFinished;
+    }
+
+    public boolean isFinished() {
+        return timeFinished != null;
+    }
+
+    void start(long wastesRemaining) {
+        this.wastesRemaining = wastesRemaining;
+    }
+
+    void recordChunk(int wastesDeleted) {
+        wastesPurged += wastesDeleted;
+        wastesRemaining = Math.max(0, wastesRemaining - wastesDeleted);
+    }
+
+    void finish() {
+        wastesRemaining = 0;
+        timeFinished = LocalDateTime.now();
+    }
+}
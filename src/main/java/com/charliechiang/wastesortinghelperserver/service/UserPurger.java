@@ -0,0 +1,168 @@
+package com.charliechiang.wastesortinghelperserver.service;
+
+import com.charliechiang.wastesortinghelperserver.model.User;
+import com.charliechiang.wastesortinghelperserver.repository.CreditEventRepository;
+import com.charliechiang.wastesortinghelperserver.repository.CreditSnapshotRepository;
+import com.charliechiang.wastesortinghelperserver.repository.UserRepository;
+import com.charliechiang.wastesortinghelperserver.repository.WasteRepository;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// Deleting a user only marks it as deleted, its wastes and credit events are removed here in chunks of chunk-size
+// rows, each in a transaction of its own. Users still marked as deleted are picked up again on every run, so a purge
+// interrupted by a restart simply carries on. A run stops after max-run-ms to leave the scheduler to the other tasks.
+// The purger is stopped before the context closes the datasource, runs scheduled after that do nothing.
+@Component
+public class UserPurger implements SmartLifecycle {
+
+    private static final Log logger = LogFactory.getLog(UserPurger.class);
+
+    // finished purges are still reported for this long
+    private static final long FINISHED_RETENTION_HOURS = 1;
+
+    private final UserRepository userRepository;
+    private final WasteRepository wasteRepository;
+    private final CreditEventRepository creditEventRepository;
+    private final CreditSnapshotRepository creditSnapshotRepository;
+    private final RecentWasteCache recentWasteCache;
+    private final WasteAnalyticsStore wasteAnalyticsStore;
+
+    private final int chunkSize;
+    private final long maxRunNanos;
+
+    private final ConcurrentHashMap<Long, UserPurgeProgress> progressMap = new ConcurrentHashMap<>();
+    // held for a whole run, so stopping waits for the run in progress
+    private final Object runLock = new Object();
+
+    private volatile boolean isRunning;
+
+    public UserPurger(UserRepository userRepository,
+                      WasteRepository wasteRepository,
+                      CreditEventRepository creditEventRepository,
+                      CreditSnapshotRepository creditSnapshotRepository,
+                      RecentWasteCache recentWasteCache,
+                      WasteAnalyticsStore wasteAnalyticsStore,
+                      @Value("${user.purge.chunk-size:1000}") int chunkSize,
+                      @Value("${user.purge.max-run-ms:500}") long maxRunMillis) {
+
+        this.userRepository = userRepository;
+        this.wasteRepository = wasteRepository;
+        this.creditEventRepository = creditEventRepository;
+        this.creditSnapshotRepository = creditSnapshotRepository;
+        this.recentWasteCache = recentWasteCache;
+        this.wasteAnalyticsStore = wasteAnalyticsStore;
+        this.chunkSize = chunkSize;
+        this.maxRunNanos = TimeUnit.MILLISECONDS.toNanos(maxRunMillis);
+    }
+
+    public UserPurgeProgress delete(User user) {
+
+        userRepository.markDeletedById(user.getId());
+        // the username may be taken again, the wastes of the deleted user must not be listed as theirs
+        recentWasteCache.evict(user.getUsername());
+        wasteAnalyticsStore.removeUser(user.getId());
+
+        return progressMap.computeIfAbsent(user.getId(), id -> new UserPurgeProgress(id, user.getUsername()));
+    }
+
+    // the username may have been taken again in the meantime, the latest purge is the one of interest
+    public Optional<UserPurgeProgress> getProgress(String username) {
+
+        return progressMap.values()
+                          .stream()
+                          .filter(i -> i.getUsername().equals(username))
+                          .max(Comparator.comparing(UserPurgeProgress::getUserId));
+    }
+
+    @Override
+    public void start() {
+
+        isRunning = true;
+    }
+
+    // a run in progress stops after its current chunk
+    @Override
+    public void stop() {
+
+        isRunning = false;
+
+        synchronized (runLock) {
+            logger.debug("Stopped purging deleted users.");
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+
+        return isRunning;
+    }
+
+    @Scheduled(fixedDelayString = "${user.purge.delay-ms:1000}")
+    public void purge() {
+
+        synchronized (runLock) {
+            if (isRunning) {
+                purgeUsers();
+            }
+        }
+    }
+
+    private void purgeUsers() {
+
+        long deadline = System.nanoTime() + maxRunNanos;
+
+        for (User user : userRepository.findAllByDeletedIsTrue()) {
+            UserPurgeProgress progress =
+                    progressMap.computeIfAbsent(user.getId(), id -> new UserPurgeProgress(id, user.getUsername()));
+
+            if (!purgeUser(progress, deadline)) {
+                break;
+            }
+        }
+
+        LocalDateTime retentionStart = LocalDateTime.now().minusHours(FINISHED_RETENTION_HOURS);
+        progressMap.values().removeIf(i -> i.isFinished() && i.getTimeFinished().isBefore(retentionStart));
+    }
+
+    // returns false if the run is out of time before the user is purged
+    private boolean purgeUser(UserPurgeProgress progress, long deadline) {
+
+        if (progress.getWastesRemaining() < 0) {
+            progress.start(wasteRepository.countByUserId(progress.getUserId()));
+        }
+
+        while (isRunning && deadline - System.nanoTime() > 0) {
+            int wastesDeleted = wasteRepository.deleteChunkByUserId(progress.getUserId(), chunkSize);
+            // credit events are about as many as wastes, they go along chunk by chunk
+            int creditEventsDeleted = creditEventRepository.deleteChunkByUserId(progress.getUserId(), chunkSize);
+            progress.recordChunk(wastesDeleted);
+
+            if (wastesDeleted < chunkSize && creditEventsDeleted < chunkSize) {
+                creditSnapshotRepository.deleteByUserId(progress.getUserId());
+                try {
+                    userRepository.deleteById(progress.getUserId());
+                } catch (DataIntegrityViolationException e) {
+                    // a waste was being added when the user was deleted, it goes with the next chunk
+                    logger.info("User " + progress.getUsername() + " still has wastes, retrying in the next run.");
+                    return true;
+                }
+                progress.finish();
+                logger.info("Purged user " + progress.getUsername() + " and " + progress.getWastesPurged() + " wastes.");
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
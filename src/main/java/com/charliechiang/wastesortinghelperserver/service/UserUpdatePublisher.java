@@ -0,0 +1,120 @@
+package com.charliechiang.wastesortinghelperserver.service;
+
+import com.alibaba.fastjson.JSONObject;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Pushes credit and ranking changes to the signed-in mini-program sessions of each user.
+@Component
+public class UserUpdatePublisher {
+
+    private static final String CREDIT_KEY = "credit";
+    private static final String RANKING_KEY = "ranking";
+
+    private final ConcurrentHashMap<String, Set<CoalescingSender<String>>> subscriberMap = new ConcurrentHashMap<>();
+    private final ExecutorService executor = Executors.newFixedThreadPool(2, runnable -> {
+        Thread thread = new Thread(runnable, "user-update-publisher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public CoalescingSender<String> subscribe(String username, CoalescingSender.TextSink sink) {
+
+        CoalescingSender<String> subscriber = new CoalescingSender<>(executor, sink);
+        subscriberMap.computeIfAbsent(username, key -> new CopyOnWriteArraySet<>()).add(subscriber);
+
+        return subscriber;
+    }
+
+    public void unsubscribe(String username, CoalescingSender<String> subscriber) {
+
+        subscriber.close();
+        subscriberMap.computeIfPresent(username, (key, subscribers) -> {
+            subscribers.remove(subscriber);
+            return subscribers.isEmpty() ? null : subscribers;
+        });
+    }
+
+    public boolean isSubscribed(String username) {
+
+        return subscriberMap.containsKey(username);
+    }
+
+    public int getSubscriberCount() {
+
+        return subscriberMap.values().stream().mapToInt(Set::size).sum();
+    }
+
+    public int getPendingCount() {
+
+        return subscriberMap.values()
+                            .stream()
+                            .flatMap(Set::stream)
+                            .mapToInt(CoalescingSender::getPendingCount)
+                            .sum();
+    }
+
+    // delta is relative to the previous credit push, credit is authoritative if intermediate pushes were skipped
+    public void publishCredit(String username, int credit, int delta) {
+
+        if (!isSubscribed(username) || delta == 0) {
+            return;
+        }
+
+        JSONObject message = new JSONObject();
+        message.put("type", CREDIT_KEY);
+        message.put("credit", credit);
+        message.put("delta", delta);
+
+        publish(username, CREDIT_KEY, message.toJSONString());
+    }
+
+    public void publishRanking(String username,
+                               Integer schoolRanking,
+                               Integer schoolStudentCount,
+                               Integer collegeRanking,
+                               Integer collegeStudentCount) {
+
+        if (!isSubscribed(username)) {
+            return;
+        }
+
+        JSONObject message = new JSONObject();
+        message.put("type", RANKING_KEY);
+        message.put("schoolRanking", schoolRanking);
+        message.put("schoolStudentCount", schoolStudentCount);
+        message.put("collegeRanking", collegeRanking);
+        message.put("collegeStudentCount", collegeStudentCount);
+
+        publish(username, RANKING_KEY, message.toJSONString());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+
+        executor.shutdownNow();
+    }
+
+    private void publish(String username, String key, String text) {
+
+        Set<CoalescingSender<String>> subscribers = subscriberMap.get(username);
+
+        if (subscribers == null) {
+            return;
+        }
+
+        for (CoalescingSender<String> subscriber : subscribers) {
+            if (subscriber.isClosed()) {
+                unsubscribe(username, subscriber);
+            } else {
+                subscriber.offer(key, text);
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.charliechiang.wastesortinghelperserver.service;
+
+import com.charliechiang.wastesortinghelperserver.model.WasteCategory;
+
+import java.time.LocalDate;
+
+// one group of an aggregate query, the dimensions it was not grouped by are null
+public class WasteAggregate {
+
+    private final WasteCategory category;
+    private final Long schoolId;
+    private final Long dustbinId;
+    private final Long userId;
+    // first day of the day or week
+    private final LocalDate period;
+    private final long count;
+    private final double weight;
+    private final long correctlyCategorizedCount;
+
+    public WasteAggregate(WasteCategory category,
+                          Long schoolId,
+                          Long dustbinId,
+                          Long userId,
+                          LocalDate period,
+                          long count,
+                          double weight,
+                          long correctlyCategorizedCount) {
+
+        this.category = category;
+        this.schoolId = schoolId;
+        this.dustbinId = dustbinId;
+        this.userId = userId;
+        this.period = period;
+        this.count = count;
+        this.weight = weight;
+        this.correctlyCategorizedCount = correctlyCategorizedCount;
+    }
+
+    public WasteCategory getCategory() {
+        return category;
+    }
+
+    public Long getSchoolId() {
+        return schoolId;
+    }
+
+    public Long getDustbinId() {
+        return dustbinId;
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public LocalDate getPeriod() {
+        return period;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    // kg
+    public double getWeight() {
+        return weight;
+    }
+
+    public long getCorrectlyCategorizedCount() {
+        return correctlyCategorizedCount;
+    }
+
+    public double getAccuracy() {
+        return (double) correctlyCategorizedCount / count;
+    }
+}
@@ -0,0 +1,11 @@
+package com.charliechiang.wastesortinghelperserver.service;
+
+public enum WasteAggregateDimension {
+    CATEGORY,
+    SCHOOL,
+    DUSTBIN,
+    USER,
+    DAY,
+    // weeks start on Monday
+    WEEK
+}
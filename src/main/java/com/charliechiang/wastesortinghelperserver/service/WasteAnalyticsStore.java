@@ -0,0 +1,607 @@
+package com.charliechiang.wastesortinghelperserver.service;
+
+import com.charliechiang.wastesortinghelperserver.model.WasteCategory;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+
+// Every waste as a row of primitive columns, so aggregates over all of them are computed in memory on all cores
+// instead of by GROUP BY queries competing with deposits for the waste table. Rows are stored in segments of
+// SEGMENT_SIZE; users, schools and dustbins as dense indexes into dictionaries. The store is loaded from the
+// database in the background, then appended to from WasteDeposited events and kept up to date by
+// CategorizationCorrected events and user deletions. Events that arrive during the load are held until it finishes.
+@Component
+public class WasteAnalyticsStore implements SmartInitializingSingleton {
+
+    private static final Log logger = LogFactory.getLog(WasteAnalyticsStore.class);
+
+    // groups a query may produce, every fork-join leaf accumulates into dense arrays of that many entries
+    public static final int MAX_GROUPS = 1 << 16;
+
+    private static final int SEGMENT_SHIFT = 16;
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+    private static final int SECONDS_PER_DAY = 86400;
+    // 1970-01-01 was a Thursday, days are shifted by 3 for weeks to start on Monday
+    private static final int WEEK_SHIFT = 3;
+    private static final int LOAD_CHUNK_SIZE = 50000;
+    private static final long LOAD_RETRY_DELAY_MS = 5000;
+    private static final WasteCategory[] CATEGORIES = WasteCategory.values();
+
+    private static final String LOAD_SQL = "select w.id, w.category, w.weight, w.time, w.user_id, w.dustbin_id,"
+                                           + " w.is_correctly_categorized, u.school_id"
+                                           + " from waste w join user u on u.id = w.user_id"
+                                           + " where w.id > ? and u.deleted = false order by w.id limit ?";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    // appended to under the lock of this, read without it up to size, which is written last
+    private volatile Segment[] segments = new Segment[0];
+    private volatile int size;
+    // seconds since 1970-01-01T00:00 of the local time of the wastes, the int columns last until 2038
+    private volatile int minTime = Integer.MAX_VALUE;
+    private volatile int maxTime = Integer.MIN_VALUE;
+
+    private final Dictionary users = new Dictionary();
+    private final Dictionary schools = new Dictionary();
+    private final Dictionary dustbins = new Dictionary();
+    // school index by user index, from the latest deposit of the user
+    private volatile int[] userSchools = new int[16];
+
+    private final CountDownLatch isLoaded = new CountDownLatch(1);
+    // events recorded before the load has finished, under the lock of this
+    private final List<Object> pendingEvents = new ArrayList<>();
+
+    public WasteAnalyticsStore(DataSource dataSource) {
+
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+
+        Thread thread = new Thread(this::load, "waste-analytics-load");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // keyset pagination keeps every read short, outside a transaction it goes to the primary; a failed chunk is
+    // read again from the last waste loaded
+    private void load() {
+
+        long[] lastId = {0};
+        int[] chunkCount = new int[1];
+
+        do {
+            chunkCount[0] = 0;
+            try {
+                jdbcTemplate.query(LOAD_SQL, (RowCallbackHandler) resultSet -> {
+                    int category = resultSet.getInt("category");
+                    boolean isCategoryNull = resultSet.wasNull();
+                    double weight = resultSet.getDouble("weight");
+                    Timestamp time = resultSet.getTimestamp("time");
+                    long schoolId = resultSet.getLong("school_id");
+                    boolean isSchoolNull = resultSet.wasNull();
+
+                    lastId[0] = resultSet.getLong("id");
+                    chunkCount[0]++;
+
+                    append(lastId[0],
+                           isCategoryNull ? null : CATEGORIES[category],
+                           weight,
+                           time == null ? null : time.toLocalDateTime(),
+                           resultSet.getLong("user_id"),
+                           isSchoolNull ? null : schoolId,
+                           resultSet.getLong("dustbin_id"),
+                           resultSet.getBoolean("is_correctly_categorized"));
+                }, lastId[0], LOAD_CHUNK_SIZE);
+            } catch (DataAccessException e) {
+                logger.error("Failed to load wastes after " + lastId[0] + " into the analytics store, retrying.", e);
+                chunkCount[0] = LOAD_CHUNK_SIZE;
+                try {
+                    Thread.sleep(LOAD_RETRY_DELAY_MS);
+                } catch (InterruptedException interruptedException) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        } while (chunkCount[0] == LOAD_CHUNK_SIZE);
+
+        int loadedCount;
+        synchronized (this) {
+            loadedCount = size;
+            // a deposit saved during the load may have been read by it as well, the loaded rows are in order of ID
+            pendingEvents.removeIf(i -> i instanceof WasteDeposited && isLoaded(((WasteDeposited) i).getWasteId(),
+                                                                               loadedCount));
+            apply(pendingEvents);
+            pendingEvents.clear();
+            isLoaded.countDown();
+        }
+
+        logger.info("Loaded " + loadedCount + " wastes into the analytics store.");
+    }
+
+    public boolean isLoaded() {
+
+        return isLoaded.getCount() == 0;
+    }
+
+    public boolean awaitLoaded(long timeout, TimeUnit unit) throws InterruptedException {
+
+        return isLoaded.await(timeout, unit);
+    }
+
+    // WasteDeposited and CategorizationCorrected events, the lock is taken once per batch
+    public synchronized void record(List<Object> events) {
+
+        if (isLoaded()) {
+            apply(events);
+        } else {
+            pendingEvents.addAll(events);
+        }
+    }
+
+    private void apply(List<Object> events) {
+
+        for (Object event : events) {
+            if (event instanceof WasteDeposited) {
+                WasteDeposited deposit = (WasteDeposited) event;
+
+                append(deposit.getWasteId(),
+                       deposit.getCategory(),
+                       deposit.getWeight() == null ? 0.0 : deposit.getWeight(),
+                       deposit.getTime(),
+                       deposit.getUserId(),
+                       deposit.getSchoolId(),
+                       deposit.getDustbinId(),
+                       deposit.isCorrectlyCategorized());
+            } else if (event instanceof CategorizationCorrected) {
+                recordIncorrectCategorization(((CategorizationCorrected) event).getWasteId());
+            }
+        }
+    }
+
+    // binary search of the first rowCount rows, which are in order of waste ID
+    private boolean isLoaded(long wasteId, int rowCount) {
+
+        int low = 0;
+        int high = rowCount - 1;
+
+        while (low <= high) {
+            int row = (low + high) >>> 1;
+            long rowWasteId = segments[row >>> SEGMENT_SHIFT].wasteId[row & SEGMENT_MASK];
+
+            if (rowWasteId < wasteId) {
+                low = row + 1;
+            } else if (rowWasteId > wasteId) {
+                high = row - 1;
+            } else {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    // reports are about the latest deposits of a dustbin, the rows are searched from the end
+    public synchronized void recordIncorrectCategorization(Long wasteId) {
+
+        for (int row = size - 1; row >= 0; row--) {
+            Segment segment = segments[row >>> SEGMENT_SHIFT];
+            int offset = row & SEGMENT_MASK;
+
+            if (segment.wasteId[offset] == wasteId) {
+                segment.correct[offset >>> 6] &= ~(1L << offset);
+                return;
+            }
+        }
+    }
+
+    public synchronized void removeUser(Long userId) {
+
+        Integer userIndex = users.find(userId);
+
+        if (userIndex == null) {
+            return;
+        }
+
+        for (int row = 0; row < size; row++) {
+            Segment segment = segments[row >>> SEGMENT_SHIFT];
+            int offset = row & SEGMENT_MASK;
+
+            if (segment.user[offset] == userIndex) {
+                segment.removed[offset >>> 6] |= 1L << offset;
+            }
+        }
+    }
+
+    public int getSize() {
+
+        return size;
+    }
+
+    // from is inclusive, to exclusive, either may be null; the filters are null for all wastes
+    public List<WasteAggregate> aggregate(Set<WasteAggregateDimension> groupBy,
+                                          LocalDate from,
+                                          LocalDate to,
+                                          Long schoolId,
+                                          Long dustbinId,
+                                          WasteCategory category) {
+
+        if (groupBy.contains(WasteAggregateDimension.DAY) && groupBy.contains(WasteAggregateDimension.WEEK)) {
+            throw new IllegalArgumentException("Wastes can be grouped by day or by week, not both.");
+        }
+
+        Query query = snapshot();
+        int rowCount = query.rowCount;
+        if (rowCount == 0) {
+            return new ArrayList<>();
+        }
+
+        query.fromTime = from == null ? query.minTime : toSeconds(from);
+        query.toTime = to == null ? query.maxTime + 1 : toSeconds(to);
+        query.categoryFilter = category == null ? -1 : category.ordinal() + 1;
+        query.schoolFilter = indexOrMissing(schools, schoolId);
+        query.dustbinFilter = indexOrMissing(dustbins, dustbinId);
+
+        if (query.fromTime >= query.toTime || query.schoolFilter == Integer.MAX_VALUE
+            || query.dustbinFilter == Integer.MAX_VALUE) {
+            return new ArrayList<>();
+        }
+
+        if (groupBy.contains(WasteAggregateDimension.WEEK)) {
+            query.periodDays = 7;
+            query.periodShift = WEEK_SHIFT;
+        } else if (groupBy.contains(WasteAggregateDimension.DAY)) {
+            query.periodDays = 1;
+        }
+
+        int periodCount = 1;
+        if (query.periodDays > 0) {
+            query.firstPeriod = query.getPeriod(query.fromTime);
+            periodCount = query.getPeriod(query.toTime - 1) - query.firstPeriod + 1;
+        }
+
+        // mixed radix, the multiplier of a dimension that is not grouped by is 0
+        long groupCount = 1;
+        int[] cardinalities = {CATEGORIES.length + 1, query.schoolCount, query.dustbinCount, query.userCount, periodCount};
+        WasteAggregateDimension[] dimensions = {WasteAggregateDimension.CATEGORY,
+                                                WasteAggregateDimension.SCHOOL,
+                                                WasteAggregateDimension.DUSTBIN,
+                                                WasteAggregateDimension.USER,
+                                                query.periodDays == 7 ? WasteAggregateDimension.WEEK : WasteAggregateDimension.DAY};
+        int[] multipliers = new int[dimensions.length];
+
+        for (int i = 0; i < dimensions.length; i++) {
+            if (groupBy.contains(dimensions[i])) {
+                multipliers[i] = (int) groupCount;
+                groupCount *= cardinalities[i];
+
+                if (groupCount > MAX_GROUPS) {
+                    throw new IllegalArgumentException("The query would produce more than " + MAX_GROUPS
+                                                       + " groups, narrow the time range or group by fewer dimensions.");
+                }
+            }
+        }
+
+        query.groupCount = (int) groupCount;
+        query.categoryMultiplier = multipliers[0];
+        query.schoolMultiplier = multipliers[1];
+        query.dustbinMultiplier = multipliers[2];
+        query.userMultiplier = multipliers[3];
+        query.periodMultiplier = multipliers[4];
+        query.leafRows = Math.max(SEGMENT_SIZE, rowCount / (ForkJoinPool.getCommonPoolParallelism() * 4));
+
+        Partial result = ForkJoinPool.commonPool().invoke(new AggregateTask(query, 0, rowCount));
+
+        List<WasteAggregate> aggregates = new ArrayList<>();
+
+        for (int key = 0; key < query.groupCount; key++) {
+            if (result.count[key] == 0) {
+                continue;
+            }
+
+            int[] values = new int[dimensions.length];
+            for (int i = 0; i < dimensions.length; i++) {
+                values[i] = multipliers[i] == 0 ? 0 : key / multipliers[i] % cardinalities[i];
+            }
+
+            aggregates.add(new WasteAggregate(
+                    groupBy.contains(WasteAggregateDimension.CATEGORY) && values[0] > 0 ? CATEGORIES[values[0] - 1] : null,
+                    groupBy.contains(WasteAggregateDimension.SCHOOL) ? schools.idAt(values[1]) : null,
+                    groupBy.contains(WasteAggregateDimension.DUSTBIN) ? dustbins.idAt(values[2]) : null,
+                    groupBy.contains(WasteAggregateDimension.USER) ? users.idAt(values[3]) : null,
+                    query.periodDays > 0 ? LocalDate.ofEpochDay((long) (query.firstPeriod + values[4]) * query.periodDays
+                                                                - query.periodShift) : null,
+                    result.count[key],
+                    result.weight[key],
+                    result.correct[key]));
+        }
+
+        return aggregates;
+    }
+
+    // taken under the lock, so every index of the rows below rowCount is below the counts taken with it. userSchools
+    // is copied, a later deposit may move a user to a school added after the snapshot.
+    private synchronized Query snapshot() {
+
+        Query query = new Query(segments, Arrays.copyOf(userSchools, users.count));
+
+        query.rowCount = size;
+        query.schoolCount = schools.count;
+        query.dustbinCount = dustbins.count;
+        query.userCount = users.count;
+        query.minTime = minTime;
+        query.maxTime = maxTime;
+
+        return query;
+    }
+
+    private synchronized void append(long wasteId,
+                                     WasteCategory category,
+                                     double weight,
+                                     LocalDateTime time,
+                                     Long userId,
+                                     Long schoolId,
+                                     Long dustbinId,
+                                     boolean isCorrectlyCategorized) {
+
+        int row = size;
+        int segmentIndex = row >>> SEGMENT_SHIFT;
+
+        if (segmentIndex == segments.length) {
+            Segment[] grownSegments = Arrays.copyOf(segments, segmentIndex + 1);
+            grownSegments[segmentIndex] = new Segment();
+            segments = grownSegments;
+        }
+
+        int userIndex = users.indexOf(userId);
+        if (userIndex >= userSchools.length) {
+            userSchools = Arrays.copyOf(userSchools, userSchools.length * 2);
+        }
+        userSchools[userIndex] = schools.indexOf(schoolId);
+
+        Segment segment = segments[segmentIndex];
+        int offset = row & SEGMENT_MASK;
+        int seconds = time == null ? 0 : (int) time.toEpochSecond(ZoneOffset.UTC);
+
+        segment.category[offset] = (byte) (category == null ? 0 : category.ordinal() + 1);
+        segment.weight[offset] = (float) weight;
+        segment.time[offset] = seconds;
+        segment.user[offset] = userIndex;
+        segment.dustbin[offset] = dustbins.indexOf(dustbinId);
+        segment.wasteId[offset] = wasteId;
+        if (isCorrectlyCategorized) {
+            segment.correct[offset >>> 6] |= 1L << offset;
+        }
+
+        minTime = Math.min(minTime, seconds);
+        maxTime = Math.max(maxTime, seconds);
+        size = row + 1;
+    }
+
+    // -1 to not filter, MAX_VALUE for an ID no waste refers to
+    private static int indexOrMissing(Dictionary dictionary, Long id) {
+
+        if (id == null) {
+            return -1;
+        }
+
+        Integer index = dictionary.find(id);
+
+        return index == null ? Integer.MAX_VALUE : index;
+    }
+
+    private static int toSeconds(LocalDate date) {
+
+        long seconds = date.atStartOfDay().toEpochSecond(ZoneOffset.UTC);
+
+        return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, seconds));
+    }
+
+    private static class Segment {
+
+        private final byte[] category = new byte[SEGMENT_SIZE];
+        private final float[] weight = new float[SEGMENT_SIZE];
+        private final int[] time = new int[SEGMENT_SIZE];
+        private final int[] user = new int[SEGMENT_SIZE];
+        private final int[] dustbin = new int[SEGMENT_SIZE];
+        private final long[] wasteId = new long[SEGMENT_SIZE];
+        private final long[] correct = new long[SEGMENT_SIZE / 64];
+        private final long[] removed = new long[SEGMENT_SIZE / 64];
+    }
+
+    // index 0 stands for no ID
+    private static class Dictionary {
+
+        private final ConcurrentHashMap<Long, Integer> indexMap = new ConcurrentHashMap<>();
+        private volatile long[] ids = new long[16];
+        private volatile int count = 1;
+
+        // under the lock of the store
+        int indexOf(Long id) {
+
+            if (id == null) {
+                return 0;
+            }
+
+            Integer index = indexMap.get(id);
+            if (index != null) {
+                return index;
+            }
+
+            if (count == ids.length) {
+                ids = Arrays.copyOf(ids, count * 2);
+            }
+            ids[count] = id;
+            indexMap.put(id, count);
+
+            return count++;
+        }
+
+        Integer find(Long id) {
+
+            return indexMap.get(id);
+        }
+
+        Long idAt(int index) {
+
+            return index == 0 ? null : ids[index];
+        }
+    }
+
+    private static class Query {
+
+        private final Segment[] segments;
+        private final int[] userSchools;
+
+        private int rowCount;
+        private int schoolCount;
+        private int dustbinCount;
+        private int userCount;
+        private int minTime;
+        private int maxTime;
+
+        private int fromTime;
+        private int toTime;
+        private int categoryFilter;
+        private int schoolFilter;
+        private int dustbinFilter;
+
+        private int periodDays;
+        private int periodShift;
+        private int firstPeriod;
+
+        private int groupCount;
+        private int categoryMultiplier;
+        private int schoolMultiplier;
+        private int dustbinMultiplier;
+        private int userMultiplier;
+        private int periodMultiplier;
+        private int leafRows;
+
+        Query(Segment[] segments, int[] userSchools) {
+
+            this.segments = segments;
+            this.userSchools = userSchools;
+        }
+
+        int getPeriod(int seconds) {
+
+            return Math.floorDiv(Math.floorDiv(seconds, SECONDS_PER_DAY) + periodShift, periodDays);
+        }
+    }
+
+    private static class Partial {
+
+        private final long[] count;
+        private final double[] weight;
+        private final long[] correct;
+
+        Partial(int groupCount) {
+
+            this.count = new long[groupCount];
+            this.weight = new double[groupCount];
+            this.correct = new long[groupCount];
+        }
+
+        Partial add(Partial other) {
+
+            for (int i = 0; i < count.length; i++) {
+                count[i] += other.count[i];
+                weight[i] += other.weight[i];
+                correct[i] += other.correct[i];
+            }
+
+            return this;
+        }
+    }
+
+    private static class AggregateTask extends RecursiveTask<Partial> {
+
+        private final Query query;
+        private final int start;
+        private final int end;
+
+        AggregateTask(Query query, int start, int end) {
+
+            this.query = query;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected Partial compute() {
+
+            if (end - start > query.leafRows) {
+                int middle = (start + end) >>> 1;
+                AggregateTask left = new AggregateTask(query, start, middle);
+                left.fork();
+
+                return new AggregateTask(query, middle, end).compute().add(left.join());
+            }
+
+            Partial partial = new Partial(query.groupCount);
+            int row = start;
+
+            while (row < end) {
+                Segment segment = query.segments[row >>> SEGMENT_SHIFT];
+                int segmentEnd = Math.min(end, ((row >>> SEGMENT_SHIFT) + 1) << SEGMENT_SHIFT);
+
+                for (int offset = row & SEGMENT_MASK; row < segmentEnd; row++, offset++) {
+                    if ((segment.removed[offset >>> 6] & (1L << offset)) != 0) {
+                        continue;
+                    }
+
+                    int time = segment.time[offset];
+                    int category = segment.category[offset];
+                    int dustbin = segment.dustbin[offset];
+                    int user = segment.user[offset];
+                    int school = query.userSchools[user];
+
+                    if (time < query.fromTime || time >= query.toTime
+                        || (query.categoryFilter >= 0 && category != query.categoryFilter)
+                        || (query.dustbinFilter >= 0 && dustbin != query.dustbinFilter)
+                        || (query.schoolFilter >= 0 && school != query.schoolFilter)) {
+                        continue;
+                    }
+
+                    int key = category * query.categoryMultiplier
+                              + school * query.schoolMultiplier
+                              + dustbin * query.dustbinMultiplier
+                              + user * query.userMultiplier;
+                    if (query.periodDays > 0) {
+                        key += (query.getPeriod(time) - query.firstPeriod) * query.periodMultiplier;
+                    }
+
+                    partial.count[key]++;
+                    partial.weight[key] += segment.weight[offset];
+                    if ((segment.correct[offset >>> 6] & (1L << offset)) != 0) {
+                        partial.correct[key]++;
+                    }
+                }
+            }
+
+            return partial;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.charliechiang.wastesortinghelperserver.service;
+
+import com.charliechiang.wastesortinghelperserver.model.Waste;
+import com.charliechiang.wastesortinghelperserver.model.WasteCategory;
+
+import java.time.LocalDateTime;
+
+// published once a deposit is saved, the waste is copied as the entity is not safe to read from other threads
+public class WasteDeposited {
+
+    private final Long wasteId;
+    private final Long userId;
+    private final String username;
+    private final Long schoolId;
+    private final Long dustbinId;
+    private final WasteCategory category;
+    private final Double weight;
+    private final LocalDateTime time;
+    private final boolean isCorrectlyCategorized;
+
+    public WasteDeposited(Waste waste) {
+
+        this.wasteId = waste.getId();
+        this.userId = waste.getUser().getId();
+        this.username = waste.getUser().getUsername();
+        this.schoolId = waste.getUser().getSchool() == null ? null : waste.getUser().getSchool().getId();
+        this.dustbinId = waste.getDustbin().getId();
+        this.category = waste.getCategory();
+        this.weight = waste.getWeight();
+        this.time = waste.getTime();
+        this.isCorrectlyCategorized = Boolean.TRUE.equals(waste.getCorrectlyCategorized());
+    }
+
+    public Long getWasteId() {
+        return wasteId;
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public Long getSchoolId() {
+        return schoolId;
+    }
+
+    public Long getDustbinId() {
+        return dustbinId;
+    }
+
+    public WasteCategory getCategory() {
+        return category;
+    }
+
+    public Double getWeight() {
+        return weight;
+    }
+
+    public LocalDateTime getTime() {
+        return time;
+    }
+
+    public boolean isCorrectlyCategorized() {
+        return isCorrectlyCategorized;
+    }
+}
@@ -0,0 +1,57 @@
+package com.charliechiang.wastesortinghelperserver.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+import javax.websocket.Session;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// Connection and send metrics shared by the WebSocket endpoints, tagged with the endpoint name.
+@Component
+public class WebSocketMetrics {
+
+    private final MeterRegistry meterRegistry;
+
+    public WebSocketMetrics(MeterRegistry meterRegistry) {
+
+        this.meterRegistry = meterRegistry;
+    }
+
+    public void connected(String endpoint) {
+
+        meterRegistry.counter("websocket.connections.opened", "endpoint", endpoint).increment();
+    }
+
+    public void disconnected(String endpoint) {
+
+        meterRegistry.counter("websocket.connections.closed", "endpoint", endpoint).increment();
+    }
+
+    public void sendText(String endpoint, Session session, String text) throws IOException {
+
+        long startTime = System.nanoTime();
+        String outcome = "error";
+
+        try {
+            session.getBasicRemote().sendText(text);
+            outcome = "success";
+        } finally {
+            meterRegistry.timer("websocket.messages.sent", "endpoint", endpoint, "outcome", outcome)
+                         .record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public void sendTextAsync(String endpoint, Session session, String text, Consumer<Throwable> onSent) {
+
+        long startTime = System.nanoTime();
+
+        session.getAsyncRemote().sendText(text, result -> {
+            String outcome = result.isOK() ? "success" : "error";
+            meterRegistry.timer("websocket.messages.sent", "endpoint", endpoint, "outcome", outcome)
+                         .record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+            onSent.accept(result.isOK() ? null : result.getException());
+        });
+    }
+}
@@ -0,0 +1,137 @@
+package com.charliechiang.wastesortinghelperserver;
+
+import com.charliechiang.wastesortinghelperserver.config.AdmissionControlProperties;
+import com.charliechiang.wastesortinghelperserver.security.AdmissionControlFilter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.FilterChain;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Five permits, one reserved for devices and one more for users. Requests are held inside the filter chain until
+// the test releases them, so the permits they took stay taken while other requests arrive.
+class AdmissionControlFilterTests {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final AdmissionControlFilter admissionControlFilter = new AdmissionControlFilter(properties(), meterRegistry);
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final CountDownLatch isReleased = new CountDownLatch(1);
+
+    @AfterEach
+    void tearDown() {
+
+        isReleased.countDown();
+        executor.shutdownNow();
+    }
+
+    @Test
+    void lowerPrioritiesAreShedFirst() throws Exception {
+
+        // three users leave two permits, the reserve of devices and users
+        hold("GET", "/api/v1/users/me", 3);
+
+        assertEquals(503, perform("GET", "/api/v1/wastes"));
+        assertEquals(200, perform("GET", "/api/v1/users/me"));
+
+        hold("GET", "/api/v1/users/me", 1);
+
+        assertEquals(503, perform("GET", "/api/v1/users/me"));
+        assertEquals(200, perform("POST", "/api/v1/wastes"));
+
+        hold("POST", "/api/v1/wastes", 1);
+
+        // waits for device-wait-ms before it is shed as well
+        assertEquals(503, perform("POST", "/api/v1/dustbins/1/full"));
+        // handshakes are never held back
+        assertEquals(200, perform("GET", "/api/v1/ws/dustbins/1"));
+
+        assertEquals(1, meterRegistry.get("http.server.requests.shed").tag("priority", "bulk").counter().count());
+        assertEquals(1, meterRegistry.get("http.server.requests.shed").tag("priority", "user").counter().count());
+        assertEquals(1, meterRegistry.get("http.server.requests.shed").tag("priority", "device").counter().count());
+        assertEquals(4, meterRegistry.get("http.server.requests.admitted").tag("priority", "user").gauge().value());
+    }
+
+    @Test
+    void bulkRequestsHaveALimitOfTheirOwn() throws Exception {
+
+        hold("GET", "/api/v1/users", 1);
+
+        assertEquals(503, perform("POST", "/api/v1/users/import"));
+        assertEquals(200, perform("GET", "/api/v1/users/me"));
+    }
+
+    @Test
+    void permitsAreReturnedOnceRequestsFinish() throws Exception {
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(200, perform("GET", "/api/v1/wastes"));
+        }
+        assertEquals(0, meterRegistry.get("http.server.requests.shed").tag("priority", "bulk").counter().count());
+    }
+
+    // returns once the requests are inside the filter chain
+    private void hold(String method, String path, int count) throws InterruptedException {
+
+        CountDownLatch isAdmitted = new CountDownLatch(count);
+
+        for (int i = 0; i < count; i++) {
+            executor.submit(() -> {
+                admissionControlFilter.doFilter(new MockHttpServletRequest(method, path),
+                                                new MockHttpServletResponse(),
+                                                (request, response) -> {
+                                                    isAdmitted.countDown();
+                                                    await(isReleased);
+                                                });
+                return null;
+            });
+        }
+
+        assertTrue(isAdmitted.await(5, TimeUnit.SECONDS));
+    }
+
+    private int perform(String method, String path) throws Exception {
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        FilterChain filterChain = (request, res) -> { };
+
+        admissionControlFilter.doFilter(new MockHttpServletRequest(method, path), response, filterChain);
+
+        if (response.getStatus() == 503) {
+            assertEquals("1", response.getHeader(HttpHeaders.RETRY_AFTER));
+        }
+
+        return response.getStatus();
+    }
+
+    private static void await(CountDownLatch latch) {
+
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static AdmissionControlProperties properties() {
+
+        AdmissionControlProperties properties = new AdmissionControlProperties();
+        properties.setMaxConcurrent(5);
+        properties.setDeviceReserved(1);
+        properties.setUserReserved(1);
+        properties.setBulkMaxConcurrent(1);
+        properties.setDeviceWaitMs(50);
+
+        return properties;
+    }
+}
@@ -0,0 +1,135 @@
+package com.charliechiang.wastesortinghelperserver;
+
+import com.charliechiang.wastesortinghelperserver.model.User;
+import com.charliechiang.wastesortinghelperserver.repository.UserRepository;
+import com.charliechiang.wastesortinghelperserver.service.CreditLedger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// Changes the credit of one user from many threads at once. Every thread works on a copy of the user loaded
+// before any change was made, as concurrent requests do, so a change computed from that copy would be lost.
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+                properties = "spring.datasource.url=jdbc:h2:mem:credit;MODE=MySQL;DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=10000")
+@ActiveProfiles("test")
+class CreditLedgerConcurrencyTests {
+
+    private static final int THREAD_COUNT = 8;
+    private static final int CHANGES_PER_THREAD = 50;
+    private static final AtomicInteger userSequence = new AtomicInteger();
+
+    @Autowired
+    private CreditLedger creditLedger;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    private ExecutorService executor;
+    private User user;
+
+    @BeforeEach
+    void setUp() {
+
+        executor = Executors.newFixedThreadPool(THREAD_COUNT);
+
+        user = new User();
+        user.setUsername("credit" + userSequence.incrementAndGet());
+        user.setRoles(List.of("ROLE_USER"));
+        user = userRepository.save(user);
+    }
+
+    @AfterEach
+    void tearDown() {
+
+        executor.shutdownNow();
+    }
+
+    @Test
+    void concurrentOffsetsAreNotLost() throws Exception {
+
+        runConcurrently(i -> creditLedger.offset(staleCopy(), 1));
+
+        int credit = getCredit();
+        assertEquals(THREAD_COUNT * CHANGES_PER_THREAD, credit);
+        assertEquals(credit, creditLedger.rebuild(staleCopy(), true));
+    }
+
+    // with the credit clamped at zero the result depends on the order of the changes, the ledger has to
+    // record the order in which they were applied
+    @Test
+    void ledgerReplaysToTheStoredCreditUnderContention() throws Exception {
+
+        runConcurrently(i -> {
+            switch (i % 4) {
+                case 0:
+                    creditLedger.offset(staleCopy(), -3);
+                    break;
+                case 1:
+                    creditLedger.set(staleCopy(), i % 7);
+                    break;
+                default:
+                    creditLedger.offset(staleCopy(), 2);
+                    break;
+            }
+        });
+
+        int credit = getCredit();
+        assertEquals(credit, creditLedger.rebuild(staleCopy(), true));
+        assertEquals(credit, creditLedger.rebuild(staleCopy(), false));
+    }
+
+    private void runConcurrently(Change change) throws Exception {
+
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+
+        for (int thread = 0; thread < THREAD_COUNT; thread++) {
+            int offset = thread * CHANGES_PER_THREAD;
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < CHANGES_PER_THREAD; i++) {
+                    change.apply(offset + i);
+                }
+                return null;
+            }));
+        }
+
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+    }
+
+    private User staleCopy() {
+
+        User copy = new User();
+        copy.setId(user.getId());
+        copy.setUsername(user.getUsername());
+        copy.setCredit(0);
+
+        return copy;
+    }
+
+    private int getCredit() {
+
+        return userRepository.findByUsername(user.getUsername()).orElseThrow().getCredit();
+    }
+
+    private interface Change {
+
+        void apply(int i);
+    }
+}
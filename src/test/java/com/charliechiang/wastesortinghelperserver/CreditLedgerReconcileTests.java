@@ -0,0 +1,114 @@
+package com.charliechiang.wastesortinghelperserver;
+
+import com.charliechiang.wastesortinghelperserver.model.CreditEvent;
+import com.charliechiang.wastesortinghelperserver.model.CreditEventType;
+import com.charliechiang.wastesortinghelperserver.model.Dustbin;
+import com.charliechiang.wastesortinghelperserver.model.User;
+import com.charliechiang.wastesortinghelperserver.model.Waste;
+import com.charliechiang.wastesortinghelperserver.model.WasteCategory;
+import com.charliechiang.wastesortinghelperserver.repository.CreditEventRepository;
+import com.charliechiang.wastesortinghelperserver.repository.DustbinRepository;
+import com.charliechiang.wastesortinghelperserver.repository.UserRepository;
+import com.charliechiang.wastesortinghelperserver.repository.WasteRepository;
+import com.charliechiang.wastesortinghelperserver.service.CreditLedger;
+import com.charliechiang.wastesortinghelperserver.service.WasteDeposited;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// Wastes are saved without their events reaching the ledger, as when the server stops with the events still in
+// the ring or the event bus gives up on them. The startup of the ledger is run again by hand to make up for them.
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+                properties = "spring.datasource.url=jdbc:h2:mem:reconcile;MODE=MySQL;DB_CLOSE_DELAY=-1")
+@ActiveProfiles("test")
+class CreditLedgerReconcileTests {
+
+    @Autowired
+    private CreditLedger creditLedger;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private WasteRepository wasteRepository;
+
+    @Autowired
+    private DustbinRepository dustbinRepository;
+
+    @Autowired
+    private CreditEventRepository creditEventRepository;
+
+    @Test
+    void missedDepositsAndReportsAreCreditedOnStartup() {
+
+        User user = new User();
+        user.setUsername("reconciled");
+        user.setRoles(List.of("ROLE_USER"));
+        user = userRepository.save(user);
+        Dustbin dustbin = dustbinRepository.save(new Dustbin("Dustbin", 40.15, 116.28));
+
+        Waste recordedWaste = saveWaste(user, WasteCategory.FOOD_WASTE, dustbin);
+        creditLedger.record(List.of(new WasteDeposited(recordedWaste)));
+
+        Waste missedWaste = saveWaste(user, WasteCategory.FOOD_WASTE, dustbin);
+
+        // credited, then reported without the report reaching the ledger
+        Waste reportedWaste = saveWaste(user, WasteCategory.RECYCLABLE_WASTE, dustbin);
+        creditLedger.record(List.of(new WasteDeposited(reportedWaste)));
+        reportedWaste.setCorrectlyCategorized(false);
+        wasteRepository.save(reportedWaste);
+
+        // worth no credit, the ledger records nothing for it
+        saveWaste(user, WasteCategory.RESIDUAL_WASTE, dustbin);
+
+        creditLedger.afterSingletonsInstantiated();
+        // a second startup finds nothing left to make up for
+        creditLedger.afterSingletonsInstantiated();
+
+        Map<Long, List<CreditEventType>> eventTypes =
+                creditEventRepository.findAllByUserIdOrderByIdDesc(user.getId(), Pageable.unpaged())
+                                     .stream()
+                                     .collect(Collectors.groupingBy(CreditEvent::getWasteId,
+                                                                    Collectors.mapping(CreditEvent::getType,
+                                                                                       Collectors.toList())));
+
+        assertEquals(3, eventTypes.size());
+        assertEquals(List.of(CreditEventType.DEPOSIT), eventTypes.get(recordedWaste.getId()));
+        assertEquals(List.of(CreditEventType.DEPOSIT), eventTypes.get(missedWaste.getId()));
+        assertEquals(List.of(CreditEventType.CORRECTION, CreditEventType.DEPOSIT), eventTypes.get(reportedWaste.getId()));
+        // 1 for each of the deposits, less 2 for the report
+        assertEquals(1, userRepository.findById(user.getId()).orElseThrow().getCredit());
+    }
+
+    @Test
+    void depositsTheEventBusGaveUpOnAreRecordedBeforeTheNextBatch() {
+
+        User user = new User();
+        user.setUsername("abandoned");
+        user.setRoles(List.of("ROLE_USER"));
+        user = userRepository.save(user);
+        Dustbin dustbin = dustbinRepository.save(new Dustbin("Abandoned", 40.15, 116.28));
+
+        creditLedger.abandon(List.of(new WasteDeposited(saveWaste(user, WasteCategory.FOOD_WASTE, dustbin))));
+        assertEquals(1, creditLedger.getMissedCount());
+
+        creditLedger.record(List.of(new WasteDeposited(saveWaste(user, WasteCategory.RECYCLABLE_WASTE, dustbin))));
+
+        assertEquals(0, creditLedger.getMissedCount());
+        assertEquals(2, userRepository.findById(user.getId()).orElseThrow().getCredit());
+    }
+
+    private Waste saveWaste(User user, WasteCategory category, Dustbin dustbin) {
+
+        return wasteRepository.save(new Waste(user, category, 0.5, dustbin, LocalDateTime.now()));
+    }
+}
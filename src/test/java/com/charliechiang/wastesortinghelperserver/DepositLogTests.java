@@ -0,0 +1,135 @@
+package com.charliechiang.wastesortinghelperserver;
+
+import com.charliechiang.wastesortinghelperserver.model.WasteCategory;
+import com.charliechiang.wastesortinghelperserver.service.DepositLog;
+import com.charliechiang.wastesortinghelperserver.service.PendingDeposit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+// Reopens the log as a restarted server would, without the database or the rest of the application.
+class DepositLogTests {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void deferredDepositsAreFoundAfterRestart() throws IOException {
+
+        LocalDateTime time = LocalDateTime.of(2021, 5, 1, 12, 30, 15, 123456789);
+
+        DepositLog depositLog = open(4096);
+        long savedPosition = depositLog.append(new PendingDeposit("2019211915", 1L, 0.25, WasteCategory.FOOD_WASTE, time));
+        long deferredPosition = depositLog.append(new PendingDeposit("key", "2019211916", 2L, 7L, null, null, time));
+        depositLog.remove(savedPosition);
+        depositLog.defer(deferredPosition);
+        depositLog.close();
+
+        depositLog = open(4096);
+        assertEquals(1, depositLog.getPendingCount());
+        assertEquals(7L, depositLog.getMaxSequence(2L));
+        assertNull(depositLog.getMaxSequence(1L));
+
+        PendingDeposit deposit = depositLog.read(depositLog.pollDeferred());
+        assertEquals("key", deposit.getDepositKey());
+        assertEquals("2019211916", deposit.getUsername());
+        assertEquals(2L, deposit.getDustbinId());
+        assertEquals(7L, deposit.getSequence());
+        assertNull(deposit.getWeight());
+        assertNull(deposit.getCategory());
+        assertEquals(time, deposit.getTime());
+        assertNull(depositLog.pollDeferred());
+        depositLog.close();
+    }
+
+    @Test
+    void damagedRecordEndsTheSegment() throws IOException {
+
+        DepositLog depositLog = open(4096);
+        depositLog.append(deposit("2019211915"));
+        long damagedPosition = depositLog.append(deposit("2019211916"));
+        depositLog.append(deposit("2019211917"));
+        depositLog.close();
+
+        // a byte of the username of the second deposit
+        try (RandomAccessFile file = new RandomAccessFile(getSegments().get(0).toFile(), "rw")) {
+            file.seek((int) damagedPosition + 12);
+            file.write('x');
+        }
+
+        depositLog = open(4096);
+        assertEquals(1, depositLog.getPendingCount());
+        assertEquals("2019211915", depositLog.read(depositLog.pollDeferred()).getUsername());
+        depositLog.close();
+    }
+
+    @Test
+    void segmentsAreDeletedOnceTheirDepositsAreRemoved() throws IOException {
+
+        DepositLog depositLog = open(256);
+        List<Long> positions = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            positions.add(depositLog.append(deposit(String.valueOf(2019211900 + i))));
+        }
+        assertEquals(getSegments().size(), depositLog.getSegmentCount());
+
+        for (long position : positions) {
+            depositLog.remove(position);
+        }
+        // the segment appended to is kept
+        assertEquals(1, depositLog.getSegmentCount());
+        assertEquals(1, getSegments().size());
+        depositLog.close();
+
+        depositLog = open(256);
+        assertEquals(0, depositLog.getPendingCount());
+        assertEquals(1, getSegments().size());
+        depositLog.close();
+    }
+
+    @Test
+    void discardedPositionIsCountedEvenIfItsSegmentIsGone() throws IOException {
+
+        DepositLog depositLog = open(4096);
+        depositLog.discard(depositLog.append(deposit("2019211915")));
+        depositLog.discard(999L << 32);
+
+        assertEquals(0, depositLog.getPendingCount());
+        assertEquals(2, depositLog.getDroppedCount());
+        depositLog.close();
+    }
+
+    private DepositLog open(int segmentBytes) throws IOException {
+
+        DepositLog depositLog = new DepositLog(directory.toString(), segmentBytes);
+        depositLog.open();
+
+        return depositLog;
+    }
+
+    private List<Path> getSegments() throws IOException {
+
+        try (Stream<Path> stream = Files.list(directory)) {
+            return stream.filter(i -> i.getFileName().toString().endsWith(".log"))
+                         .sorted()
+                         .collect(Collectors.toList());
+        }
+    }
+
+    private static PendingDeposit deposit(String username) {
+
+        return new PendingDeposit(username, 1L, 0.5, WasteCategory.RECYCLABLE_WASTE, LocalDateTime.now());
+    }
+}
@@ -0,0 +1,88 @@
+package com.charliechiang.wastesortinghelperserver;
+
+import com.charliechiang.wastesortinghelperserver.controller.WasteController;
+import com.charliechiang.wastesortinghelperserver.model.Dustbin;
+import com.charliechiang.wastesortinghelperserver.model.User;
+import com.charliechiang.wastesortinghelperserver.model.WasteCategory;
+import com.charliechiang.wastesortinghelperserver.repository.DustbinRepository;
+import com.charliechiang.wastesortinghelperserver.repository.UserRepository;
+import com.charliechiang.wastesortinghelperserver.repository.WasteRepository;
+import com.charliechiang.wastesortinghelperserver.service.DepositLog;
+import com.charliechiang.wastesortinghelperserver.service.PendingDeposit;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+// The scheduled replay is held off, so the test decides when it runs. Deposits are put in the log as a server that
+// stopped at the wrong moment would have left them.
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+                properties = {"spring.datasource.url=jdbc:h2:mem:replay;MODE=MySQL;DB_CLOSE_DELAY=-1",
+                              "deposit.log.replay-delay-ms=3600000"})
+@ActiveProfiles("test")
+class DepositReplayTests {
+
+    @Autowired
+    private WasteController wasteController;
+
+    @Autowired
+    private DepositLog depositLog;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private DustbinRepository dustbinRepository;
+
+    @Autowired
+    private WasteRepository wasteRepository;
+
+    @Test
+    void replayNeitherSavesTwiceNorStopsAtADepositItCannotSave() throws IOException {
+
+        User user = new User();
+        user.setUsername("replayed");
+        user.setRoles(List.of("ROLE_USER"));
+        user = userRepository.save(user);
+        Dustbin dustbin = dustbinRepository.save(new Dustbin("Dustbin", 40.15, 116.28));
+
+        PendingDeposit deposit = deposit("replayed", dustbin, 1L);
+        assertNotNull(wasteController.saveDeposit(depositLog.append(deposit)));
+
+        // saved, but the server stopped before the log was told
+        depositLog.defer(depositLog.append(deposit));
+        depositLog.defer(depositLog.append(deposit("missing", dustbin, 2L)));
+        // sent again by the dustbin after a restart, under a new key
+        depositLog.defer(depositLog.append(deposit("replayed", dustbin, 1L)));
+        // in a segment that has been lost
+        depositLog.defer(999L << 32);
+
+        wasteController.replayDeposits();
+
+        assertEquals(1, wasteRepository.countByUserId(user.getId()));
+        assertEquals(2L, wasteController.findAcknowledgedSequence(dustbin.getId()));
+        assertFalse(depositLog.hasDeferred());
+        assertEquals(0, depositLog.getPendingCount());
+        assertEquals(2, depositLog.getDroppedCount());
+    }
+
+    private static PendingDeposit deposit(String username, Dustbin dustbin, Long sequence) {
+
+        return new PendingDeposit(UUID.randomUUID().toString(),
+                                  username,
+                                  dustbin.getId(),
+                                  sequence,
+                                  0.5,
+                                  WasteCategory.FOOD_WASTE,
+                                  LocalDateTime.now());
+    }
+}
@@ -0,0 +1,188 @@
+package com.charliechiang.wastesortinghelperserver;
+
+import com.charliechiang.wastesortinghelperserver.service.DomainEventBus;
+import com.charliechiang.wastesortinghelperserver.service.DomainEventBus.OverflowPolicy;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.QueryTimeoutException;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// A ring of 16 events, so a consumer falls a whole ring behind after a handful of events. Stopping the bus waits
+// for the consumers to catch up, which is when their results are checked.
+class DomainEventBusTests {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final DomainEventBus domainEventBus = new DomainEventBus(16, 4, 5000, 1000, meterRegistry);
+
+    @Test
+    void blockingConsumerSeesEveryEventInOrder() {
+
+        List<Object> handledEvents = Collections.synchronizedList(new ArrayList<>());
+        domainEventBus.subscribe("slow", OverflowPolicy.BLOCK, events -> {
+            sleep();
+            handledEvents.addAll(events);
+        }, Integer.class);
+
+        for (int i = 0; i < 200; i++) {
+            domainEventBus.publish(i);
+            // not subscribed to, skipped without being handed over
+            domainEventBus.publish("skipped");
+        }
+        domainEventBus.stop();
+
+        assertEquals(IntStream.range(0, 200).boxed().collect(Collectors.toList()), handledEvents);
+        assertTrue(meterRegistry.get("domain.events.publisher.waits").counter().count() > 0);
+        assertEquals(0, meterRegistry.get("domain.events.lag").tag("consumer", "slow").gauge().value());
+    }
+
+    @Test
+    void droppingConsumerIsSkippedAhead() {
+
+        CountDownLatch isReleased = new CountDownLatch(1);
+        List<Object> handledEvents = Collections.synchronizedList(new ArrayList<>());
+        domainEventBus.subscribe("lossy", OverflowPolicy.DROP, events -> {
+            await(isReleased);
+            handledEvents.addAll(events);
+        }, Integer.class);
+
+        for (int i = 0; i < 100; i++) {
+            domainEventBus.publish(i);
+        }
+        isReleased.countDown();
+        domainEventBus.stop();
+
+        double droppedCount = meterRegistry.get("domain.events.dropped").tag("consumer", "lossy").counter().count();
+        assertTrue(droppedCount > 0);
+        assertEquals(100, handledEvents.size() + (int) droppedCount);
+        assertEquals(0, meterRegistry.get("domain.events.publisher.waits").counter().count());
+    }
+
+    @Test
+    void blockingConsumerRepublishesWhileTheRingIsFull() {
+
+        // as the ledger, which publishes a CreditChanged for each deposit it has handled
+        domainEventBus.subscribe("republishing", OverflowPolicy.BLOCK, events -> {
+            sleep();
+            events.forEach(i -> domainEventBus.publish("republished " + i));
+        }, Integer.class);
+
+        List<Object> republishedEvents = Collections.synchronizedList(new ArrayList<>());
+        domainEventBus.subscribe("downstream", OverflowPolicy.BLOCK, republishedEvents::addAll, String.class);
+
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            for (int i = 0; i < 200; i++) {
+                domainEventBus.publish(i);
+            }
+            domainEventBus.stop();
+        });
+
+        assertEquals(IntStream.range(0, 200).mapToObj(i -> "republished " + i).collect(Collectors.toList()),
+                     republishedEvents);
+        assertTrue(meterRegistry.get("domain.events.publisher.waits").counter().count() > 0);
+    }
+
+    @Test
+    void failedBatchIsRetriedOneEventAtATime() {
+
+        List<Object> handledEvents = Collections.synchronizedList(new ArrayList<>());
+        domainEventBus.subscribe("picky", OverflowPolicy.BLOCK, events -> {
+            if (events.contains("bad")) {
+                throw new IllegalStateException("bad event");
+            }
+            handledEvents.addAll(events);
+        }, String.class);
+
+        domainEventBus.publish("a");
+        domainEventBus.publish("bad");
+        domainEventBus.publish("c");
+        domainEventBus.stop();
+
+        assertEquals(List.of("a", "c"), handledEvents);
+        assertEquals(1, meterRegistry.get("domain.events.failed").tag("consumer", "picky").counter().count());
+    }
+
+    @Test
+    void batchFailingOnATransientErrorIsRetriedAsAWhole() {
+
+        AtomicInteger failureCount = new AtomicInteger();
+        List<Object> handledEvents = Collections.synchronizedList(new ArrayList<>());
+        domainEventBus.subscribe("flaky", OverflowPolicy.BLOCK, events -> {
+            if (failureCount.getAndIncrement() < 2) {
+                throw new QueryTimeoutException("lock wait timeout");
+            }
+            handledEvents.addAll(events);
+        }, String.class);
+
+        domainEventBus.publish("a");
+        domainEventBus.stop();
+
+        assertEquals(List.of("a"), handledEvents);
+        assertEquals(2, meterRegistry.get("domain.events.retries").tag("consumer", "flaky").counter().count());
+        assertEquals(0, meterRegistry.get("domain.events.failed").tag("consumer", "flaky").counter().count());
+    }
+
+    @Test
+    void consumerGivesUpRetryingInsteadOfHoldingPublishersBack() {
+
+        AtomicBoolean isReachable = new AtomicBoolean();
+        List<Object> handledEvents = Collections.synchronizedList(new ArrayList<>());
+        List<Object> abandonedEvents = Collections.synchronizedList(new ArrayList<>());
+        domainEventBus.subscribe("unreachable", OverflowPolicy.BLOCK, events -> {
+            if (!isReachable.get()) {
+                throw new QueryTimeoutException("lock wait timeout");
+            }
+            handledEvents.addAll(events);
+        }, abandonedEvents::addAll, Integer.class);
+
+        // a few rings, each batch after the retry timeout gets a single try
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            for (int i = 0; i < 100; i++) {
+                domainEventBus.publish(i);
+            }
+        });
+        while (abandonedEvents.size() < 100) {
+            sleep();
+        }
+        isReachable.set(true);
+        domainEventBus.publish(100);
+        domainEventBus.stop();
+
+        assertEquals(IntStream.range(0, 100).boxed().collect(Collectors.toList()), abandonedEvents);
+        assertEquals(List.of(100), handledEvents);
+        assertEquals(100, meterRegistry.get("domain.events.abandoned")
+                                       .tag("consumer", "unreachable")
+                                       .counter()
+                                       .count());
+    }
+
+    private static void sleep() {
+
+        try {
+            Thread.sleep(1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
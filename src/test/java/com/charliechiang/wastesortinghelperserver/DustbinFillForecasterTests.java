@@ -0,0 +1,54 @@
+package com.charliechiang.wastesortinghelperserver;
+
+import com.charliechiang.wastesortinghelperserver.model.WasteCategory;
+import com.charliechiang.wastesortinghelperserver.service.DustbinFillForecaster;
+import com.charliechiang.wastesortinghelperserver.service.DustbinForecast;
+import com.charliechiang.wastesortinghelperserver.service.DustbinStatus;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// The smoothing window is an hour, so the arrival rate in kg per hour is the decayed weight deposited.
+class DustbinFillForecasterTests {
+
+    private static final Long DUSTBIN_ID = 1L;
+
+    private final DustbinFillForecaster dustbinFillForecaster = new DustbinFillForecaster(3600);
+
+    @Test
+    void depositsAreDecayedFromTheTimeTheyWereMade() {
+
+        LocalDateTime now = LocalDateTime.now();
+
+        dustbinFillForecaster.recordDeposit(DUSTBIN_ID, WasteCategory.FOOD_WASTE, 1.0, now.minusHours(1));
+        assertEquals(Math.exp(-1), forecast(WasteCategory.FOOD_WASTE).getArrivalRate(), 0.01);
+
+        // saved late, after a deposit made since
+        dustbinFillForecaster.recordDeposit(DUSTBIN_ID, WasteCategory.RECYCLABLE_WASTE, 1.0, now);
+        dustbinFillForecaster.recordDeposit(DUSTBIN_ID, WasteCategory.RECYCLABLE_WASTE, 1.0, now.minusHours(2));
+        assertEquals(1 + Math.exp(-2), forecast(WasteCategory.RECYCLABLE_WASTE).getArrivalRate(), 0.01);
+        assertEquals(2.0, forecast(WasteCategory.RECYCLABLE_WASTE).getAccumulatedWeight());
+    }
+
+    @Test
+    void emptyingADustbinFullBeforeTheRestartStartsANewCount() {
+
+        DustbinStatus full = new DustbinStatus(false, false, true, false);
+        DustbinStatus empty = new DustbinStatus(false, false, false, false);
+
+        // seeded at startup
+        dustbinFillForecaster.updateStatus(DUSTBIN_ID, full);
+        dustbinFillForecaster.recordDeposit(DUSTBIN_ID, WasteCategory.FOOD_WASTE, 1.0, LocalDateTime.now());
+        assertEquals(0L, forecast(WasteCategory.FOOD_WASTE).getSecondsToFull());
+
+        dustbinFillForecaster.updateStatus(DUSTBIN_ID, empty);
+        assertEquals(0.0, forecast(WasteCategory.FOOD_WASTE).getAccumulatedWeight());
+    }
+
+    private DustbinForecast.CategoryForecast forecast(WasteCategory category) {
+
+        return dustbinFillForecaster.forecast(DUSTBIN_ID, 10.0).getCategories().get(category.ordinal());
+    }
+}
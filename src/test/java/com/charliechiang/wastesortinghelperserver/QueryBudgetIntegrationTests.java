@@ -0,0 +1,305 @@
+package com.charliechiang.wastesortinghelperserver;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import com.charliechiang.wastesortinghelperserver.config.QueryBudget;
+import com.charliechiang.wastesortinghelperserver.config.QueryCountInspector;
+import com.charliechiang.wastesortinghelperserver.model.Dustbin;
+import com.charliechiang.wastesortinghelperserver.model.User;
+import com.charliechiang.wastesortinghelperserver.model.Waste;
+import com.charliechiang.wastesortinghelperserver.model.WasteCategory;
+import com.charliechiang.wastesortinghelperserver.repository.DustbinRepository;
+import com.charliechiang.wastesortinghelperserver.repository.UserRepository;
+import com.charliechiang.wastesortinghelperserver.repository.WasteRepository;
+import com.charliechiang.wastesortinghelperserver.service.DustbinStatus;
+import com.charliechiang.wastesortinghelperserver.service.DustbinStatusTable;
+import com.charliechiang.wastesortinghelperserver.service.WasteAnalyticsStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultMatcher;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerMapping;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+// Calls every endpoint with query-budget.enforce set, so a request issuing more SQL statements than its
+// @QueryBudget fails. Users own several wastes in several dustbins, so per-row lazy loading shows up.
+// a real server is started because the WebSocket endpoints need a servlet container
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+class QueryBudgetIntegrationTests {
+
+    private static final int WASTE_COUNT = 6;
+    private static final AtomicInteger userSequence = new AtomicInteger();
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    @Qualifier("requestMappingHandlerMapping")
+    private RequestMappingHandlerMapping requestMappingHandlerMapping;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private DustbinRepository dustbinRepository;
+
+    @Autowired
+    private WasteRepository wasteRepository;
+
+    @Autowired
+    private WasteAnalyticsStore wasteAnalyticsStore;
+
+    @Autowired
+    private DustbinStatusTable dustbinStatusTable;
+
+    private String adminToken;
+    private String username;
+    private String token;
+    private Dustbin dustbin;
+    private Waste waste;
+
+    @BeforeEach
+    void setUp() throws Exception {
+
+        adminToken = login("admin", "password");
+
+        username = "student" + userSequence.incrementAndGet();
+        mockMvc.perform(post("/api/v1/users").contentType(MediaType.APPLICATION_JSON)
+                                             .content(userForm(username).toJSONString()))
+               .andExpect(status().isCreated());
+        token = login(username, username);
+
+        User user = userRepository.findByUsername(username).orElseThrow();
+        for (int i = 0; i < WASTE_COUNT; i++) {
+            dustbin = dustbinRepository.save(new Dustbin("Dustbin " + i, 40.15 + i * 0.001, 116.28));
+            waste = new Waste(user, WasteCategory.values()[i % 4], 0.5, dustbin, LocalDateTime.now().minusMinutes(WASTE_COUNT - i));
+            waste.setCorrectlyCategorized(true);
+            waste = wasteRepository.save(waste);
+        }
+    }
+
+    // each deposit reads its dustbin, which has to stay cached while dustbins report their fullness
+    @Test
+    void flushedDustbinStatusIsUpdatedInTheCache() {
+
+        dustbinRepository.findById(dustbin.getId());
+        dustbinStatusTable.updateStatus(dustbin.getId(), new DustbinStatus(false, false, true, false));
+        dustbinStatusTable.flush();
+
+        QueryCountInspector.start();
+        Dustbin cachedDustbin = dustbinRepository.findById(dustbin.getId()).orElseThrow();
+        assertEquals(0, QueryCountInspector.stop());
+        assertEquals(true, cachedDustbin.getFoodWasteFull());
+    }
+
+    @Test
+    void everyEndpointDeclaresABudget() {
+
+        List<String> endpointsWithoutBudget =
+                requestMappingHandlerMapping.getHandlerMethods()
+                                            .entrySet()
+                                            .stream()
+                                            .filter(i -> i.getValue().getBeanType().getPackageName().startsWith("com.charliechiang"))
+                                            .filter(i -> !i.getValue().hasMethodAnnotation(QueryBudget.class))
+                                            .map(i -> i.getKey().toString())
+                                            .collect(Collectors.toList());
+
+        assertTrue(endpointsWithoutBudget.isEmpty(), "Endpoints without @QueryBudget: " + endpointsWithoutBudget);
+    }
+
+    @Test
+    void authentication() throws Exception {
+
+        login(username, username);
+    }
+
+    @Test
+    void currentUser() throws Exception {
+
+        perform(get("/api/v1/users/me"), token);
+        perform(get("/api/v1/users/me/wastes"), token);
+        perform(get("/api/v1/users/me/wastes?n=20"), token);
+        perform(get("/api/v1/users/me/wastes?n=3"), token);
+        perform(get("/api/v1/users/me/credit"), token);
+        perform(get("/api/v1/users/me/ranking"), token);
+        perform(get("/api/v1/users/me/tree"), token);
+        perform(put("/api/v1/users/me/tree").contentType(MediaType.APPLICATION_JSON)
+                                            .content("{\"remainingWater\":1,\"remainingFertilizer\":1,\"remainingMedicine\":1,"
+                                                     + "\"water\":1,\"fertilizer\":1,\"medicine\":1,\"level\":1}"), token);
+        perform(put("/api/v1/users/me").contentType(MediaType.APPLICATION_JSON)
+                                       .content(userForm(username).toJSONString()), token);
+    }
+
+    @Test
+    void userAdministration() throws Exception {
+
+        perform(get("/api/v1/users"), adminToken);
+        perform(get("/api/v1/users/" + username), adminToken);
+        perform(get("/api/v1/users/" + username + "/wastes"), adminToken);
+        perform(get("/api/v1/users/" + username + "/wastes?n=20"), adminToken);
+        perform(get("/api/v1/users/" + username + "/ranking"), adminToken);
+        perform(put("/api/v1/users/" + username).contentType(MediaType.APPLICATION_JSON)
+                                                .content(userForm(username).toJSONString()), adminToken);
+        perform(get("/api/v1/users/admins"), adminToken);
+        perform(post("/api/v1/users/admins").contentType(MediaType.APPLICATION_JSON)
+                                            .content(userForm(username + "-admin").toJSONString()), adminToken);
+        perform(post("/api/v1/users/import").contentType("text/csv")
+                                            .content("username,password,realName,schoolId\n"
+                                                     + username + "-csv,secret,\"Imported, CSV\",\n"
+                                                     + username + ",secret,Taken,\n"), adminToken);
+        perform(post("/api/v1/users/import").contentType(MediaType.APPLICATION_NDJSON)
+                                            .content(userForm(username + "-ndjson").toJSONString() + "\n"), adminToken);
+        perform(delete("/api/v1/users/" + username), adminToken);
+        perform(get("/api/v1/users/" + username + "/purge"), adminToken);
+    }
+
+    @Test
+    void credit() throws Exception {
+
+        perform(get("/api/v1/users/" + username + "/credit"), token);
+        perform(put("/api/v1/users/" + username + "/credit").contentType(MediaType.APPLICATION_JSON)
+                                                            .content("{\"credit\":10}"), token);
+        perform(put("/api/v1/users/" + username + "/credit/offset?offset=5"), token);
+        perform(get("/api/v1/users/me/credit/events"), token);
+        perform(get("/api/v1/users/" + username + "/credit/events?n=5"), adminToken);
+        perform(post("/api/v1/users/" + username + "/credit/actions/rebuild"), adminToken);
+        perform(post("/api/v1/users/" + username + "/credit/actions/rebuild?full=true"), adminToken);
+    }
+
+    @Test
+    void wastes() throws Exception {
+
+        JSONObject wasteForm = new JSONObject();
+        wasteForm.put("username", username);
+        wasteForm.put("dustbinId", dustbin.getId());
+        wasteForm.put("weight", 0.23);
+        wasteForm.put("category", WasteCategory.RECYCLABLE_WASTE);
+        wasteForm.put("isCorrectlyCategorized", true);
+
+        perform(post("/api/v1/wastes").contentType(MediaType.APPLICATION_JSON).content(wasteForm.toJSONString()), null);
+        perform(get("/api/v1/wastes/" + waste.getId()), adminToken);
+        perform(get("/api/v1/wastes"), adminToken);
+        // loaded in the background, the aggregates are refused until then
+        assertTrue(wasteAnalyticsStore.awaitLoaded(5, TimeUnit.SECONDS));
+        perform(get("/api/v1/wastes/aggregates?groupBy=school,week,category"), adminToken);
+        perform(get("/api/v1/wastes/aggregates?groupBy=dustbin&from=2020-01-01&category=FOOD_WASTE"), adminToken);
+        perform(post("/api/v1/wastes/actions/report-incorrect-categorization").param("dustbinId", dustbin.getId().toString())
+                                                                              .param("time", ""), null);
+        // before the waste just posted, which is all the deposit buffer of the dustbin holds, so it is read from the table
+        perform(post("/api/v1/wastes/actions/report-incorrect-categorization")
+                        .param("dustbinId", dustbin.getId().toString())
+                        .param("time", LocalDateTime.now().minusSeconds(30).format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"))),
+                null);
+    }
+
+    @Test
+    void dustbins() throws Exception {
+
+        perform(get("/api/v1/dustbins"), token);
+        perform(get("/api/v1/dustbins/" + dustbin.getId()), token);
+        perform(get("/api/v1/dustbins/" + dustbin.getId() + "/wastes"), token);
+        perform(get("/api/v1/dustbins/nearest?latitude=40.15&longitude=116.28"), token);
+        perform(get("/api/v1/dustbins/forecasts"), token);
+        perform(post("/api/v1/dustbins/" + dustbin.getId() + "/full").contentType(MediaType.APPLICATION_JSON)
+                                                                     .content("{\"foodWasteFull\":true}"), null);
+
+        String location = mockMvc.perform(post("/api/v1/dustbins").header(HttpHeaders.AUTHORIZATION, "Bearer " + adminToken)
+                                                                  .contentType(MediaType.APPLICATION_JSON)
+                                                                  .content("{\"name\":\"New\",\"latitude\":40.1,\"longitude\":116.2}"))
+                                 .andExpect(status().isCreated())
+                                 .andReturn()
+                                 .getResponse()
+                                 .getHeader(HttpHeaders.LOCATION);
+        perform(delete(location), adminToken);
+
+        // dustbins are not connected over WebSocket here, so lid-open requests are not found
+        perform(post("/api/v1/dustbins/" + dustbin.getId() + "/requests"), token, status().isNotFound());
+        perform(get("/api/v1/dustbins/" + dustbin.getId() + "/requests/1"), token, status().isNotFound());
+    }
+
+    @Test
+    void schoolsAndSettings() throws Exception {
+
+        perform(get("/api/v1/schools"), null);
+        perform(get("/api/v1/schools/0"), token);
+        perform(post("/api/v1/schools").contentType(MediaType.APPLICATION_JSON)
+                                       .content("{\"id\":" + (100 + userSequence.get()) + ",\"name\":\"School\",\"ename\":\"School\"}"),
+                adminToken);
+        perform(delete("/api/v1/schools/" + (100 + userSequence.get())), adminToken);
+
+        perform(get("/api/v1/settings"), adminToken);
+        perform(get("/api/v1/settings/creditUpdateDelay"), adminToken);
+        perform(post("/api/v1/settings").contentType(MediaType.APPLICATION_JSON)
+                                        .content("{\"id\":\"testSetting\",\"value\":\"1\",\"type\":\"integer\"}"), adminToken);
+        perform(delete("/api/v1/settings/testSetting"), adminToken);
+    }
+
+    private void perform(MockHttpServletRequestBuilder request,
+                         String bearerToken) throws Exception {
+
+        perform(request, bearerToken, status().is2xxSuccessful());
+    }
+
+    private void perform(MockHttpServletRequestBuilder request,
+                         String bearerToken,
+                         ResultMatcher expectedStatus) throws Exception {
+
+        if (bearerToken != null) {
+            request.header(HttpHeaders.AUTHORIZATION, "Bearer " + bearerToken);
+        }
+
+        mockMvc.perform(request).andExpect(expectedStatus);
+    }
+
+    private String login(String username,
+                         String password) throws Exception {
+
+        JSONObject credentials = new JSONObject();
+        credentials.put("username", username);
+        credentials.put("password", password);
+
+        String response = mockMvc.perform(post("/api/v1/auth/login").contentType(MediaType.APPLICATION_JSON)
+                                                                    .content(credentials.toJSONString()))
+                                 .andExpect(status().isOk())
+                                 .andReturn()
+                                 .getResponse()
+                                 .getContentAsString();
+
+        return JSON.parseObject(response).getString("token");
+    }
+
+    private static JSONObject userForm(String username) {
+
+        JSONObject userForm = new JSONObject();
+        userForm.put("username", username);
+        userForm.put("password", username);
+        userForm.put("realName", username);
+        userForm.put("schoolId", 0);
+
+        return userForm;
+    }
+}
@@ -0,0 +1,170 @@
+package com.charliechiang.wastesortinghelperserver;
+
+import com.alibaba.fastjson.JSONObject;
+import com.charliechiang.wastesortinghelperserver.model.Dustbin;
+import com.charliechiang.wastesortinghelperserver.model.ServerSetting;
+import com.charliechiang.wastesortinghelperserver.model.User;
+import com.charliechiang.wastesortinghelperserver.repository.DustbinRepository;
+import com.charliechiang.wastesortinghelperserver.repository.ServerSettingsRepository;
+import com.charliechiang.wastesortinghelperserver.repository.UserRepository;
+import com.charliechiang.wastesortinghelperserver.security.RateLimitFilter;
+import com.charliechiang.wastesortinghelperserver.service.RateLimiter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultActions;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+// Dustbins get a burst of two requests and one more every ten seconds, so the third request of a dustbin is
+// rejected. All requests come from the same address, as they would through a proxy.
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+                properties = "spring.datasource.url=jdbc:h2:mem:ratelimit;MODE=MySQL;DB_CLOSE_DELAY=-1")
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+class RateLimitFilterTests {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private RateLimiter rateLimiter;
+
+    @Autowired
+    private ServerSettingsRepository serverSettingsRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private DustbinRepository dustbinRepository;
+
+    private User user;
+
+    @BeforeEach
+    void setUp() {
+
+        serverSettingsRepository.saveAll(List.of(new ServerSetting("deviceRequestRate", "0.1", "decimal"),
+                                                 new ServerSetting("deviceRequestBurst", "2", "integer")));
+        rateLimiter.refresh();
+
+        user = userRepository.findByUsername("depositor").orElseGet(() -> {
+            User newUser = new User();
+            newUser.setUsername("depositor");
+            newUser.setRoles(List.of("ROLE_USER"));
+            return userRepository.save(newUser);
+        });
+    }
+
+    @Test
+    void depositsAreLimitedPerDustbin() throws Exception {
+
+        Dustbin dustbin = dustbinRepository.save(new Dustbin("Limited", 40.15, 116.28));
+        Dustbin otherDustbin = dustbinRepository.save(new Dustbin("Other", 40.15, 116.28));
+
+        deposit(dustbin).andExpect(status().isCreated())
+                        .andExpect(header().string("X-RateLimit-Limit", "2"))
+                        .andExpect(header().string("X-RateLimit-Remaining", "1"));
+        deposit(dustbin).andExpect(status().isCreated());
+        deposit(dustbin).andExpect(status().isTooManyRequests())
+                        .andExpect(header().string(HttpHeaders.RETRY_AFTER, "10"))
+                        .andExpect(header().string("X-RateLimit-Remaining", "0"));
+
+        // read by the filter and still handed on to the controller
+        deposit(otherDustbin).andExpect(status().isCreated());
+    }
+
+    @Test
+    void reportsAreLimitedPerDustbin() throws Exception {
+
+        Dustbin dustbin = dustbinRepository.save(new Dustbin("Reported", 40.15, 116.28));
+        Dustbin otherDustbin = dustbinRepository.save(new Dustbin("Other", 40.15, 116.28));
+
+        for (int i = 0; i < 2; i++) {
+            report(dustbin).andExpect(status().isNotFound());
+        }
+        report(dustbin).andExpect(status().isTooManyRequests())
+                       .andExpect(header().exists(HttpHeaders.RETRY_AFTER));
+        report(otherDustbin).andExpect(status().isNotFound());
+    }
+
+    // as a controller reading the body asynchronously would
+    @Test
+    void depositBodyReadForTheDustbinIdCanBeReadWithAListener() throws Exception {
+
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/api/v1/wastes");
+        request.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        request.setContent("{\"dustbinId\":123456}".getBytes(StandardCharsets.UTF_8));
+        ByteArrayOutputStream readBody = new ByteArrayOutputStream();
+        AtomicBoolean isAllDataRead = new AtomicBoolean();
+
+        RateLimitFilter rateLimitFilter = new RateLimitFilter(rateLimiter, null, new SimpleMeterRegistry());
+        rateLimitFilter.doFilter(request, new MockHttpServletResponse(), (req, res) -> {
+            ServletInputStream inputStream = req.getInputStream();
+            inputStream.setReadListener(new ReadListener() {
+
+                @Override
+                public void onDataAvailable() throws IOException {
+                    while (inputStream.isReady() && !inputStream.isFinished()) {
+                        readBody.write(inputStream.read());
+                    }
+                }
+
+                @Override
+                public void onAllDataRead() {
+                    isAllDataRead.set(true);
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    fail(t);
+                }
+            });
+        });
+
+        assertEquals("{\"dustbinId\":123456}", readBody.toString(StandardCharsets.UTF_8));
+        assertTrue(isAllDataRead.get());
+    }
+
+    private ResultActions deposit(Dustbin dustbin) throws Exception {
+
+        JSONObject form = new JSONObject();
+        form.put("dustbinId", dustbin.getId());
+        form.put("username", user.getUsername());
+        form.put("weight", 0.3);
+        form.put("category", "FOOD_WASTE");
+
+        return mockMvc.perform(post("/api/v1/wastes").contentType(MediaType.APPLICATION_JSON)
+                                                     .content(form.toJSONString()));
+    }
+
+    // no waste is found at that time
+    private ResultActions report(Dustbin dustbin) throws Exception {
+
+        return mockMvc.perform(post("/api/v1/wastes/actions/report-incorrect-categorization")
+                                       .param("dustbinId", String.valueOf(dustbin.getId()))
+                                       .param("time", "2021-05-01 12:00:00"));
+    }
+}
@@ -0,0 +1,89 @@
+package com.charliechiang.wastesortinghelperserver;
+
+import com.charliechiang.wastesortinghelperserver.model.ServerSetting;
+import com.charliechiang.wastesortinghelperserver.repository.ServerSettingsRepository;
+import com.charliechiang.wastesortinghelperserver.service.RateLimiter;
+import com.charliechiang.wastesortinghelperserver.service.RateLimiter.LimitClass;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+// The limits are read from a mocked settings repository. Rates are chosen so that nothing refills while a test
+// runs, except where a test waits for it.
+class RateLimiterTests {
+
+    private final ServerSettingsRepository serverSettingsRepository = mock(ServerSettingsRepository.class);
+    private final RateLimiter rateLimiter = new RateLimiter(serverSettingsRepository);
+
+    @Test
+    void burstIsAllowedAndThenRejected() {
+
+        setLimits("0.1", "3");
+
+        for (int i = 0; i < 3; i++) {
+            RateLimiter.Decision decision = rateLimiter.tryAcquire(LimitClass.DEVICE, "dustbin:1");
+            assertTrue(decision.isAllowed());
+            assertEquals(3, decision.getLimit());
+            assertEquals(2 - i, decision.getRemaining());
+        }
+
+        RateLimiter.Decision decision = rateLimiter.tryAcquire(LimitClass.DEVICE, "dustbin:1");
+        assertFalse(decision.isAllowed());
+        assertEquals(0, decision.getRemaining());
+        // one request every ten seconds
+        assertTrue(decision.getRetryAfterNanos() > TimeUnit.SECONDS.toNanos(9));
+        assertTrue(decision.getRetryAfterNanos() <= TimeUnit.SECONDS.toNanos(10));
+    }
+
+    @Test
+    void keysAndClassesHaveBucketsOfTheirOwn() {
+
+        setLimits("0.1", "1");
+
+        assertTrue(rateLimiter.tryAcquire(LimitClass.DEVICE, "dustbin:1").isAllowed());
+        assertFalse(rateLimiter.tryAcquire(LimitClass.DEVICE, "dustbin:1").isAllowed());
+        assertTrue(rateLimiter.tryAcquire(LimitClass.DEVICE, "dustbin:2").isAllowed());
+        assertTrue(rateLimiter.tryAcquire(LimitClass.USER, "dustbin:1").isAllowed());
+    }
+
+    @Test
+    void bucketRefillsAtTheRate() throws InterruptedException {
+
+        setLimits("20", "1");
+
+        assertTrue(rateLimiter.tryAcquire(LimitClass.DEVICE, "dustbin:1").isAllowed());
+        RateLimiter.Decision decision = rateLimiter.tryAcquire(LimitClass.DEVICE, "dustbin:1");
+        assertFalse(decision.isAllowed());
+
+        TimeUnit.NANOSECONDS.sleep(decision.getRetryAfterNanos());
+        assertTrue(rateLimiter.tryAcquire(LimitClass.DEVICE, "dustbin:1").isAllowed());
+    }
+
+    @Test
+    void malformedSettingsFallBackToTheDefaults() {
+
+        setLimits("fast", "many");
+
+        // 20 requests at once for dustbins
+        for (int i = 0; i < 20; i++) {
+            assertTrue(rateLimiter.tryAcquire(LimitClass.DEVICE, "dustbin:1").isAllowed());
+        }
+        assertFalse(rateLimiter.tryAcquire(LimitClass.DEVICE, "dustbin:1").isAllowed());
+    }
+
+    private void setLimits(String rate, String burst) {
+
+        when(serverSettingsRepository.findAll()).thenReturn(List.of(new ServerSetting("deviceRequestRate", rate, "decimal"),
+                                                                    new ServerSetting("deviceRequestBurst", burst, "integer"),
+                                                                    new ServerSetting("userRequestRate", rate, "decimal"),
+                                                                    new ServerSetting("userRequestBurst", burst, "integer")));
+        rateLimiter.refresh();
+    }
+}
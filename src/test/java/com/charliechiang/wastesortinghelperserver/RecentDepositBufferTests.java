@@ -0,0 +1,118 @@
+package com.charliechiang.wastesortinghelperserver;
+
+import com.charliechiang.wastesortinghelperserver.model.Dustbin;
+import com.charliechiang.wastesortinghelperserver.model.User;
+import com.charliechiang.wastesortinghelperserver.model.Waste;
+import com.charliechiang.wastesortinghelperserver.model.WasteCategory;
+import com.charliechiang.wastesortinghelperserver.service.RecentDeposit;
+import com.charliechiang.wastesortinghelperserver.service.RecentDepositBuffer;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.fail;
+
+// Deposits are a minute apart, waste i is deposited at minute i. The database is a list of the wastes saved so far.
+class RecentDepositBufferTests {
+
+    private static final LocalDateTime START_TIME = LocalDateTime.of(2021, 5, 1, 12, 0);
+    private static final Long DUSTBIN_ID = 1L;
+
+    private final RecentDepositBuffer recentDepositBuffer = new RecentDepositBuffer();
+    private final List<Waste> savedWastes = new ArrayList<>();
+
+    @Test
+    void bufferIsFilledFromTheDatabaseUntilItHoldsSizeDeposits() {
+
+        // saved before the server started
+        for (long i = 1; i <= 3; i++) {
+            savedWastes.add(waste(i));
+        }
+        deposit(4);
+
+        assertEquals(4L, findLatestBefore(10, this::loadLatest).getWasteId());
+        // older than the only deposit recorded, the buffer reads the rest from the database
+        assertEquals(2L, findLatestBefore(3, this::loadLatest).getWasteId());
+        // and knows there is nothing before the first one from then on
+        assertNull(findLatestBefore(1, RecentDepositBufferTests::failToLoad));
+    }
+
+    @Test
+    void depositsBeyondTheWindowAreForgotten() {
+
+        for (long i = 1; i <= RecentDepositBuffer.SIZE + 3; i++) {
+            deposit(i);
+        }
+
+        // the oldest deposit in the buffer, the buffer is full and never reads the database again
+        long oldestWasteId = 4;
+        assertEquals(oldestWasteId, findLatestBefore(oldestWasteId + 1, RecentDepositBufferTests::failToLoad).getWasteId());
+        assertNull(findLatestBefore(oldestWasteId, RecentDepositBufferTests::failToLoad));
+        assertEquals(RecentDepositBuffer.SIZE + 3L,
+                     findLatestBefore(100, RecentDepositBufferTests::failToLoad).getWasteId());
+    }
+
+    @Test
+    void removedDepositIsReplacedFromTheDatabase() {
+
+        for (long i = 1; i <= RecentDepositBuffer.SIZE + 1; i++) {
+            deposit(i);
+        }
+
+        // deleted with its user
+        recentDepositBuffer.remove(DUSTBIN_ID, 3L);
+        savedWastes.removeIf(i -> i.getId() == 3L);
+
+        assertEquals(2L, findLatestBefore(4, RecentDepositBufferTests::failToLoad).getWasteId());
+        // the buffer is one short of SIZE, the deposit before the oldest one it holds is read from the database
+        assertEquals(1L, findLatestBefore(2, this::loadLatest).getWasteId());
+    }
+
+    private void deposit(long wasteId) {
+
+        Waste waste = waste(wasteId);
+        savedWastes.add(waste);
+        recentDepositBuffer.record(waste);
+    }
+
+    private RecentDeposit findLatestBefore(long minute, Supplier<List<Waste>> loader) {
+
+        return recentDepositBuffer.findLatestBefore(DUSTBIN_ID, START_TIME.plusMinutes(minute), loader);
+    }
+
+    // as WasteRepository.findTop5ByDustbinIdOrderByIdDesc
+    private List<Waste> loadLatest() {
+
+        List<Waste> latestWastes = new ArrayList<>();
+        for (int i = savedWastes.size() - 1; i >= 0 && latestWastes.size() < RecentDepositBuffer.SIZE; i--) {
+            latestWastes.add(savedWastes.get(i));
+        }
+
+        return latestWastes;
+    }
+
+    private static List<Waste> failToLoad() {
+
+        return fail("The database was read.");
+    }
+
+    private static Waste waste(long wasteId) {
+
+        User user = new User();
+        user.setId(1L);
+        user.setUsername("2019211915");
+
+        Dustbin dustbin = new Dustbin("Dustbin", 40.15, 116.28);
+        dustbin.setId(DUSTBIN_ID);
+
+        Waste waste = new Waste(user, WasteCategory.FOOD_WASTE, 0.5, dustbin, START_TIME.plusMinutes(wasteId));
+        waste.setId(wasteId);
+
+        return waste;
+    }
+}
@@ -0,0 +1,127 @@
+package com.charliechiang.wastesortinghelperserver;
+
+import com.charliechiang.wastesortinghelperserver.model.Dustbin;
+import com.charliechiang.wastesortinghelperserver.model.User;
+import com.charliechiang.wastesortinghelperserver.model.Waste;
+import com.charliechiang.wastesortinghelperserver.model.WasteCategory;
+import com.charliechiang.wastesortinghelperserver.service.DustbinStatusTable;
+import com.charliechiang.wastesortinghelperserver.service.RecentWasteCache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+// Wastes are a minute apart, waste i is deposited at minute i. Once a user is loaded every request must be a hit,
+// the loader fails the test if the database would be read again.
+class RecentWasteCacheTests {
+
+    private static final LocalDateTime START_TIME = LocalDateTime.of(2021, 5, 1, 12, 0);
+    private static final String USERNAME = "2019211915";
+
+    private final DustbinStatusTable dustbinStatusTable = mock(DustbinStatusTable.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final Dustbin dustbin = new Dustbin("Dustbin", 40.15, 116.28);
+
+    @BeforeEach
+    void setUp() {
+
+        dustbin.setId(1L);
+        when(dustbinStatusTable.getDustbin(anyLong())).thenReturn(Optional.of(dustbin));
+    }
+
+    @Test
+    void depositsRollOlderWastesOut() {
+
+        RecentWasteCache recentWasteCache = new RecentWasteCache(dustbinStatusTable, 1000, meterRegistry);
+        assertEquals(List.of(3L, 2L, 1L), getIds(recentWasteCache.getLatest(USERNAME, 20, () -> wastes(1, 3))));
+
+        for (long i = 4; i <= RecentWasteCache.SIZE + 5; i++) {
+            recentWasteCache.record(USERNAME, waste(i));
+        }
+
+        List<Waste> latestWastes =
+                recentWasteCache.getLatest(USERNAME, RecentWasteCache.SIZE, RecentWasteCacheTests::failToLoad);
+        assertEquals(RecentWasteCache.SIZE, latestWastes.size());
+        assertEquals(RecentWasteCache.SIZE + 5L, latestWastes.get(0).getId());
+        assertEquals(6L, latestWastes.get(RecentWasteCache.SIZE - 1).getId());
+        assertEquals(RecentWasteCache.SIZE, recentWasteCache.getWasteCount());
+    }
+
+    @Test
+    void reportedWasteIsShownAsIncorrectlyCategorized() {
+
+        RecentWasteCache recentWasteCache = new RecentWasteCache(dustbinStatusTable, 1000, meterRegistry);
+        recentWasteCache.getLatest(USERNAME, 20, () -> wastes(1, 3));
+
+        recentWasteCache.recordIncorrectCategorization(USERNAME, 2L);
+
+        List<Waste> latestWastes = recentWasteCache.getLatest(USERNAME, 20, RecentWasteCacheTests::failToLoad);
+        assertTrue(latestWastes.get(0).getCorrectlyCategorized());
+        assertFalse(latestWastes.get(1).getCorrectlyCategorized());
+        assertTrue(latestWastes.get(2).getCorrectlyCategorized());
+    }
+
+    @Test
+    void leastRecentlyListedUsersAreEvicted() {
+
+        RecentWasteCache recentWasteCache = new RecentWasteCache(dustbinStatusTable, 5, meterRegistry);
+        recentWasteCache.getLatest("first", 20, () -> wastes(1, 3));
+        recentWasteCache.getLatest("second", 20, () -> wastes(4, 5));
+        // listed again, the second user is now the least recently listed
+        recentWasteCache.getLatest("first", 20, RecentWasteCacheTests::failToLoad);
+        recentWasteCache.getLatest("third", 20, () -> wastes(6, 6));
+
+        assertEquals(2, recentWasteCache.getUserCount());
+        assertEquals(4, recentWasteCache.getWasteCount());
+        assertEquals(List.of(3L, 2L, 1L),
+                     getIds(recentWasteCache.getLatest("first", 20, RecentWasteCacheTests::failToLoad)));
+        assertEquals(List.of(5L, 4L), getIds(recentWasteCache.getLatest("second", 20, () -> wastes(4, 5))));
+    }
+
+    // the latest first, as WasteRepository returns them
+    private List<Waste> wastes(long firstWasteId, long lastWasteId) {
+
+        List<Waste> wastes = new ArrayList<>();
+        for (long i = lastWasteId; i >= firstWasteId; i--) {
+            wastes.add(waste(i));
+        }
+
+        return wastes;
+    }
+
+    private Waste waste(long wasteId) {
+
+        User user = new User();
+        user.setUsername(USERNAME);
+
+        Waste waste = new Waste(user, WasteCategory.FOOD_WASTE, 0.5, dustbin, START_TIME.plusMinutes(wasteId));
+        waste.setId(wasteId);
+        waste.setCorrectlyCategorized(true);
+
+        return waste;
+    }
+
+    private static List<Long> getIds(List<Waste> wastes) {
+
+        return wastes.stream().map(Waste::getId).collect(Collectors.toList());
+    }
+
+    private static List<Waste> failToLoad() {
+
+        return fail("The database was read.");
+    }
+}
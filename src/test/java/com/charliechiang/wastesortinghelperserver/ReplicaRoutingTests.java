@@ -0,0 +1,140 @@
+package com.charliechiang.wastesortinghelperserver;
+
+import com.charliechiang.wastesortinghelperserver.model.Dustbin;
+import com.charliechiang.wastesortinghelperserver.model.School;
+import com.charliechiang.wastesortinghelperserver.model.ServerSetting;
+import com.charliechiang.wastesortinghelperserver.model.User;
+import com.charliechiang.wastesortinghelperserver.model.Waste;
+import com.charliechiang.wastesortinghelperserver.repository.DustbinRepository;
+import org.hibernate.boot.Metadata;
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.registry.StandardServiceRegistry;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.tool.hbm2ddl.SchemaExport;
+import org.hibernate.tool.schema.TargetType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.orm.jpa.hibernate.SpringImplicitNamingStrategy;
+import org.springframework.boot.orm.jpa.hibernate.SpringPhysicalNamingStrategy;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.context.ActiveProfiles;
+
+import javax.sql.DataSource;
+import java.util.EnumSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Two in-memory databases stand in for the primary and the replica. Nothing is replicated between them,
+// so a row inserted into only one of them shows which database a query was routed to.
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+                properties = {"spring.datasource.url=" + ReplicaRoutingTests.PRIMARY_URL,
+                              "app.datasource.replica.url=" + ReplicaRoutingTests.REPLICA_URL,
+                              "app.datasource.replica.username=sa",
+                              "app.datasource.replica.password=",
+                              "app.datasource.replica.sticky-ms=" + ReplicaRoutingTests.STICKY_MILLIS})
+@ActiveProfiles("test")
+class ReplicaRoutingTests {
+
+    static final String PRIMARY_URL = "jdbc:h2:mem:primary;MODE=MySQL;DB_CLOSE_DELAY=-1";
+    static final String REPLICA_URL = "jdbc:h2:mem:replica;MODE=MySQL;DB_CLOSE_DELAY=-1";
+    static final long STICKY_MILLIS = 500;
+
+    @Autowired
+    private DustbinRepository dustbinRepository;
+
+    // connections of their own, bypassing the routing
+    private final DataSource primaryDataSource = new DriverManagerDataSource(PRIMARY_URL, "sa", "");
+    private final DataSource replicaDataSource = new DriverManagerDataSource(REPLICA_URL, "sa", "");
+
+    // Hibernate only creates the schema of the primary
+    @BeforeAll
+    static void createReplicaSchema() {
+
+        StandardServiceRegistry registry =
+                new StandardServiceRegistryBuilder().applySetting(AvailableSettings.URL, REPLICA_URL)
+                                                    .applySetting(AvailableSettings.USER, "sa")
+                                                    .applySetting(AvailableSettings.PASS, "")
+                                                    .applySetting(AvailableSettings.PHYSICAL_NAMING_STRATEGY,
+                                                                  SpringPhysicalNamingStrategy.class.getName())
+                                                    .applySetting(AvailableSettings.IMPLICIT_NAMING_STRATEGY,
+                                                                  SpringImplicitNamingStrategy.class.getName())
+                                                    .build();
+        try {
+            Metadata metadata = new MetadataSources(registry).addAnnotatedClass(Dustbin.class)
+                                                             .addAnnotatedClass(School.class)
+                                                             .addAnnotatedClass(ServerSetting.class)
+                                                             .addAnnotatedClass(User.class)
+                                                             .addAnnotatedClass(Waste.class)
+                                                             .buildMetadata();
+            new SchemaExport().create(EnumSet.of(TargetType.DATABASE), metadata);
+        } finally {
+            StandardServiceRegistryBuilder.destroy(registry);
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    void readOnlyTransactionsUseTheReplica() {
+
+        new JdbcTemplate(replicaDataSource).update("insert into dustbin (id, name, latitude, longitude) "
+                                                   + "values (100000, 'replica only', 40.0, 116.0)");
+
+        assertTrue(dustbinRepository.findByName("replica only").isPresent());
+    }
+
+    @Test
+    void writesUseThePrimary() {
+
+        Dustbin dustbin = dustbinRepository.save(new Dustbin("written anonymously", 40.0, 116.0));
+
+        assertEquals(1, count(primaryDataSource, dustbin.getName()));
+        assertEquals(0, count(replicaDataSource, dustbin.getName()));
+        // not replicated, and nobody is signed in to read their own writes
+        assertTrue(dustbinRepository.findByName(dustbin.getName()).isEmpty());
+    }
+
+    @Test
+    void usersReadTheirOwnWritesFromThePrimary() throws Exception {
+
+        signIn("writer");
+        Dustbin dustbin = dustbinRepository.save(new Dustbin("written by a user", 40.0, 116.0));
+
+        assertTrue(dustbinRepository.findByName(dustbin.getName()).isPresent());
+
+        signIn("someone else");
+        assertTrue(dustbinRepository.findByName(dustbin.getName()).isEmpty());
+
+        Thread.sleep(STICKY_MILLIS + 100);
+        signIn("writer");
+        assertTrue(dustbinRepository.findByName(dustbin.getName()).isEmpty());
+    }
+
+    private static void signIn(String username) {
+
+        SecurityContextHolder.getContext()
+                             .setAuthentication(new UsernamePasswordAuthenticationToken(username,
+                                                                                        null,
+                                                                                        AuthorityUtils.createAuthorityList("ROLE_USER")));
+    }
+
+    private static int count(DataSource dataSource, String name) {
+
+        return new JdbcTemplate(dataSource).queryForObject("select count(*) from dustbin where name = ?",
+                                                           Integer.class,
+                                                           name);
+    }
+}
@@ -0,0 +1,98 @@
+package com.charliechiang.wastesortinghelperserver;
+
+import com.charliechiang.wastesortinghelperserver.model.Dustbin;
+import com.charliechiang.wastesortinghelperserver.model.User;
+import com.charliechiang.wastesortinghelperserver.model.Waste;
+import com.charliechiang.wastesortinghelperserver.model.WasteCategory;
+import com.charliechiang.wastesortinghelperserver.repository.CreditEventRepository;
+import com.charliechiang.wastesortinghelperserver.repository.DustbinRepository;
+import com.charliechiang.wastesortinghelperserver.repository.UserRepository;
+import com.charliechiang.wastesortinghelperserver.repository.WasteRepository;
+import com.charliechiang.wastesortinghelperserver.service.CreditLedger;
+import com.charliechiang.wastesortinghelperserver.service.UserPurgeProgress;
+import com.charliechiang.wastesortinghelperserver.service.UserPurger;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// The scheduled purge is held off, so the test decides when each run happens. Chunks of two rows make a user with
+// a handful of wastes take several chunks.
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+                properties = {"spring.datasource.url=jdbc:h2:mem:purge;MODE=MySQL;DB_CLOSE_DELAY=-1",
+                              "user.purge.delay-ms=3600000",
+                              "user.purge.chunk-size=2"})
+@ActiveProfiles("test")
+class UserPurgeTests {
+
+    private static final int WASTE_COUNT = 5;
+
+    @Autowired
+    private UserPurger userPurger;
+
+    @Autowired
+    private CreditLedger creditLedger;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private WasteRepository wasteRepository;
+
+    @Autowired
+    private DustbinRepository dustbinRepository;
+
+    @Autowired
+    private CreditEventRepository creditEventRepository;
+
+    @Test
+    void deletedUserIsHiddenAndThenPurged() {
+
+        User user = createUser("purged");
+        User otherUser = createUser("kept");
+
+        UserPurgeProgress progress = userPurger.delete(user);
+
+        assertTrue(userRepository.findByUsername("purged").isEmpty());
+        assertFalse(userRepository.findAllByOrderByCreditDesc().stream().anyMatch(i -> i.getId().equals(user.getId())));
+        // the rows stay until the purge has run
+        assertEquals(WASTE_COUNT, wasteRepository.countByUserId(user.getId()));
+
+        userPurger.purge();
+
+        assertTrue(progress.isFinished());
+        assertEquals(WASTE_COUNT, progress.getWastesPurged());
+        assertTrue(userRepository.findById(user.getId()).isEmpty());
+        assertEquals(0, wasteRepository.countByUserId(user.getId()));
+        assertEquals(0, creditEventRepository.findAllByUserIdOrderByIdDesc(user.getId(), Pageable.unpaged()).size());
+
+        assertTrue(userRepository.findByUsername("kept").isPresent());
+        assertEquals(WASTE_COUNT, wasteRepository.countByUserId(otherUser.getId()));
+        assertEquals(WASTE_COUNT,
+                     creditEventRepository.findAllByUserIdOrderByIdDesc(otherUser.getId(), Pageable.unpaged()).size());
+    }
+
+    private User createUser(String username) {
+
+        User user = new User();
+        user.setUsername(username);
+        user.setRoles(List.of("ROLE_USER"));
+        user = userRepository.save(user);
+
+        Dustbin dustbin = dustbinRepository.save(new Dustbin("Dustbin of " + username, 40.15, 116.28));
+        for (int i = 0; i < WASTE_COUNT; i++) {
+            wasteRepository.save(new Waste(user, WasteCategory.FOOD_WASTE, 0.5, dustbin, LocalDateTime.now()));
+            creditLedger.offset(user, 1);
+        }
+
+        return user;
+    }
+}
@@ -0,0 +1,121 @@
+package com.charliechiang.wastesortinghelperserver.loadtest;
+
+import java.util.Arrays;
+
+// Latencies of one endpoint, kept in full so percentiles are exact.
+class EndpointStatistics {
+
+    private final String endpoint;
+
+    private long[] latencies = new long[1024];
+    private int count;
+    private int errorCount;
+
+    EndpointStatistics(String endpoint) {
+
+        this.endpoint = endpoint;
+    }
+
+    synchronized void record(long latencyNanos,
+                             boolean isSuccessful) {
+
+        if (count == latencies.length) {
+            latencies = Arrays.copyOf(latencies, count * 2);
+        }
+        latencies[count++] = latencyNanos;
+
+        if (!isSuccessful) {
+            errorCount++;
+        }
+    }
+
+    synchronized Summary summarize(double elapsedSeconds) {
+
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+
+        return new Summary(endpoint,
+                           count,
+                           errorCount,
+                           count / elapsedSeconds,
+                           percentile(sorted, 0.50),
+                           percentile(sorted, 0.95),
+                           percentile(sorted, 0.99),
+                           count == 0 ? 0 : sorted[count - 1] / 1e6);
+    }
+
+    // nearest-rank percentile in milliseconds
+    private static double percentile(long[] sorted,
+                                     double quantile) {
+
+        if (sorted.length == 0) {
+            return 0;
+        }
+
+        int rank = (int) Math.ceil(quantile * sorted.length);
+        return sorted[Math.max(rank - 1, 0)] / 1e6;
+    }
+
+    static class Summary {
+
+        private final String endpoint;
+        private final int count;
+        private final int errorCount;
+        private final double throughput;
+        private final double p50;
+        private final double p95;
+        private final double p99;
+        private final double max;
+
+        Summary(String endpoint,
+                int count,
+                int errorCount,
+                double throughput,
+                double p50,
+                double p95,
+                double p99,
+                double max) {
+
+            this.endpoint = endpoint;
+            this.count = count;
+            this.errorCount = errorCount;
+            this.throughput = throughput;
+            this.p50 = p50;
+            this.p95 = p95;
+            this.p99 = p99;
+            this.max = max;
+        }
+
+        public String getEndpoint() {
+            return endpoint;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public int getErrorCount() {
+            return errorCount;
+        }
+
+        public double getThroughput() {
+            return throughput;
+        }
+
+        public double getP50() {
+            return p50;
+        }
+
+        public double getP95() {
+            return p95;
+        }
+
+        public double getP99() {
+            return p99;
+        }
+
+        public double getMax() {
+            return max;
+        }
+    }
+}
@@ -0,0 +1,333 @@
+package com.charliechiang.wastesortinghelperserver.loadtest;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import com.alibaba.fastjson.serializer.SerializerFeature;
+import com.charliechiang.wastesortinghelperserver.WasteSortingHelperServerApplication;
+import com.charliechiang.wastesortinghelperserver.model.WasteCategory;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+// Simulates dustbins and students against the HTTP API and reports throughput and latency per endpoint.
+//
+// mvn -P loadtest verify -Dloadtest.dustbins=20 -Dloadtest.students=500 -Dloadtest.duration-seconds=120
+//
+// Starts the application on an in-memory H2 database unless loadtest.url points to a running server.
+public class LoadTestRunner {
+
+    private final String baseUrl;
+    private final String adminPassword = System.getProperty("loadtest.admin-password", "password");
+
+    private final int dustbinCount = Integer.getInteger("loadtest.dustbins", 20);
+    private final int studentCount = Integer.getInteger("loadtest.students", 200);
+    private final int warmupSeconds = Integer.getInteger("loadtest.warmup-seconds", 10);
+    private final int durationSeconds = Integer.getInteger("loadtest.duration-seconds", 60);
+    // mean pause between two requests of the same client, pauses are exponentially distributed
+    private final int studentThinkTimeMillis = Integer.getInteger("loadtest.student-think-time-ms", 2000);
+    private final int depositIntervalMillis = Integer.getInteger("loadtest.deposit-interval-ms", 1000);
+    private final double fullReportRatio = Double.parseDouble(System.getProperty("loadtest.full-report-ratio", "0.05"));
+    private final String reportPath = System.getProperty("loadtest.report", "target/loadtest-report.json");
+
+    private final HttpClient httpClient = HttpClient.newBuilder()
+                                                    .version(HttpClient.Version.HTTP_1_1)
+                                                    .connectTimeout(Duration.ofSeconds(10))
+                                                    .build();
+    private final ConcurrentHashMap<String, EndpointStatistics> statisticsMap = new ConcurrentHashMap<>();
+
+    private final List<Long> dustbinIds = new ArrayList<>();
+    private final List<String> usernames = new ArrayList<>();
+    private final List<String> tokens = new ArrayList<>();
+
+    private volatile boolean isRunning = true;
+    private volatile boolean isMeasuring = false;
+
+    public LoadTestRunner(String baseUrl) {
+
+        this.baseUrl = baseUrl;
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        ConfigurableApplicationContext context = null;
+        String baseUrl = System.getProperty("loadtest.url");
+
+        if (baseUrl == null || baseUrl.isEmpty()) {
+            context = new SpringApplicationBuilder(WasteSortingHelperServerApplication.class).profiles("loadtest")
+                                                                                             .run(args);
+            baseUrl = "http://localhost:" + context.getEnvironment().getProperty("local.server.port");
+        }
+
+        try {
+            new LoadTestRunner(baseUrl).run();
+        } finally {
+            if (context != null) {
+                context.close();
+            }
+        }
+    }
+
+    public void run() throws Exception {
+
+        System.out.println("Seeding " + dustbinCount + " dustbins and " + studentCount + " students at " + baseUrl);
+        seed();
+
+        ExecutorService executor = Executors.newFixedThreadPool(dustbinCount + studentCount);
+        List<Future<?>> clients = new ArrayList<>();
+        for (Long i : dustbinIds) {
+            clients.add(executor.submit(() -> simulateDustbin(i)));
+        }
+        for (String i : tokens) {
+            clients.add(executor.submit(() -> simulateStudent(i)));
+        }
+
+        System.out.println("Warming up for " + warmupSeconds + " s");
+        Thread.sleep(warmupSeconds * 1000L);
+
+        System.out.println("Measuring for " + durationSeconds + " s");
+        isMeasuring = true;
+        long startTime = System.nanoTime();
+        Thread.sleep(durationSeconds * 1000L);
+        isMeasuring = false;
+        double elapsedSeconds = (System.nanoTime() - startTime) / 1e9;
+
+        isRunning = false;
+        for (Future<?> i : clients) {
+            i.get();
+        }
+        executor.shutdown();
+
+        report(elapsedSeconds);
+    }
+
+    private void seed() throws Exception {
+
+        String adminToken = login("admin", adminPassword);
+
+        for (int i = 0; i < dustbinCount; i++) {
+            JSONObject dustbin = new JSONObject();
+            dustbin.put("name", "Load test dustbin " + i);
+            dustbin.put("latitude", 40.15 + ThreadLocalRandom.current().nextDouble(0.01));
+            dustbin.put("longitude", 116.28 + ThreadLocalRandom.current().nextDouble(0.01));
+
+            HttpResponse<String> response = httpClient.send(post("/api/v1/dustbins", dustbin, adminToken),
+                                                            HttpResponse.BodyHandlers.ofString());
+            expectSuccess(response);
+            dustbinIds.add(JSON.parseObject(response.body()).getLong("id"));
+        }
+
+        // usernames are unique per run so a shared server can be targeted repeatedly
+        String runId = Long.toString(System.currentTimeMillis(), 36);
+        for (int i = 0; i < studentCount; i++) {
+            usernames.add("lt-" + runId + "-" + i);
+        }
+
+        // password hashing dominates seeding, so students are signed up and signed in in parallel
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        List<Future<String>> pendingTokens = new ArrayList<>();
+        for (String i : usernames) {
+            pendingTokens.add(executor.submit(() -> {
+                JSONObject user = new JSONObject();
+                user.put("username", i);
+                user.put("password", i);
+                user.put("realName", i);
+                user.put("schoolId", 0);
+                expectSuccess(httpClient.send(post("/api/v1/users", user, null), HttpResponse.BodyHandlers.ofString()));
+
+                return login(i, i);
+            }));
+        }
+        for (Future<String> i : pendingTokens) {
+            tokens.add(i.get());
+        }
+        executor.shutdown();
+    }
+
+    private String login(String username,
+                         String password) throws IOException, InterruptedException {
+
+        JSONObject credentials = new JSONObject();
+        credentials.put("username", username);
+        credentials.put("password", password);
+
+        HttpResponse<String> response = httpClient.send(post("/api/v1/auth/login", credentials, null),
+                                                        HttpResponse.BodyHandlers.ofString());
+        expectSuccess(response);
+
+        return JSON.parseObject(response.body()).getString("token");
+    }
+
+    private void simulateDustbin(Long dustbinId) {
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        WasteCategory[] categories = WasteCategory.values();
+
+        while (isRunning) {
+            pause(depositIntervalMillis);
+
+            try {
+                if (random.nextDouble() < fullReportRatio) {
+                    JSONObject status = new JSONObject();
+                    status.put("hazardousWasteFull", random.nextInt(4) == 0);
+                    status.put("recyclableWasteFull", random.nextInt(4) == 0);
+                    status.put("foodWasteFull", random.nextInt(4) == 0);
+                    status.put("residualWasteFull", random.nextInt(4) == 0);
+
+                    send("POST /api/v1/dustbins/{id}/full", post("/api/v1/dustbins/" + dustbinId + "/full", status, null));
+                    continue;
+                }
+
+                JSONObject waste = new JSONObject();
+                waste.put("username", usernames.get(random.nextInt(usernames.size())));
+                waste.put("dustbinId", dustbinId);
+                waste.put("weight", Math.round(random.nextDouble(0.05, 2) * 100) / 100.0);
+                waste.put("category", categories[random.nextInt(categories.length)]);
+                waste.put("isCorrectlyCategorized", random.nextInt(10) != 0);
+
+                send("POST /api/v1/wastes", post("/api/v1/wastes", waste, null));
+            } catch (IOException ex) {
+                // already counted as an error
+            } catch (InterruptedException ex) {
+                return;
+            }
+        }
+    }
+
+    private void simulateStudent(String token) {
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        while (isRunning) {
+            pause(studentThinkTimeMillis);
+
+            try {
+                int choice = random.nextInt(100);
+                if (choice < 25) {
+                    send("GET /api/v1/users/me", get("/api/v1/users/me", token));
+                } else if (choice < 60) {
+                    send("GET /api/v1/users/me/wastes", get("/api/v1/users/me/wastes?n=20", token));
+                } else if (choice < 85) {
+                    send("GET /api/v1/users/me/credit", get("/api/v1/users/me/credit", token));
+                } else {
+                    send("GET /api/v1/users/me/ranking", get("/api/v1/users/me/ranking", token));
+                }
+            } catch (IOException ex) {
+                // already counted as an error
+            } catch (InterruptedException ex) {
+                return;
+            }
+        }
+    }
+
+    private void pause(int meanMillis) {
+
+        long millis = (long) (-meanMillis * Math.log(1 - ThreadLocalRandom.current().nextDouble()));
+
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            isRunning = false;
+        }
+    }
+
+    private void send(String endpoint,
+                      HttpRequest request) throws IOException, InterruptedException {
+
+        long startTime = System.nanoTime();
+        boolean isSuccessful = false;
+
+        try {
+            isSuccessful = httpClient.send(request, HttpResponse.BodyHandlers.ofString()).statusCode() < 400;
+        } finally {
+            if (isMeasuring) {
+                statisticsMap.computeIfAbsent(endpoint, EndpointStatistics::new)
+                             .record(System.nanoTime() - startTime, isSuccessful);
+            }
+        }
+    }
+
+    private HttpRequest get(String path,
+                            String token) {
+
+        return HttpRequest.newBuilder(URI.create(baseUrl + path))
+                          .header("Authorization", "Bearer " + token)
+                          .GET()
+                          .build();
+    }
+
+    private HttpRequest post(String path,
+                             JSONObject body,
+                             String token) {
+
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(baseUrl + path))
+                                                 .header("Content-Type", "application/json")
+                                                 .POST(HttpRequest.BodyPublishers.ofString(body.toJSONString()));
+        if (token != null) {
+            builder.header("Authorization", "Bearer " + token);
+        }
+
+        return builder.build();
+    }
+
+    private static void expectSuccess(HttpResponse<String> response) throws IOException {
+
+        if (response.statusCode() >= 400) {
+            throw new IOException(response.request().method() + " " + response.request().uri()
+                                  + " failed with status " + response.statusCode() + ": " + response.body());
+        }
+    }
+
+    private void report(double elapsedSeconds) throws IOException {
+
+        List<EndpointStatistics.Summary> summaries = statisticsMap.values()
+                                                                  .stream()
+                                                                  .map(i -> i.summarize(elapsedSeconds))
+                                                                  .sorted(Comparator.comparing(EndpointStatistics.Summary::getEndpoint))
+                                                                  .collect(Collectors.toList());
+
+        System.out.println();
+        System.out.println(dustbinCount + " dustbins, " + studentCount + " students, "
+                           + String.format("%.1f", elapsedSeconds) + " s measured");
+        System.out.println(String.format("%-36s %8s %7s %9s %9s %9s %9s %9s",
+                                         "Endpoint", "Count", "Errors", "Req/s", "p50 ms", "p95 ms", "p99 ms", "Max ms"));
+        for (EndpointStatistics.Summary i : summaries) {
+            System.out.println(String.format("%-36s %8d %7d %9.1f %9.2f %9.2f %9.2f %9.2f",
+                                             i.getEndpoint(),
+                                             i.getCount(),
+                                             i.getErrorCount(),
+                                             i.getThroughput(),
+                                             i.getP50(),
+                                             i.getP95(),
+                                             i.getP99(),
+                                             i.getMax()));
+        }
+
+        Path report = Path.of(reportPath);
+        if (report.getParent() != null) {
+            Files.createDirectories(report.getParent());
+        }
+        Files.writeString(report, JSON.toJSONString(summaries, SerializerFeature.PrettyFormat), StandardCharsets.UTF_8);
+        System.out.println();
+        System.out.println("Report written to " + report.toAbsolutePath());
+    }
+}
@@ -2,4 +2,9 @@
 JARPATH=$(ls target | grep ".jar$")
 JARPATH="target/"$JARPATH
 # echo $JARPATH
-java -jar $JARPATH & echo $! > ./pid.file &
+if [ -f target/cds/app.jsa ]; then
+    # built by cds.sh
+    java -XX:SharedArchiveFile=target/cds/app.jsa -jar target/cds/app.jar "$@" & echo $! > ./pid.file &
+else
+    java -jar $JARPATH "$@" & echo $! > ./pid.file &
+fi
@@ -0,0 +1,77 @@
+#!/bin/bash
+# Measures time-to-first-request of the packaged jar (run "mvn package" first) with and without the fast-start
+# profile, and with the class-data sharing archive when cds.sh has built one. Arguments are passed to the
+# application, e.g.
+#   RUNS=10 ./startup-benchmark.sh --spring.datasource.password=...
+# Each run is appended to target/startup-benchmark.csv so results can be compared across builds.
+#   ready_ms  launch until /actuator/health answers
+#   login_ms  the first login after that, which also creates the lazily initialized beans it needs
+
+JARPATH=$(ls target/*.jar | grep -v "\.original$" | head -n 1)
+RUNS=${RUNS:-5}
+PORT=${PORT:-10883}
+ADMIN_USERNAME=${ADMIN_USERNAME:-admin}
+ADMIN_PASSWORD=${ADMIN_PASSWORD:-password}
+RESULT=target/startup-benchmark.csv
+COMMIT=$(git rev-parse --short HEAD 2>/dev/null)
+
+[ -f $RESULT ] || echo "time,commit,configuration,run,ready_ms,login_ms" > $RESULT
+
+now_ms() {
+    echo $(($(date +%s%N) / 1000000))
+}
+
+measure() {
+    local CONFIGURATION=$1
+    shift
+
+    local READY_SAMPLES=()
+    local LOGIN_SAMPLES=()
+
+    for RUN in $(seq 1 $RUNS); do
+        local START=$(now_ms)
+        java "$@" --server.port=$PORT $APP_ARGS > /dev/null 2>&1 &
+        local APP_PID=$!
+
+        until [ "$(curl -s -o /dev/null -w "%{http_code}" http://localhost:$PORT/actuator/health)" = "200" ]; do
+            if ! kill -0 $APP_PID 2>/dev/null; then
+                echo "$CONFIGURATION: the application exited during startup." >&2
+                return 1
+            fi
+            sleep 0.05
+        done
+        local READY=$(($(now_ms) - START))
+
+        # seeding runs after readiness, so the admin account may not exist yet on an empty database
+        local LOGIN
+        until LOGIN=$(curl -s -f -o /dev/null -w "%{time_total}" -X POST http://localhost:$PORT/api/v1/auth/login \
+                           -H "Content-Type: application/json" \
+                           -d "{\"username\":\"$ADMIN_USERNAME\",\"password\":\"$ADMIN_PASSWORD\"}"); do
+            sleep 0.05
+        done
+        LOGIN=$(awk "BEGIN { printf \"%d\", $LOGIN * 1000 }")
+
+        kill $APP_PID
+        wait $APP_PID 2>/dev/null
+
+        READY_SAMPLES+=($READY)
+        LOGIN_SAMPLES+=($LOGIN)
+        echo "$(date -Iseconds),$COMMIT,$CONFIGURATION,$RUN,$READY,$LOGIN" >> $RESULT
+    done
+
+    printf "%-16s ready median %6d ms, first login median %6d ms (%d runs)\n" \
+           "$CONFIGURATION" "$(median "${READY_SAMPLES[@]}")" "$(median "${LOGIN_SAMPLES[@]}")" $RUNS
+}
+
+median() {
+    local SORTED=($(printf "%s\n" "$@" | sort -n))
+    echo ${SORTED[$((${#SORTED[@]} / 2))]}
+}
+
+APP_ARGS="$*"
+
+measure default -jar $JARPATH
+measure fast-start -jar $JARPATH --spring.profiles.active=fast-start
+if [ -f target/cds/app.jsa ]; then
+    measure fast-start+cds -XX:SharedArchiveFile=target/cds/app.jsa -jar target/cds/app.jar --spring.profiles.active=fast-start
+fi